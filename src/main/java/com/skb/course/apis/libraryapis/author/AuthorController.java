@@ -1,17 +1,23 @@
 package com.skb.course.apis.libraryapis.author;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
 import com.skb.course.apis.libraryapis.author.Author;
 import com.skb.course.apis.libraryapis.author.AuthorService;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceUnauthorizedException;
+import com.skb.course.apis.libraryapis.security.JwtClaims;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import com.skb.course.apis.libraryapis.util.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.util.UUID;
@@ -23,27 +29,36 @@ public class AuthorController {
     private static Logger logger = LoggerFactory.getLogger(AuthorController.class);
 
     private AuthorService authorService;
+    private ObjectMapper objectMapper;
 
-    public AuthorController(AuthorService authorService) {
+    public AuthorController(AuthorService authorService, ObjectMapper objectMapper) {
         this.authorService = authorService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping(path = "/{authorId}")
     public ResponseEntity<?> getAuthor(@PathVariable Integer authorId,
-                                          @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+                                          @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                          WebRequest webRequest)
             throws LibraryResourceNotFoundException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
         logger.debug("Added TraceId: {}", traceId);
-        return new ResponseEntity<>(authorService.getAuthor(authorId, traceId), HttpStatus.OK);
+
+        // Sends a 304 if the client's If-None-Match is still current
+        String eTag = authorService.getAuthorETag(authorId, traceId);
+        if(webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(authorService.getAuthor(authorId, traceId));
     }
 
     @PostMapping
     public ResponseEntity<?> addAuthor(@Valid @RequestBody Author author,
                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                          @RequestHeader(value = "Authorization") String bearerToken)
+                                          @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceAlreadyExistException, LibraryResourceUnauthorizedException {
 
         logger.debug("Request to add Author: {}", author);
@@ -51,8 +66,8 @@ public class AuthorController {
             traceId = UUID.randomUUID().toString();
         }
         logger.debug("Added TraceId: {}", traceId);
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to add a Author. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to add a Author. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Author");
         }
         authorService.addAuthor(author, traceId);
@@ -65,15 +80,15 @@ public class AuthorController {
     public ResponseEntity<?> updateAuthor(@PathVariable Integer authorId,
                                           @Valid @RequestBody Author author,
                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                          @RequestHeader(value = "Authorization") String bearerToken)
+                                          @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
         logger.debug("Added TraceId: {}", traceId);
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to update a Author. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to update a Author. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Author");
         }
 
@@ -86,14 +101,14 @@ public class AuthorController {
     @DeleteMapping(path = "/{authorId}")
     public ResponseEntity<?> deleteAuthor(@PathVariable Integer authorId,
                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                          @RequestHeader(value = "Authorization") String bearerToken)
+                                          @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to delete a Author. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to delete a Author. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Author");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -118,4 +133,25 @@ public class AuthorController {
         logger.debug("Returning response for TraceId: {}", traceId);
         return new ResponseEntity<>(authorService.searchAuthor(firstName, lastName, traceId), HttpStatus.OK);
     }
+
+    @GetMapping(path = "/search", produces = NdJsonWriter.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAuthors(@RequestParam String firstName, @RequestParam String lastName,
+                                                               @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+        logger.debug("Added TraceId: {}", traceId);
+        if(!LibraryApiUtils.doesStringValueExist(firstName) && !LibraryApiUtils.doesStringValueExist(lastName)) {
+            logger.error("TraceId: {}, Please enter at least one search criteria to search Authors!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Please enter a name to search Author.");
+        }
+        String streamTraceId = traceId;
+        StreamingResponseBody body = outputStream -> authorService.streamAuthors(firstName, lastName,
+                new NdJsonWriter<>(objectMapper, outputStream), streamTraceId);
+
+        logger.debug("Streaming response for TraceId: {}", traceId);
+        return ResponseEntity.ok().contentType(NdJsonWriter.APPLICATION_NDJSON).body(body);
+    }
 }
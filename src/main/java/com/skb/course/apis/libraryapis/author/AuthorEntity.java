@@ -32,6 +32,11 @@ public class AuthorEntity {
     @Enumerated(EnumType.STRING)
     private Gender gender;
 
+    // Incremented by Hibernate on every update. Serves as the ETag of the Author
+    @Version
+    @Column(name = "Version")
+    private int version;
+
     @ManyToMany(fetch = FetchType.LAZY,
                 cascade = CascadeType.ALL,
                 mappedBy = "authors")
@@ -74,4 +79,8 @@ public class AuthorEntity {
     public void setGender(Gender gender) {
         this.gender = gender;
     }
+
+    public int getVersion() {
+        return version;
+    }
 }
@@ -1,16 +1,43 @@
 package com.skb.course.apis.libraryapis.author;
 
 import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface AuthorRepository extends CrudRepository<AuthorEntity, Integer> {
-    List<AuthorEntity> findByFirstNameContaining(String firstName);
 
-    List<AuthorEntity> findByLastNameContaining(String lastName);
+    @Query("select a.version from AuthorEntity a where a.authorId = :authorId")
+    Optional<Integer> findVersionByAuthorId(@Param("authorId") Integer authorId);
+
+    @Query("select b.bookId from AuthorEntity a join a.books b where a.authorId = :authorId")
+    List<Integer> findBookIdsByAuthorId(@Param("authorId") Integer authorId);
+
+    // The search methods select only the columns of AuthorSearchView, no entities are loaded
+    List<AuthorSearchView> findByFirstNameContaining(String firstName);
+
+    List<AuthorSearchView> findByLastNameContaining(String lastName);
+
+    List<AuthorSearchView> findByFirstNameAndLastNameContaining(String firstName, String lastName);
+
+    // Streaming variants of the above, they need to be consumed within a transaction
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<AuthorSearchView> streamByFirstNameContaining(String firstName);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<AuthorSearchView> streamByLastNameContaining(String lastName);
 
-    List<AuthorEntity> findByFirstNameAndLastNameContaining(String firstName, String lastName);
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<AuthorSearchView> streamByFirstNameAndLastNameContaining(String firstName, String lastName);
 }
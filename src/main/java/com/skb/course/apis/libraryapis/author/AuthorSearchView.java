@@ -0,0 +1,43 @@
+package com.skb.course.apis.libraryapis.author;
+
+import com.skb.course.apis.libraryapis.model.common.Gender;
+
+import java.time.LocalDate;
+
+// Read-only projection of the AUTHOR columns returned by the Author search
+public class AuthorSearchView {
+
+    private final int authorId;
+    private final String firstName;
+    private final String lastName;
+    private final LocalDate dateOfBirth;
+    private final Gender gender;
+
+    public AuthorSearchView(int authorId, String firstName, String lastName, LocalDate dateOfBirth, Gender gender) {
+        this.authorId = authorId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.dateOfBirth = dateOfBirth;
+        this.gender = gender;
+    }
+
+    public int getAuthorId() {
+        return authorId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public LocalDate getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+}
@@ -5,17 +5,21 @@ import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundExceptio
 import com.skb.course.apis.libraryapis.author.Author;
 import com.skb.course.apis.libraryapis.author.AuthorEntity;
 import com.skb.course.apis.libraryapis.author.AuthorRepository;
+import com.skb.course.apis.libraryapis.book.BookCache;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class AuthorService {
@@ -23,9 +27,11 @@ public class AuthorService {
     private static Logger logger = LoggerFactory.getLogger(AuthorService.class);
 
     private AuthorRepository authorRepository;
+    private BookCache bookCache;
 
-    public AuthorService(AuthorRepository authorRepository) {
+    public AuthorService(AuthorRepository authorRepository, BookCache bookCache) {
         this.authorRepository = authorRepository;
+        this.bookCache = bookCache;
     }
 
     public void addAuthor(Author authorToBeAdded, String traceId)
@@ -67,6 +73,14 @@ public class AuthorService {
         return author;
     }
 
+    // Answered from the version column alone, without loading the Author
+    public String getAuthorETag(Integer authorId, String traceId) throws LibraryResourceNotFoundException {
+
+        return authorRepository.findVersionByAuthorId(authorId)
+                .map(String::valueOf)
+                .orElseThrow(() -> new LibraryResourceNotFoundException(traceId, "Author Id: " + authorId + " Not Found"));
+    }
+
     public void updateAuthor(Author authorToBeUpdated, String traceId) throws LibraryResourceNotFoundException {
 
         Optional<AuthorEntity> authorEntity = authorRepository.findById(authorToBeUpdated.getAuthorId());
@@ -82,6 +96,8 @@ public class AuthorService {
                 ae.setGender(authorToBeUpdated.getGender());
             }
             authorRepository.save(ae);
+            // The Author is part of the cached Books, and of their ETags
+            evictBooks(ae.getAuthorId());
             authorToBeUpdated = createAuthorFromEntity(ae);
         } else {
             throw new LibraryResourceNotFoundException(traceId, "Author Id: " + authorToBeUpdated.getAuthorId() + " Not Found");
@@ -92,39 +108,68 @@ public class AuthorService {
 
     public void deleteAuthor(Integer authorId, String traceId) throws LibraryResourceNotFoundException {
 
+        List<Integer> bookIds = authorRepository.findBookIdsByAuthorId(authorId);
         try {
             authorRepository.deleteById(authorId);
         } catch(EmptyResultDataAccessException e) {
             logger.error("TraceId: {}, Author Id: {} Not Found", traceId, authorId, e);
             throw new LibraryResourceNotFoundException(traceId, "Author Id: " + authorId + " Not Found");
         }
+        bookIds.forEach(bookCache::evict);
+    }
+
+    private void evictBooks(Integer authorId) {
+        authorRepository.findBookIdsByAuthorId(authorId).forEach(bookCache::evict);
     }
 
     public List<Author> searchAuthor(String firstName, String lastName, String traceId) {
 
-        List<AuthorEntity> authorEntities = null;
+        List<AuthorSearchView> authorViews = null;
         if(LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
-            authorEntities = authorRepository.findByFirstNameAndLastNameContaining(firstName, lastName);
+            authorViews = authorRepository.findByFirstNameAndLastNameContaining(firstName, lastName);
         } else if(LibraryApiUtils.doesStringValueExist(firstName) && !LibraryApiUtils.doesStringValueExist(lastName)) {
-            authorEntities = authorRepository.findByFirstNameContaining(firstName);
+            authorViews = authorRepository.findByFirstNameContaining(firstName);
         } else if(!LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
-            authorEntities = authorRepository.findByLastNameContaining(lastName);
+            authorViews = authorRepository.findByLastNameContaining(lastName);
         }
-        if(authorEntities != null && authorEntities.size() > 0) {
-            return createAuthorsForSearchResponse(authorEntities);
+        if(authorViews != null && authorViews.size() > 0) {
+            return createAuthorsForSearchResponse(authorViews);
         } else {
             return Collections.emptyList();
         }
     }
 
+    // Same search as above, but each Author is handed over to the consumer as soon as it is read from the DB
+    @Transactional(readOnly = true)
+    public void streamAuthors(String firstName, String lastName, Consumer<Author> consumer, String traceId) {
+
+        Stream<AuthorSearchView> authorViews = Stream.empty();
+        if(LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
+            authorViews = authorRepository.streamByFirstNameAndLastNameContaining(firstName, lastName);
+        } else if(LibraryApiUtils.doesStringValueExist(firstName) && !LibraryApiUtils.doesStringValueExist(lastName)) {
+            authorViews = authorRepository.streamByFirstNameContaining(firstName);
+        } else if(!LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
+            authorViews = authorRepository.streamByLastNameContaining(lastName);
+        }
+        logger.debug("TraceId: {}, Streaming Authors", traceId);
+        try(Stream<AuthorSearchView> stream = authorViews) {
+            // Projections are not managed, so the persistence context doesn't grow with the result
+            stream.forEach(av -> consumer.accept(createAuthorFromSearchView(av)));
+        }
+    }
+
     private Author createAuthorFromEntity(AuthorEntity ae) {
         return new Author(ae.getAuthorId(), ae.getFirstName(), ae.getLastName(),
                 ae.getDateOfBirth(), ae.getGender());
     }
 
-    private List<Author> createAuthorsForSearchResponse(List<AuthorEntity> authorEntities) {
-        return authorEntities.stream()
-                .map(ae -> new Author(ae.getAuthorId(), ae.getFirstName(), ae.getLastName(), ae.getDateOfBirth(), ae.getGender()))
+    private List<Author> createAuthorsForSearchResponse(List<AuthorSearchView> authorViews) {
+        return authorViews.stream()
+                .map(this::createAuthorFromSearchView)
                 .collect(Collectors.toList());
     }
+
+    private Author createAuthorFromSearchView(AuthorSearchView av) {
+        return new Author(av.getAuthorId(), av.getFirstName(), av.getLastName(), av.getDateOfBirth(), av.getGender());
+    }
 }
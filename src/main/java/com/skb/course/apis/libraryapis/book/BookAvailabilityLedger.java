@@ -0,0 +1,467 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.skb.course.apis.libraryapis.util.IntLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Number of copies of each Book and how many of them are issued, kept in memory so that issue and return decisions
+ * don't need a DB round trip.
+ *
+ * The counts are held in primitive int-keyed maps striped over lock shards, so decisions on different Books seldom
+ * wait for each other. Every change is appended to a local journal before it is acknowledged and the changed counts
+ * are written to BOOK_STATUS in JDBC batches every flush interval. On start, the journal is replayed and written to
+ * BOOK_STATUS. Books that aren't in the journal are loaded from BOOK_STATUS the first time they are needed.
+ *
+ * Returned copies are put back only once the return has committed, so a crash in between would leave them counted as
+ * issued. On start, before anything is issued or returned, the copies issued of every Book are therefore checked
+ * against the loans and held reservations in the DB, and corrected.
+ *
+ * The ledger must be the only writer of the counts: only one instance of the API may issue and return Books against
+ * a database, and the journal directory belongs to that database.
+ */
+@Component
+public class BookAvailabilityLedger {
+
+    private static Logger logger = LoggerFactory.getLogger(BookAvailabilityLedger.class);
+
+    public enum IssueResult {
+        Issued,
+        NoCopiesAvailable,
+        NotFound
+    }
+
+    private static final long MISSING = -1L;
+
+    private BookStatusRepository bookStatusRepository;
+    private TransactionTemplate transactionTemplate;
+    private Path journalDirectory;
+    private boolean syncJournal;
+    private long flushIntervalMillis;
+    private int flushBatchSize;
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final Object flushLock = new Object();
+    // Journal segments whose counts haven't made it to BOOK_STATUS yet
+    private final List<Path> unflushedSegments = new ArrayList<>();
+
+    private BookLedgerJournal journal;
+    private ScheduledExecutorService flusher;
+
+    public BookAvailabilityLedger(BookStatusRepository bookStatusRepository, PlatformTransactionManager transactionManager,
+                                  @Value("${library.ledger.journal.dir:data/ledger}") String journalDirectory,
+                                  @Value("${library.ledger.journal.sync:true}") boolean syncJournal,
+                                  @Value("${library.ledger.shards:64}") int shards,
+                                  @Value("${library.ledger.flush.interval.millis:1000}") long flushIntervalMillis,
+                                  @Value("${library.ledger.flush.batch.size:500}") int flushBatchSize) {
+        this.bookStatusRepository = bookStatusRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.journalDirectory = Paths.get(journalDirectory);
+        this.syncJournal = syncJournal;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushBatchSize = flushBatchSize;
+
+        int shardCount = Integer.highestOneBit(Math.max(shards, 1) * 2 - 1);
+        this.shards = new Shard[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.shardMask = shardCount - 1;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+
+        long start = System.currentTimeMillis();
+        journal = new BookLedgerJournal(journalDirectory, syncJournal);
+        int[] records = new int[1];
+        BookLedgerJournal.replay(journal.getRecoveredSegments(), (bookId, total, issued) -> {
+            Shard shard = shardOf(bookId);
+            if(total == BookLedgerJournal.DELETED) {
+                shard.counts.remove(bookId);
+                shard.dirty.remove(bookId);
+            } else {
+                shard.counts.put(bookId, pack(total, issued));
+                shard.dirty.put(bookId, 0);
+            }
+            records[0]++;
+        });
+        synchronized(flushLock) {
+            unflushedSegments.addAll(journal.getRecoveredSegments());
+        }
+        flush();
+        int corrected = correctCopiesIssued();
+        logger.info("Book availability ledger recovered {} journal records from {} and corrected the copies issued " +
+                "of {} Books in {} ms", records[0], journalDirectory.toAbsolutePath(), corrected,
+                System.currentTimeMillis() - start);
+
+        if(flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "book-ledger-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+
+        if(flusher != null) {
+            flusher.shutdown();
+        }
+        flushQuietly();
+        journal.close();
+    }
+
+    /**
+     * Takes one copy of the Book if there is one left.
+     */
+    public IssueResult issue(int bookId) {
+
+        load(Collections.singleton(bookId));
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            long counts = shard.counts.get(bookId, MISSING);
+            if(counts == MISSING) {
+                return IssueResult.NotFound;
+            }
+            if(issued(counts) >= total(counts)) {
+                return IssueResult.NoCopiesAvailable;
+            }
+            shard.set(bookId, total(counts), issued(counts) + 1);
+            return IssueResult.Issued;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts one copy of the Book back. Returns false if no copy of the Book is issued.
+     */
+    public boolean returnCopy(int bookId) {
+        return returnCopies(bookId, 1) == 1;
+    }
+
+    /**
+     * Puts the given number of copies of the Book back in one change. Returns how many were put back, which is less
+     * than asked for if fewer copies of the Book are issued.
+     */
+    public int returnCopies(int bookId, int copies) {
+
+        load(Collections.singleton(bookId));
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            long counts = shard.counts.get(bookId, MISSING);
+            if(counts == MISSING || copies <= 0) {
+                return 0;
+            }
+            int returned = Math.min(copies, issued(counts));
+            if(returned > 0) {
+                shard.set(bookId, total(counts), issued(counts) - returned);
+            }
+            return returned;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the total number of copies of the Book, unless it is less than the number of copies issued. Returns the
+     * total and issued copies of the Book afterwards followed by the total before, or null if there is no such Book.
+     */
+    public int[] restock(int bookId, int totalNumberOfCopies) {
+
+        load(Collections.singleton(bookId));
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            long counts = shard.counts.get(bookId, MISSING);
+            if(counts == MISSING) {
+                return null;
+            }
+            int previousTotal = total(counts);
+            if(totalNumberOfCopies >= issued(counts)) {
+                shard.set(bookId, totalNumberOfCopies, issued(counts));
+                counts = pack(totalNumberOfCopies, issued(counts));
+            }
+            return new int[] {total(counts), issued(counts), previousTotal};
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Undoes a {@link #restock(int, int)} to restockedTotal, unless the total has been changed again since or more
+     * than previousTotal copies are issued by now. Returns false if the total was left as it is.
+     */
+    public boolean revertRestock(int bookId, int restockedTotal, int previousTotal) {
+
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            long counts = shard.counts.get(bookId, MISSING);
+            if(counts == MISSING || total(counts) != restockedTotal || issued(counts) > previousTotal) {
+                return false;
+            }
+            shard.set(bookId, previousTotal, issued(counts));
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * The total and issued copies of the Book, or null if the ledger doesn't hold the Book. In that case BOOK_STATUS
+     * is up to date. Never goes to the DB.
+     */
+    public int[] getCounts(int bookId) {
+
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            long counts = shard.counts.get(bookId, MISSING);
+            return counts == MISSING ? null : new int[] {total(counts), issued(counts)};
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    // The Book has been deleted
+    public void remove(int bookId) {
+
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            if(shard.counts.containsKey(bookId)) {
+                append(bookId, BookLedgerJournal.DELETED, 0);
+                shard.counts.remove(bookId);
+                shard.dirty.remove(bookId);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Loads, with one query, the Books that the ledger doesn't hold yet.
+     */
+    public void load(Collection<Integer> bookIds) {
+
+        List<Integer> missing = new ArrayList<>();
+        for(Integer bookId : bookIds) {
+            Shard shard = shardOf(bookId);
+            shard.lock.lock();
+            try {
+                if(!shard.counts.containsKey(bookId)) {
+                    missing.add(bookId);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        if(missing.isEmpty()) {
+            return;
+        }
+        for(Object[] row : bookStatusRepository.findCountsByBookIdIn(missing)) {
+            int bookId = (Integer) row[0];
+            Shard shard = shardOf(bookId);
+            shard.lock.lock();
+            try {
+                // Someone else may have loaded and changed it in the meantime
+                if(!shard.counts.containsKey(bookId)) {
+                    shard.counts.put(bookId, pack((Integer) row[1], (Integer) row[2]));
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the counts changed since the last flush to BOOK_STATUS, then drops the journal segments that held them.
+     */
+    public void flush() {
+
+        synchronized(flushLock) {
+            // Counts read after the segment is closed include every change recorded in it
+            try {
+                unflushedSegments.addAll(journal.rotate());
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            List<int[]> changed = new ArrayList<>();
+            for(Shard shard : shards) {
+                shard.lock.lock();
+                try {
+                    IntLongHashMap dirty = shard.dirty;
+                    shard.dirty = new IntLongHashMap(16);
+                    dirty.forEach((bookId, ignored) -> {
+                        long counts = shard.counts.get(bookId, MISSING);
+                        if(counts != MISSING) {
+                            changed.add(new int[] {bookId, total(counts), issued(counts)});
+                        }
+                    });
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+
+            try {
+                for(int from = 0; from < changed.size(); from += flushBatchSize) {
+                    List<int[]> batch = changed.subList(from, Math.min(from + flushBatchSize, changed.size()));
+                    int[] updated = transactionTemplate.execute(status -> bookStatusRepository.updateCounts(batch));
+                    for(int i = 0; i < updated.length; i++) {
+                        if(updated[i] == 0) {
+                            // The Book has been deleted since
+                            forget(batch.get(i)[0]);
+                        }
+                    }
+                }
+            } catch(RuntimeException e) {
+                // Writing the counts again is harmless, so simply try them all again next time
+                for(int[] counts : changed) {
+                    markDirty(counts[0]);
+                }
+                throw e;
+            }
+
+            try {
+                journal.delete(unflushedSegments);
+                unflushedSegments.clear();
+            } catch(IOException e) {
+                logger.warn("Could not delete flushed book ledger journal segments {}", unflushedSegments, e);
+            }
+            if(!changed.isEmpty()) {
+                logger.debug("Book availability ledger flushed the counts of {} Books", changed.size());
+            }
+        }
+    }
+
+    // Only right while nothing is being issued or returned, as the loans and the ledger change in turn
+    private int correctCopiesIssued() {
+
+        List<Object[]> miscounted = bookStatusRepository.findMiscountedCopiesIssued();
+        for(Object[] row : miscounted) {
+            int bookId = ((Number) row[0]).intValue();
+            int copiesOut = ((Number) row[3]).intValue();
+            logger.warn("Book Id: {} has {} copies out, not the {} counted as issued", bookId, copiesOut, row[2]);
+            Shard shard = shardOf(bookId);
+            shard.lock.lock();
+            try {
+                shard.set(bookId, ((Number) row[1]).intValue(), copiesOut);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        if(!miscounted.isEmpty()) {
+            flush();
+        }
+        return miscounted.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch(RuntimeException e) {
+            logger.error("Book availability ledger could not be flushed to BOOK_STATUS!!", e);
+        }
+    }
+
+    private void forget(int bookId) {
+
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            shard.counts.remove(bookId);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void markDirty(int bookId) {
+
+        Shard shard = shardOf(bookId);
+        shard.lock.lock();
+        try {
+            if(shard.counts.containsKey(bookId)) {
+                shard.dirty.put(bookId, 0);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void append(int bookId, int totalNumberOfCopies, int numberOfCopiesIssued) {
+        try {
+            journal.append(bookId, totalNumberOfCopies, numberOfCopiesIssued);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Book ledger journal could not be written", e);
+        }
+    }
+
+    private Shard shardOf(int bookId) {
+        return shards[shardIndexOf(bookId)];
+    }
+
+    // Books of a shard share a lock. The shard count is a power of two.
+    int shardIndexOf(int bookId) {
+        return (bookId ^ (bookId >>> 16)) & shardMask;
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    private static long pack(int totalNumberOfCopies, int numberOfCopiesIssued) {
+        return ((long) totalNumberOfCopies << 32) | (numberOfCopiesIssued & 0xFFFFFFFFL);
+    }
+
+    private static int total(long counts) {
+        return (int) (counts >>> 32);
+    }
+
+    private static int issued(long counts) {
+        return (int) counts;
+    }
+
+    private class Shard {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final IntLongHashMap counts = new IntLongHashMap(256);
+        // Books changed since the last flush (the values are not used)
+        private IntLongHashMap dirty = new IntLongHashMap(16);
+
+        // Called with the lock held. The change is in the journal before anyone can see it.
+        private void set(int bookId, int totalNumberOfCopies, int numberOfCopiesIssued) {
+            append(bookId, totalNumberOfCopies, numberOfCopiesIssued);
+            counts.put(bookId, pack(totalNumberOfCopies, numberOfCopiesIssued));
+            dirty.put(bookId, 0);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.skb.course.apis.libraryapis.book;
+
+import java.util.List;
+
+public class BookBatchResponse {
+
+    private List<Book> books;
+    private List<Integer> missingBookIds;
+
+    public BookBatchResponse() {
+    }
+
+    public BookBatchResponse(List<Book> books, List<Integer> missingBookIds) {
+        this.books = books;
+        this.missingBookIds = missingBookIds;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public void setBooks(List<Book> books) {
+        this.books = books;
+    }
+
+    public List<Integer> getMissingBookIds() {
+        return missingBookIds;
+    }
+
+    public void setMissingBookIds(List<Integer> missingBookIds) {
+        this.missingBookIds = missingBookIds;
+    }
+}
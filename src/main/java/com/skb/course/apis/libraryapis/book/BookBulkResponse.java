@@ -0,0 +1,60 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookBulkResponse {
+
+    private int created;
+    private int conflicts;
+    private int invalid;
+    // Set if the load stopped early because the request body could not be read
+    private String error;
+    private List<BookBulkResult> results = new ArrayList<>();
+
+    public BookBulkResponse() {
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public int getConflicts() {
+        return conflicts;
+    }
+
+    public void setConflicts(int conflicts) {
+        this.conflicts = conflicts;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    public void setInvalid(int invalid) {
+        this.invalid = invalid;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<BookBulkResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<BookBulkResult> results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,74 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Outcome of one row of a bulk Book load. Rows are numbered from 0 in the order they were sent.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookBulkResult {
+
+    private int row;
+    private String isbn;
+    private Integer bookId;
+    private BookBulkResultStatus status;
+    private String message;
+
+    public BookBulkResult() {
+    }
+
+    public BookBulkResult(int row, String isbn) {
+        this.row = row;
+        this.isbn = isbn;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    public Integer getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(Integer bookId) {
+        this.bookId = bookId;
+    }
+
+    public BookBulkResultStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(BookBulkResultStatus status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    void created(Integer bookId) {
+        this.bookId = bookId;
+        this.status = BookBulkResultStatus.Created;
+        this.message = null;
+    }
+
+    void failed(BookBulkResultStatus status, String message) {
+        this.bookId = null;
+        this.status = status;
+        this.message = message;
+    }
+}
@@ -0,0 +1,8 @@
+package com.skb.course.apis.libraryapis.book;
+
+public enum BookBulkResultStatus {
+
+    Created,
+    Conflict,
+    Invalid;
+}
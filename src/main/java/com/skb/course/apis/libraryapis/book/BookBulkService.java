@@ -0,0 +1,322 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceUnavailableException;
+import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.DataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLDataException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk load of Books (e.g. a publisher catalog). The request body is a JSON array which is read one Book at a time
+ * and loaded in chunks. For each chunk, the Publishers not seen before in this load and the ISBNs that already exist
+ * are looked up with one query each, then the BOOK and BOOK_STATUS rows are inserted in JDBC batches in a transaction
+ * of their own. A row that can't be loaded is reported as Invalid or Conflict and doesn't stop the rest of the load.
+ * A failure that isn't down to a row (e.g. the DB can't be reached) stops the load, Books of the chunks before stay
+ * loaded.
+ */
+@Service
+public class BookBulkService {
+
+    private static Logger logger = LoggerFactory.getLogger(BookBulkService.class);
+
+    private BookRepository bookRepository;
+    private PublisherRepository publisherRepository;
+    private BookTitleIndex bookTitleIndex;
+    private BookIsbnIndex bookIsbnIndex;
+    private TransactionTemplate transactionTemplate;
+    private ObjectMapper objectMapper;
+    private Validator validator;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${library.api.book.bulk.chunk.size:500}")
+    private int chunkSize = 500;
+
+    // Same as the allocationSize of book_sequence, so each batch of BOOK rows needs at most one trip to the sequence
+    @Value("${library.api.book.bulk.jdbc.batch.size:50}")
+    private int jdbcBatchSize = 50;
+
+    public BookBulkService(BookRepository bookRepository, PublisherRepository publisherRepository,
+                           BookTitleIndex bookTitleIndex, BookIsbnIndex bookIsbnIndex,
+                           PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+                           Validator validator) {
+        this.bookRepository = bookRepository;
+        this.publisherRepository = publisherRepository;
+        this.bookTitleIndex = bookTitleIndex;
+        this.bookIsbnIndex = bookIsbnIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+    }
+
+    public BookBulkResponse addBooks(InputStream books, String traceId)
+            throws LibraryResourceBadRequestException, LibraryResourceUnavailableException {
+
+        long start = System.currentTimeMillis();
+        BookBulkResponse response = new BookBulkResponse();
+        LoadState loadState = new LoadState();
+        List<PendingBook> chunk = new ArrayList<>(chunkSize);
+
+        try(JsonParser parser = objectMapper.getFactory().createParser(books)) {
+            if(parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new LibraryResourceBadRequestException(traceId, "Request body must be a JSON array of Books");
+            }
+
+            int row = 0;
+            while(parser.nextToken() == JsonToken.START_OBJECT) {
+                // Read the row as a tree first so that a row which doesn't map to a Book doesn't end the load
+                JsonNode node = parser.readValueAsTree();
+                BookBulkResult result = new BookBulkResult(row++, node.path("isbn").asText(null));
+                response.getResults().add(result);
+
+                Book book;
+                try {
+                    book = objectMapper.treeToValue(node, Book.class);
+                } catch(JsonProcessingException e) {
+                    result.failed(BookBulkResultStatus.Invalid, e.getOriginalMessage());
+                    continue;
+                }
+                String invalidReason = validate(book);
+                if(invalidReason != null) {
+                    result.failed(BookBulkResultStatus.Invalid, invalidReason);
+                    continue;
+                }
+
+                chunk.add(new PendingBook(book, result));
+                if(chunk.size() == chunkSize) {
+                    loadChunk(chunk, loadState, traceId);
+                    chunk.clear();
+                }
+            }
+            if(parser.currentToken() != JsonToken.END_ARRAY) {
+                response.setError("Expected a Book or the end of the array after row " + row);
+            }
+        } catch(JsonProcessingException e) {
+            logger.error("TraceId: {}, Bulk load request body is malformed!!", traceId, e);
+            response.setError(e.getOriginalMessage());
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Whatever was read before the body turned out to be malformed is still loaded
+        loadChunk(chunk, loadState, traceId);
+
+        for(BookBulkResult result : response.getResults()) {
+            switch(result.getStatus()) {
+                case Created:
+                    response.setCreated(response.getCreated() + 1);
+                    break;
+                case Conflict:
+                    response.setConflicts(response.getConflicts() + 1);
+                    break;
+                default:
+                    response.setInvalid(response.getInvalid() + 1);
+            }
+        }
+        logger.info("TraceId: {}, Bulk load of {} Books done in {} ms. Created: {}, Conflicts: {}, Invalid: {}",
+                traceId, response.getResults().size(), System.currentTimeMillis() - start, response.getCreated(),
+                response.getConflicts(), response.getInvalid());
+        return response;
+    }
+
+    private String validate(Book book) {
+
+        Set<ConstraintViolation<Book>> violations = validator.validate(book);
+        if(!violations.isEmpty()) {
+            ConstraintViolation<Book> violation = violations.iterator().next();
+            return violation.getPropertyPath() + ": " + violation.getMessage();
+        }
+        if(book.getTitle() == null) {
+            return "title: must not be null";
+        }
+        if(book.getPublisherId() == null) {
+            return "publisherId: must not be null";
+        }
+        if(book.getYearPublished() == null) {
+            return "yearPublished: must not be null";
+        }
+        if(book.getBookStatus() == null || book.getBookStatus().getState() == null) {
+            return "bookStatus: state must not be null";
+        }
+        return null;
+    }
+
+    private void loadChunk(List<PendingBook> chunk, LoadState loadState, String traceId)
+            throws LibraryResourceUnavailableException {
+
+        if(chunk.isEmpty()) {
+            return;
+        }
+        resolvePublishers(chunk, loadState);
+
+        Set<String> isbns = new HashSet<>();
+        chunk.forEach(pb -> isbns.add(pb.book.getIsbn()));
+        Set<String> existingIsbns = new HashSet<>(bookRepository.findIsbnsByIsbnIn(isbns));
+
+        List<PendingBook> toInsert = new ArrayList<>(chunk.size());
+        for(PendingBook pb : chunk) {
+            Integer publisherId = pb.book.getPublisherId();
+            if(!loadState.publisherIds.contains(publisherId)) {
+                pb.result.failed(BookBulkResultStatus.Invalid, "Publisher Id: " + publisherId + " Not Found");
+            } else if(existingIsbns.contains(pb.book.getIsbn()) || !loadState.isbns.add(pb.book.getIsbn())) {
+                pb.result.failed(BookBulkResultStatus.Conflict, "Book already exists!!");
+            } else {
+                toInsert.add(pb);
+            }
+        }
+
+        try {
+            insert(toInsert);
+        } catch(PersistenceException | DataAccessException | TransactionException e) {
+            // Most likely one of the ISBNs was added by someone else since we checked. Go row by row to find out.
+            logger.warn("TraceId: {}, Batch insert of {} Books failed, retrying one by one", traceId, toInsert.size(), e);
+            for(PendingBook pb : toInsert) {
+                try {
+                    insert(Collections.singletonList(pb));
+                } catch(PersistenceException | DataAccessException | TransactionException ex) {
+                    logger.error("TraceId: {}, Book with ISBN: {} could not be added!!", traceId, pb.book.getIsbn(), ex);
+                    if(causedBy(ex, ConstraintViolationException.class, SQLIntegrityConstraintViolationException.class)) {
+                        pb.result.failed(BookBulkResultStatus.Conflict, "Book already exists!!");
+                    } else if(ex instanceof DataIntegrityViolationException
+                            || causedBy(ex, DataException.class, SQLDataException.class)) {
+                        pb.result.failed(BookBulkResultStatus.Invalid, rootCause(ex).getMessage());
+                    } else {
+                        throw new LibraryResourceUnavailableException(traceId, "Bulk load stopped at row " +
+                                pb.result.getRow() + ", rows before it may have been loaded. Try again later.");
+                    }
+                }
+            }
+        }
+    }
+
+    @SafeVarargs
+    private static boolean causedBy(Throwable e, Class<? extends Throwable>... causes) {
+
+        for(Throwable t = e; t != null; t = t.getCause()) {
+            for(Class<? extends Throwable> cause : causes) {
+                if(cause.isInstance(t)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Throwable rootCause(Throwable e) {
+
+        Throwable t = e;
+        while(t.getCause() != null && t.getCause() != t) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    // Looks up, in one go, the Publishers of this chunk that haven't been seen before in this load
+    private void resolvePublishers(List<PendingBook> chunk, LoadState loadState) {
+
+        Set<Integer> publisherIds = new HashSet<>();
+        for(PendingBook pb : chunk) {
+            Integer publisherId = pb.book.getPublisherId();
+            if(!loadState.publisherIds.contains(publisherId) && !loadState.missingPublisherIds.contains(publisherId)) {
+                publisherIds.add(publisherId);
+            }
+        }
+        if(publisherIds.isEmpty()) {
+            return;
+        }
+        for(PublisherEntity pe : publisherRepository.findAllById(publisherIds)) {
+            loadState.publisherIds.add(pe.getPublisherid());
+        }
+        publisherIds.removeAll(loadState.publisherIds);
+        loadState.missingPublisherIds.addAll(publisherIds);
+    }
+
+    private void insert(List<PendingBook> pendingBooks) {
+
+        if(pendingBooks.isEmpty()) {
+            return;
+        }
+        transactionTemplate.execute(status -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(jdbcBatchSize);
+
+            List<BookEntity> bookEntities = new ArrayList<>(pendingBooks.size());
+            for(PendingBook pb : pendingBooks) {
+                Book book = pb.book;
+                BookEntity bookEntity = new BookEntity(book.getIsbn(), book.getTitle(), book.getYearPublished(),
+                        book.getEdition());
+                // The Publisher is known to exist, no need to load it
+                bookEntity.setPublisher(entityManager.getReference(PublisherEntity.class, book.getPublisherId()));
+                entityManager.persist(bookEntity);
+                bookEntities.add(bookEntity);
+            }
+            // BOOK_STATUS rows are persisted after all the BOOK rows so that each table gets its own JDBC batches
+            for(int i = 0; i < pendingBooks.size(); i++) {
+                BookStatus bookStatus = pendingBooks.get(i).book.getBookStatus();
+                entityManager.persist(new BookStatusEntity(bookEntities.get(i).getBookId(), bookStatus.getState(),
+                        bookStatus.getTotalNumberOfCopies(), 0));
+            }
+            entityManager.flush();
+            entityManager.clear();
+
+            for(int i = 0; i < pendingBooks.size(); i++) {
+                BookEntity bookEntity = bookEntities.get(i);
+                bookTitleIndex.add(bookEntity.getBookId(), bookEntity.getTitle());
+                bookIsbnIndex.add(bookEntity.getBookId(), bookEntity.getIsbn());
+                pendingBooks.get(i).result.created(bookEntity.getBookId());
+            }
+            return null;
+        });
+    }
+
+    private static class PendingBook {
+
+        private final Book book;
+        private final BookBulkResult result;
+
+        private PendingBook(Book book, BookBulkResult result) {
+            this.book = book;
+            this.result = result;
+        }
+    }
+
+    // What has been learnt so far in this load
+    private static class LoadState {
+
+        private final Set<Integer> publisherIds = new HashSet<>();
+        private final Set<Integer> missingPublisherIds = new HashSet<>();
+        private final Set<String> isbns = new HashSet<>();
+    }
+}
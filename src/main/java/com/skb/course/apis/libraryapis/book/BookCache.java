@@ -0,0 +1,93 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of assembled {@link Book} objects, each with its ETag, keyed by Book Id. Entries are evicted by
+ * size and by age, and explicitly whenever a Book (its BookStatus or one of its Authors) changes.
+ *
+ * A Book read before a change must not be cached after the change has evicted it. Single Books are therefore loaded
+ * within the cache, where an eviction of the same Book waits for the load, and Books loaded in bulk are only cached
+ * if nothing was evicted while they were being read.
+ *
+ * Hit/miss/eviction counters are published as "cache.*" metrics with the tag cache=books.
+ */
+@Component
+public class BookCache {
+
+    public static final String CACHE_NAME = "books";
+
+    private Cache<Integer, CachedBook> cache;
+    // Evictions so far, see putIfNoneEvicted
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BookCache(@Value("${library.cache.book.max.size:10000}") long maxSize,
+                     @Value("${library.cache.book.ttl.seconds:300}") long ttlSeconds,
+                     MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public Book get(Integer bookId) {
+        CachedBook cachedBook = cache.getIfPresent(bookId);
+        return cachedBook == null ? null : cachedBook.getBook();
+    }
+
+    /**
+     * Returns the cached Book, or the one loaded (and cached) by the loader. The loader returns null if there is no
+     * such Book, which is not cached.
+     */
+    public CachedBook get(Integer bookId, Function<Integer, CachedBook> loader) {
+        return cache.get(bookId, loader);
+    }
+
+    // To be read before Books are loaded in bulk, and handed to putIfNoneEvicted when caching them
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Caches the Book unless a Book has been evicted since {@link #getEvictions()} returned evictionsBefore, in which
+     * case the Book may have been read before it changed.
+     */
+    public void putIfNoneEvicted(Integer bookId, CachedBook cachedBook, long evictionsBefore) {
+        // Evictions count first and then invalidate, which waits for the compute of the same Book
+        cache.asMap().compute(bookId, (id, cached) -> evictions.get() == evictionsBefore ? cachedBook : cached);
+    }
+
+    /**
+     * Evicts the Book straight away. If called within a transaction, the Book is evicted once more after the
+     * transaction commits so that a concurrent read can't re-populate the cache with the old state.
+     */
+    public void evict(Integer bookId) {
+        invalidate(bookId);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            LibraryApiUtils.runAfterCommit(() -> invalidate(bookId));
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private void invalidate(Integer bookId) {
+        evictions.incrementAndGet();
+        cache.invalidate(bookId);
+    }
+}
@@ -1,17 +1,27 @@
 package com.skb.course.apis.libraryapis.book;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceUnauthorizedException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceUnavailableException;
+import com.skb.course.apis.libraryapis.security.JwtClaims;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import com.skb.course.apis.libraryapis.util.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -22,27 +32,80 @@ public class BookController {
     private static Logger logger = LoggerFactory.getLogger(BookController.class);
 
     private BookService bookService;
+    private BookBulkService bookBulkService;
+    private ObjectMapper objectMapper;
 
-    public BookController(BookService bookService) {
+    @Value("${library.api.book.batch.max.size:100}")
+    private int maxBatchSize;
+
+    @Value("${library.api.book.search.max.limit:100}")
+    private int maxSearchLimit;
+
+    public BookController(BookService bookService, BookBulkService bookBulkService, ObjectMapper objectMapper) {
         this.bookService = bookService;
+        this.bookBulkService = bookBulkService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping(path = "/{bookId}")
     public ResponseEntity<?> getBook(@PathVariable Integer bookId,
-                                          @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+                                          @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                          WebRequest webRequest)
+            throws LibraryResourceNotFoundException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        // Sends a 304 if the client's If-None-Match is still current
+        CachedBook cachedBook = bookService.getCachedBook(bookId, traceId);
+        if(webRequest.checkNotModified(cachedBook.getETag())) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(cachedBook.getETag()).body(cachedBook.getBook());
+    }
+
+    @GetMapping(path = "/isbn/{isbn}")
+    public ResponseEntity<?> getBookByIsbn(@PathVariable String isbn,
+                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
             throws LibraryResourceNotFoundException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
 
-        return new ResponseEntity<>(bookService.getBook(bookId, traceId), HttpStatus.OK);
+        return new ResponseEntity<>(bookService.getBookByIsbn(isbn, traceId), HttpStatus.OK);
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getBooks(@RequestParam List<Integer> ids,
+                                      @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        return new ResponseEntity<>(bookService.getBooks(validateBookIds(ids, traceId), traceId), HttpStatus.OK);
+    }
+
+    // Same as GET /v1/books?ids=... for lists of Book Ids that are too long for a query string
+    @PostMapping(path = "/batch")
+    public ResponseEntity<?> getBooksBatch(@RequestBody List<Integer> bookIds,
+                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        return new ResponseEntity<>(bookService.getBooks(validateBookIds(bookIds, traceId), traceId), HttpStatus.OK);
     }
 
     @PostMapping
     public ResponseEntity<?> addBook(@Valid @RequestBody Book book,
                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                          @RequestHeader(value = "Authorization") String bearerToken)
+                                          @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceAlreadyExistException, LibraryResourceUnauthorizedException, LibraryResourceNotFoundException {
 
         logger.debug("Request to add Book: {}", book);
@@ -50,8 +113,8 @@ public class BookController {
             traceId = UUID.randomUUID().toString();
         }
 
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to add a Book. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to add a Book. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Book");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -61,19 +124,39 @@ public class BookController {
         return new ResponseEntity<>(book, HttpStatus.CREATED);
     }
 
+    // Loads a whole catalog in one request. The body is a JSON array of Books and is read as it arrives.
+    @PostMapping(path = "/bulk")
+    public ResponseEntity<?> addBooks(InputStream books,
+                                      @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                      @AuthenticationPrincipal JwtClaims claims)
+            throws LibraryResourceBadRequestException, LibraryResourceUnauthorizedException,
+            LibraryResourceUnavailableException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to bulk add Books. Disallowed because user is not Admin");
+            throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add Books");
+        }
+
+        return new ResponseEntity<>(bookBulkService.addBooks(books, traceId), HttpStatus.OK);
+    }
+
     @PutMapping(path = "/{bookId}")
     public ResponseEntity<?> updateBook(@PathVariable Integer bookId,
                                              @Valid @RequestBody Book book,
                                              @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                             @RequestHeader(value = "Authorization") String bearerToken)
+                                             @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
 
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to update a Book. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to update a Book. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Book");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -85,18 +168,45 @@ public class BookController {
         return new ResponseEntity<>(book, HttpStatus.OK);
     }
 
+    @PutMapping(path = "/{bookId}/status")
+    public ResponseEntity<?> restockBook(@PathVariable Integer bookId,
+                                         @RequestBody BookStatus bookStatus,
+                                         @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                         @AuthenticationPrincipal JwtClaims claims)
+            throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException,
+            LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to restock a Book. Disallowed because user is not Admin");
+            throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to restock a Book");
+        }
+        if(bookStatus.getTotalNumberOfCopies() < 0) {
+            logger.error("TraceId: {}, Total number of copies can't be negative!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Total number of copies can't be negative");
+        }
+        logger.debug("Added TraceId: {}", traceId);
+
+        BookStatus restocked = bookService.restockBook(bookId, bookStatus, traceId);
+        logger.debug("Returning response for TraceId: {}", traceId);
+        return new ResponseEntity<>(restocked, HttpStatus.OK);
+    }
+
     @DeleteMapping(path = "/{bookId}")
     public ResponseEntity<?> deleteBook(@PathVariable Integer bookId,
                                              @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                             @RequestHeader(value = "Authorization") String bearerToken)
+                                             @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
 
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to delete a Book. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to delete a Book. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Book");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -110,7 +220,7 @@ public class BookController {
     public ResponseEntity<?> addBookAuthors(@PathVariable Integer bookId,
                                         @RequestBody Set<Integer> authorIds,
                                         @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                        @RequestHeader(value = "Authorization") String bearerToken)
+                                        @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException,
             LibraryResourceBadRequestException {
 
@@ -122,8 +232,8 @@ public class BookController {
             logger.error("TraceId: {}, Please supply at least one author to be added!!", traceId);
             throw new LibraryResourceBadRequestException(traceId, "Please supply at least one author to be added");
         }
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to add Authors to a Book. " +
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to add Authors to a Book. " +
                     "Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to add Authors to a Book");
         }
@@ -135,6 +245,8 @@ public class BookController {
 
     @GetMapping(path = "/search")
     public ResponseEntity<?> searchBookByTitle(@RequestParam String title,
+                                             @RequestParam(defaultValue = "20") int limit,
+                                             @RequestParam(required = false) String cursor,
                                              @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
             throws LibraryResourceBadRequestException {
 
@@ -146,7 +258,50 @@ public class BookController {
             logger.error("TraceId: {}, Please enter a name to search Book!!", traceId);
             throw new LibraryResourceBadRequestException(traceId, "Please enter a name to search Book.");
         }
+        if(limit < 1 || limit > maxSearchLimit) {
+            logger.error("TraceId: {}, Invalid search limit: {}!!", traceId, limit);
+            throw new LibraryResourceBadRequestException(traceId, "Search limit must be between 1 and " + maxSearchLimit);
+        }
         logger.debug("Returning response for TraceId: {}", traceId);
-        return new ResponseEntity<>(bookService.searchBookByTitle(title, traceId), HttpStatus.OK);
+        return new ResponseEntity<>(bookService.searchBookByTitle(title, limit, cursor, traceId), HttpStatus.OK);
+    }
+
+    // Returns all the matching Books, one per line, instead of a page at a time
+    @GetMapping(path = "/search", produces = NdJsonWriter.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamBooksByTitle(@RequestParam String title,
+                                                                    @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        if(!LibraryApiUtils.doesStringValueExist(title)) {
+            logger.error("TraceId: {}, Please enter a name to search Book!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Please enter a name to search Book.");
+        }
+        String streamTraceId = traceId;
+        StreamingResponseBody body = outputStream -> bookService.streamBooksByTitle(title,
+                new NdJsonWriter<>(objectMapper, outputStream), streamTraceId);
+
+        logger.debug("Streaming response for TraceId: {}", traceId);
+        return ResponseEntity.ok().contentType(NdJsonWriter.APPLICATION_NDJSON).body(body);
+    }
+
+    private List<Integer> validateBookIds(List<Integer> bookIds, String traceId) throws LibraryResourceBadRequestException {
+
+        if(bookIds == null || bookIds.size() == 0) {
+            logger.error("TraceId: {}, Please supply at least one Book Id!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Please supply at least one Book Id");
+        }
+        if(bookIds.size() > maxBatchSize) {
+            logger.error("TraceId: {}, {} Book Ids requested, more than the allowed {}!!", traceId, bookIds.size(), maxBatchSize);
+            throw new LibraryResourceBadRequestException(traceId, "Please supply at most " + maxBatchSize + " Book Ids");
+        }
+        if(bookIds.contains(null)) {
+            logger.error("TraceId: {}, Invalid Book Id supplied!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Invalid Book Id supplied");
+        }
+        return bookIds;
     }
 }
@@ -30,6 +30,11 @@ public class BookEntity {
     @Column(name = "Edition")
     private String edition;
 
+    // Incremented on every update, including changes to the authors. Part of the ETag of the Book
+    @Version
+    @Column(name = "Version")
+    private int version;
+
     @ManyToOne(fetch = FetchType.LAZY,
                 cascade = CascadeType.ALL)
     @JoinColumn(name = "Publisher_Id",
@@ -126,4 +131,8 @@ public class BookEntity {
     public void setAuthors(Set<AuthorEntity> authors) {
         this.authors = authors;
     }
+
+    public int getVersion() {
+        return version;
+    }
 }
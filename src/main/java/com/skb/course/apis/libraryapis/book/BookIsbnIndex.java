@@ -0,0 +1,112 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory ISBN -> Book Id hash index used to answer the ISBN lookup without going to the DB.
+ *
+ * ISBNs that are not in the index are checked against the DB once and, if still not found, remembered as misses
+ * for a short while so that repeated lookups of an unknown ISBN (e.g. a bad scan) don't reach the DB every time.
+ * Miss counters are published as "cache.*" metrics with the tag cache=isbn-misses.
+ */
+@Component
+public class BookIsbnIndex {
+
+    private static Logger logger = LoggerFactory.getLogger(BookIsbnIndex.class);
+
+    public static final String MISSES_CACHE_NAME = "isbn-misses";
+
+    private BookRepository bookRepository;
+
+    private final Map<String, Integer> bookIdsByIsbn = new ConcurrentHashMap<>();
+    private final Map<Integer, String> isbnsByBookId = new ConcurrentHashMap<>();
+    private Cache<String, Boolean> misses;
+    private volatile boolean ready;
+
+    public BookIsbnIndex(BookRepository bookRepository,
+                         @Value("${library.cache.isbn.miss.max.size:100000}") long missMaxSize,
+                         @Value("${library.cache.isbn.miss.ttl.seconds:30}") long missTtlSeconds,
+                         MeterRegistry meterRegistry) {
+        this.bookRepository = bookRepository;
+        this.misses = Caffeine.newBuilder()
+                .maximumSize(missMaxSize)
+                .expireAfterWrite(missTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, misses, MISSES_CACHE_NAME);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+
+        long start = System.currentTimeMillis();
+        for(Object[] bookIdAndIsbn : bookRepository.findAllBookIdsAndIsbns()) {
+            put((Integer) bookIdAndIsbn[0], (String) bookIdAndIsbn[1]);
+        }
+        ready = true;
+        logger.info("Book ISBN index built with {} ISBNs in {} ms", bookIdsByIsbn.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns the Id of the Book with the given ISBN, or null if there is no such Book.
+     */
+    public Integer find(String isbn) {
+
+        Integer bookId = ready ? bookIdsByIsbn.get(isbn) : null;
+        if(bookId != null) {
+            return bookId;
+        }
+        if(misses.getIfPresent(isbn) != null) {
+            return null;
+        }
+
+        // Not in the index (or the index isn't built yet). The Book may have been added through another instance.
+        BookEntity bookEntity = bookRepository.findByIsbn(isbn);
+        if(bookEntity == null) {
+            misses.put(isbn, Boolean.TRUE);
+            return null;
+        }
+        put(bookEntity.getBookId(), bookEntity.getIsbn());
+        return bookEntity.getBookId();
+    }
+
+    // Within a transaction, the change is applied once the transaction commits
+    public void add(int bookId, String isbn) {
+        misses.invalidate(isbn);
+        LibraryApiUtils.runAfterCommit(() -> {
+            put(bookId, isbn);
+            misses.invalidate(isbn);
+        });
+    }
+
+    public void remove(int bookId) {
+        LibraryApiUtils.runAfterCommit(() -> {
+            String isbn = isbnsByBookId.remove(bookId);
+            if(isbn != null) {
+                bookIdsByIsbn.remove(isbn, bookId);
+            }
+        });
+    }
+
+    private void put(Integer bookId, String isbn) {
+        if(isbn != null) {
+            bookIdsByIsbn.put(isbn, bookId);
+            isbnsByBookId.put(bookId, isbn);
+        }
+    }
+}
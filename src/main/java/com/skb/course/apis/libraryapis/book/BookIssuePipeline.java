@@ -0,0 +1,168 @@
+package com.skb.course.apis.libraryapis.book;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional way of taking copies from the {@link BookAvailabilityLedger}: each Book is handed to one of a few
+ * single-threaded workers, chosen from the Book Id, and only that worker ever issues copies of it. Workers line up
+ * with the ledger's lock shards, so an issue never waits for another one.
+ *
+ * Every worker has a bounded queue. When a queue is full the request is refused instead of waiting for the worker
+ * to catch up (counted as "library.issue.pipeline.rejected"); queue depths are published as
+ * "library.issue.pipeline.queue.depth".
+ */
+@Component
+public class BookIssuePipeline {
+
+    private static Logger logger = LoggerFactory.getLogger(BookIssuePipeline.class);
+
+    public static final String QUEUE_DEPTH_METRIC = "library.issue.pipeline.queue.depth";
+    public static final String REJECTED_METRIC = "library.issue.pipeline.rejected";
+
+    private BookAvailabilityLedger bookAvailabilityLedger;
+    private BookService bookService;
+    private boolean enabled;
+    private ThreadPoolExecutor[] workers;
+    private int workerMask;
+    private ExecutorService completionExecutor;
+    private Counter rejected;
+
+    public BookIssuePipeline(BookAvailabilityLedger bookAvailabilityLedger, BookService bookService,
+                             MeterRegistry meterRegistry,
+                             @Value("${library.issue.pipeline.enabled:false}") boolean enabled,
+                             @Value("${library.issue.pipeline.workers:4}") int workers,
+                             @Value("${library.issue.pipeline.queue.capacity:1000}") int queueCapacity,
+                             @Value("${library.issue.pipeline.completion.threads:4}") int completionThreads) {
+        this.bookAvailabilityLedger = bookAvailabilityLedger;
+        this.bookService = bookService;
+        this.enabled = enabled;
+        if(!enabled) {
+            return;
+        }
+
+        // A power of two no larger than the number of shards, so that every shard belongs to a single worker
+        int workerCount = Integer.highestOneBit(Math.max(1, Math.min(workers, bookAvailabilityLedger.getShardCount())));
+        this.workers = new ThreadPoolExecutor[workerCount];
+        this.workerMask = workerCount - 1;
+        for(int i = 0; i < workerCount; i++) {
+            String name = "book-issue-worker-" + i;
+            ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), r -> daemonThread(r, name));
+            Gauge.builder(QUEUE_DEPTH_METRIC, worker, w -> w.getQueue().size())
+                    .tag("worker", String.valueOf(i))
+                    .register(meterRegistry);
+            this.workers[i] = worker;
+        }
+        AtomicInteger completionThreadCount = new AtomicInteger();
+        this.completionExecutor = Executors.newFixedThreadPool(Math.max(1, completionThreads),
+                r -> daemonThread(r, "book-issue-complete-" + completionThreadCount.incrementAndGet()));
+        this.rejected = meterRegistry.counter(REJECTED_METRIC);
+        logger.info("Book issue pipeline started with {} workers", workerCount);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues one copy of each Book to be taken. The returned future completes, with the outcome for every Book, once
+     * all of them have been handled.
+     *
+     * @throws RejectedExecutionException if the queue of any of the Books is full. Copies of the other Books, if they
+     * were already queued, are put back as soon as they are taken.
+     */
+    public CompletableFuture<Map<Integer, BookAvailabilityLedger.IssueResult>> issue(Collection<Integer> bookIds) {
+
+        Map<Integer, CompletableFuture<BookAvailabilityLedger.IssueResult>> outcomes = new LinkedHashMap<>();
+        try {
+            for(Integer bookId : bookIds) {
+                CompletableFuture<BookAvailabilityLedger.IssueResult> outcome = new CompletableFuture<>();
+                workerOf(bookId).execute(() -> {
+                    try {
+                        outcome.complete(bookAvailabilityLedger.issue(bookId));
+                    } catch(RuntimeException e) {
+                        outcome.completeExceptionally(e);
+                    }
+                });
+                outcomes.put(bookId, outcome);
+            }
+        } catch(RejectedExecutionException e) {
+            rejected.increment();
+            outcomes.forEach((bookId, outcome) -> outcome.thenAccept(result -> putBack(bookId, result)));
+            throw e;
+        }
+
+        return CompletableFuture.allOf(outcomes.values().toArray(new CompletableFuture[0]))
+                .handle((ignored, failure) -> {
+                    Map<Integer, BookAvailabilityLedger.IssueResult> results = new HashMap<>(outcomes.size());
+                    outcomes.forEach((bookId, outcome) -> {
+                        if(!outcome.isCompletedExceptionally()) {
+                            results.put(bookId, outcome.join());
+                        }
+                    });
+                    if(failure != null) {
+                        results.forEach(this::putBack);
+                        throw failure instanceof CompletionException ? (CompletionException) failure
+                                : new CompletionException(failure);
+                    }
+                    return results;
+                });
+    }
+
+    // Where the work that follows an issue (writing the loans) should run, so that the workers are never blocked on
+    // the DB
+    public Executor getCompletionExecutor() {
+        return completionExecutor;
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        if(!enabled) {
+            return;
+        }
+        for(ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+        completionExecutor.shutdown();
+    }
+
+    private ThreadPoolExecutor workerOf(int bookId) {
+        return workers[bookAvailabilityLedger.shardIndexOf(bookId) & workerMask];
+    }
+
+    private void putBack(int bookId, BookAvailabilityLedger.IssueResult result) {
+        if(result == BookAvailabilityLedger.IssueResult.Issued) {
+            bookAvailabilityLedger.returnCopy(bookId);
+            bookService.bookStatusChanged(bookId);
+        }
+    }
+
+    private static Thread daemonThread(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,160 @@
+package com.skb.course.apis.libraryapis.book;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the {@link BookAvailabilityLedger}. Each record holds the counts of one Book after a change
+ * (not the change itself), so replaying the records in order leaves every Book with its latest counts no matter
+ * what was already written to BOOK_STATUS.
+ *
+ * The journal is a sequence of segment files. Flushing the ledger starts a new segment, and the older ones are
+ * deleted once their counts are in BOOK_STATUS.
+ */
+final class BookLedgerJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "book-ledger-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    // Book Id, total copies, copies issued and a CRC of the three, so that a record torn by a crash is detected
+    private static final int RECORD_SIZE = 16;
+
+    // Total copies of a record telling that the Book has been deleted
+    static final int DELETED = -1;
+
+    private final Path directory;
+    private final boolean sync;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private final List<Path> recoveredSegments;
+    private long segmentNumber;
+    private Path segment;
+    private FileChannel channel;
+    private boolean segmentEmpty;
+
+    BookLedgerJournal(Path directory, boolean sync) throws IOException {
+
+        this.directory = directory;
+        this.sync = sync;
+        Files.createDirectories(directory);
+
+        List<Path> segments = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        // Segment numbers are zero padded, so the names sort in the order the segments were written
+        Collections.sort(segments);
+        recoveredSegments = Collections.unmodifiableList(segments);
+        if(!segments.isEmpty()) {
+            String lastName = segments.get(segments.size() - 1).getFileName().toString();
+            segmentNumber = Long.parseLong(lastName.substring(SEGMENT_PREFIX.length(),
+                    lastName.length() - SEGMENT_SUFFIX.length()));
+        }
+        openNextSegment();
+    }
+
+    // The segments found when the journal was opened, oldest first
+    List<Path> getRecoveredSegments() {
+        return recoveredSegments;
+    }
+
+    synchronized void append(int bookId, int totalNumberOfCopies, int numberOfCopiesIssued) throws IOException {
+
+        record.clear();
+        record.putInt(bookId).putInt(totalNumberOfCopies).putInt(numberOfCopiesIssued).putInt(checksum(record, 12));
+        record.flip();
+        while(record.hasRemaining()) {
+            channel.write(record);
+        }
+        if(sync) {
+            channel.force(false);
+        }
+        segmentEmpty = false;
+    }
+
+    /**
+     * Starts a new segment and returns the one that was being written, or nothing if nothing was written to it.
+     */
+    synchronized List<Path> rotate() throws IOException {
+
+        if(segmentEmpty) {
+            return Collections.emptyList();
+        }
+        Path previous = segment;
+        channel.close();
+        openNextSegment();
+        return Collections.singletonList(previous);
+    }
+
+    void delete(List<Path> segments) throws IOException {
+        for(Path s : segments) {
+            Files.deleteIfExists(s);
+        }
+    }
+
+    /**
+     * Reads the records of the segments in order. Reading a segment stops at the first incomplete or corrupt record,
+     * which can only be the last one, written when the process died.
+     */
+    static void replay(List<Path> segments, RecordConsumer consumer) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for(Path s : segments) {
+            try(FileChannel in = FileChannel.open(s, StandardOpenOption.READ)) {
+                while(readRecord(in, buffer) && buffer.getInt(12) == checksum(new CRC32(), buffer, 12)) {
+                    consumer.accept(buffer.getInt(0), buffer.getInt(4), buffer.getInt(8));
+                }
+            }
+        }
+    }
+
+    private static boolean readRecord(FileChannel in, ByteBuffer buffer) throws IOException {
+
+        buffer.clear();
+        while(buffer.hasRemaining()) {
+            if(in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void openNextSegment() throws IOException {
+
+        segment = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, ++segmentNumber, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentEmpty = true;
+    }
+
+    private int checksum(ByteBuffer buffer, int length) {
+        return checksum(crc, buffer, length);
+    }
+
+    private static int checksum(CRC32 crc, ByteBuffer buffer, int length) {
+        crc.reset();
+        for(int i = 0; i < length; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(int bookId, int totalNumberOfCopies, int numberOfCopiesIssued);
+    }
+}
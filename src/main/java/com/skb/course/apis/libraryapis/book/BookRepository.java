@@ -1,13 +1,68 @@
 package com.skb.course.apis.libraryapis.book;
 
 import com.skb.course.apis.libraryapis.book.BookEntity;
-import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
-public interface BookRepository extends CrudRepository<BookEntity, Integer> {
-    List<BookEntity> findByTitleContaining(String title);
+public interface BookRepository extends PagingAndSortingRepository<BookEntity, Integer> {
     BookEntity findByIsbn(String isbn);
+
+    // Loads the Book together with its Publisher, BookStatus and Authors in a single statement
+    @EntityGraph(attributePaths = {"publisher", "bookStatus", "authors"})
+    @Query("select b from BookEntity b where b.bookId = :bookId")
+    Optional<BookEntity> findWithDetailsByBookId(@Param("bookId") Integer bookId);
+
+    // Selects only the columns of the Book DTO and its ETag, one row per Book and Author. No entities are loaded.
+    @Query("select new com.skb.course.apis.libraryapis.book.BookRow(b.bookId, b.isbn, b.title, " +
+            "b.publisher.publisherid, b.yearPublished, b.edition, b.version, " +
+            "s.state, s.totalNumberOfCopies, s.numberOfCopiesIssued, s.version, " +
+            "a.authorId, a.firstName, a.lastName, a.version) " +
+            "from BookEntity b left join b.bookStatus s left join b.authors a where b.bookId in :bookIds")
+    List<BookRow> findBookRowsByBookIdIn(@Param("bookIds") Collection<Integer> bookIds);
+
+    @Query("select b.bookId, b.title from BookEntity b")
+    List<Object[]> findAllBookIdsAndTitles();
+
+    @Query("select b.bookId, b.isbn from BookEntity b")
+    List<Object[]> findAllBookIdsAndIsbns();
+
+    @Query("select b.isbn from BookEntity b where b.isbn in :isbns")
+    List<String> findIsbnsByIsbnIn(@Param("isbns") Collection<String> isbns);
+
+    // Title search is paginated on the (lower-cased title, bookId) keyset, the order of BookTitleIndex whatever the
+    // collation of the column. Only the Book Ids are selected here, the page is then loaded with
+    // findBookRowsByBookIdIn so that the authors join doesn't get in the way of the limit.
+    @Query("select b.bookId from BookEntity b where lower(b.title) like lower(concat('%', :title, '%')) " +
+            "order by lower(b.title), b.bookId")
+    Slice<Integer> findBookIdsByTitleContaining(@Param("title") String title, Pageable pageable);
+
+    @Query("select b.bookId from BookEntity b where lower(b.title) like lower(concat('%', :title, '%')) " +
+            "and (lower(b.title) > lower(:afterTitle) or (lower(b.title) = lower(:afterTitle) and b.bookId > :afterBookId)) " +
+            "order by lower(b.title), b.bookId")
+    Slice<Integer> findBookIdsByTitleContainingAfter(@Param("title") String title,
+                                                     @Param("afterTitle") String afterTitle,
+                                                     @Param("afterBookId") int afterBookId,
+                                                     Pageable pageable);
+
+    // Needs to be consumed within a transaction
+    @Query("select b.bookId from BookEntity b where lower(b.title) like lower(concat('%', :title, '%')) " +
+            "order by lower(b.title), b.bookId")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<Integer> streamBookIdsByTitleContaining(@Param("title") String title);
 }
@@ -0,0 +1,105 @@
+package com.skb.course.apis.libraryapis.book;
+
+/**
+ * Read-only projection of the columns needed to build a {@link Book}. There is one row per Book and Author, the
+ * author columns are null for a Book without Authors, and the status columns are null for a Book without a status.
+ */
+public class BookRow {
+
+    private final int bookId;
+    private final String isbn;
+    private final String title;
+    private final int publisherId;
+    private final int yearPublished;
+    private final String edition;
+    private final int version;
+    private final BookStatusState state;
+    private final Integer totalNumberOfCopies;
+    private final Integer numberOfCopiesIssued;
+    private final Integer statusVersion;
+    private final Integer authorId;
+    private final String authorFirstName;
+    private final String authorLastName;
+    private final Integer authorVersion;
+
+    public BookRow(int bookId, String isbn, String title, int publisherId, int yearPublished, String edition,
+                   int version, BookStatusState state, Integer totalNumberOfCopies, Integer numberOfCopiesIssued,
+                   Integer statusVersion, Integer authorId, String authorFirstName, String authorLastName,
+                   Integer authorVersion) {
+        this.bookId = bookId;
+        this.isbn = isbn;
+        this.title = title;
+        this.publisherId = publisherId;
+        this.yearPublished = yearPublished;
+        this.edition = edition;
+        this.version = version;
+        this.state = state;
+        this.totalNumberOfCopies = totalNumberOfCopies;
+        this.numberOfCopiesIssued = numberOfCopiesIssued;
+        this.statusVersion = statusVersion;
+        this.authorId = authorId;
+        this.authorFirstName = authorFirstName;
+        this.authorLastName = authorLastName;
+        this.authorVersion = authorVersion;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getPublisherId() {
+        return publisherId;
+    }
+
+    public int getYearPublished() {
+        return yearPublished;
+    }
+
+    public String getEdition() {
+        return edition;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public BookStatusState getState() {
+        return state;
+    }
+
+    public Integer getTotalNumberOfCopies() {
+        return totalNumberOfCopies;
+    }
+
+    public Integer getNumberOfCopiesIssued() {
+        return numberOfCopiesIssued;
+    }
+
+    public Integer getStatusVersion() {
+        return statusVersion;
+    }
+
+    public Integer getAuthorId() {
+        return authorId;
+    }
+
+    public String getAuthorFirstName() {
+        return authorFirstName;
+    }
+
+    public String getAuthorLastName() {
+        return authorLastName;
+    }
+
+    public Integer getAuthorVersion() {
+        return authorVersion;
+    }
+}
@@ -0,0 +1,52 @@
+package com.skb.course.apis.libraryapis.book;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque continuation cursor for the Book title search. It holds the (title, bookId) of the last Book returned,
+ * which is where the next page starts from.
+ */
+public class BookSearchCursor {
+
+    private String title;
+    private int bookId;
+
+    public BookSearchCursor(String title, int bookId) {
+        this.title = title;
+        this.bookId = bookId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String encode() {
+        String raw = bookId + ":" + title;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static BookSearchCursor decode(String cursor) {
+
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid search cursor: " + cursor, e);
+        }
+
+        int separator = raw.indexOf(':');
+        if(separator <= 0) {
+            throw new IllegalArgumentException("Invalid search cursor: " + cursor);
+        }
+        try {
+            return new BookSearchCursor(raw.substring(separator + 1), Integer.parseInt(raw.substring(0, separator)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid search cursor: " + cursor, e);
+        }
+    }
+}
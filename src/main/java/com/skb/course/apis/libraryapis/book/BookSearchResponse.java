@@ -0,0 +1,38 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookSearchResponse {
+
+    private List<Book> books;
+
+    // Pass this back as "cursor" to get the next page. Not present when there are no more Books
+    private String nextCursor;
+
+    public BookSearchResponse() {
+    }
+
+    public BookSearchResponse(List<Book> books, String nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public void setBooks(List<Book> books) {
+        this.books = books;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
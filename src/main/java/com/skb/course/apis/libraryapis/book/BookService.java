@@ -4,26 +4,41 @@ import com.skb.course.apis.libraryapis.author.Author;
 import com.skb.course.apis.libraryapis.author.AuthorEntity;
 import com.skb.course.apis.libraryapis.author.AuthorRepository;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
 import com.skb.course.apis.libraryapis.book.Book;
 import com.skb.course.apis.libraryapis.book.BookEntity;
 import com.skb.course.apis.libraryapis.book.BookRepository;
 import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
 import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import com.skb.course.apis.libraryapis.reservation.ReservationService;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class BookService {
@@ -34,13 +49,34 @@ public class BookService {
     private PublisherRepository publisherRepository;
     private BookStatusRepository bookStatusRepository;
     private AuthorRepository authorRepository;
+    private BookCache bookCache;
+    private BookTitleIndex bookTitleIndex;
+    private BookIsbnIndex bookIsbnIndex;
+    private OptimisticLockRetry optimisticLockRetry;
+    private BookAvailabilityLedger bookAvailabilityLedger;
+    private ReservationService reservationService;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${library.api.book.stream.chunk.size:100}")
+    private int streamChunkSize = 100;
 
     public BookService(BookRepository bookRepository, PublisherRepository publisherRepository,
-                       BookStatusRepository bookStatusRepository, AuthorRepository authorRepository) {
+                       BookStatusRepository bookStatusRepository, AuthorRepository authorRepository,
+                       BookCache bookCache, BookTitleIndex bookTitleIndex, BookIsbnIndex bookIsbnIndex,
+                       OptimisticLockRetry optimisticLockRetry, BookAvailabilityLedger bookAvailabilityLedger,
+                       ReservationService reservationService) {
         this.bookRepository = bookRepository;
         this.publisherRepository = publisherRepository;
         this.bookStatusRepository = bookStatusRepository;
         this.authorRepository = authorRepository;
+        this.bookCache = bookCache;
+        this.bookTitleIndex = bookTitleIndex;
+        this.bookIsbnIndex = bookIsbnIndex;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.bookAvailabilityLedger = bookAvailabilityLedger;
+        this.reservationService = reservationService;
     }
 
     @Transactional
@@ -81,6 +117,9 @@ public class BookService {
 
         bookStatusRepository.save(bookStatusEntity);
 
+        bookTitleIndex.add(addedBook.getBookId(), addedBook.getTitle());
+        bookIsbnIndex.add(addedBook.getBookId(), addedBook.getIsbn());
+
         bookToBeAdded.setBookId(addedBook.getBookId());
         bookToBeAdded.setBookStatus(createBookStatusFromEntity(bookStatusEntity));
         logger.info("TraceId: {}, Book added: {}", traceId, bookToBeAdded);
@@ -88,21 +127,94 @@ public class BookService {
 
 
     public Book getBook(Integer bookId, String traceId) throws LibraryResourceNotFoundException {
+        return getCachedBook(bookId, traceId).getBook();
+    }
 
-        Optional<BookEntity> bookEntity = bookRepository.findById(bookId);
-        if(bookEntity.isPresent()) {
+    // The Book together with its ETag, both from the cache entry so that they always match
+    public CachedBook getCachedBook(Integer bookId, String traceId) throws LibraryResourceNotFoundException {
 
-            BookEntity pe = bookEntity.get();
-            return createBookFromEntity(pe);
-        } else {
+        // Loaded within the cache, so that a change evicting the Book meanwhile waits for the load
+        CachedBook cachedBook = bookCache.get(bookId, id -> bookRepository.findWithDetailsByBookId(id)
+                .map(this::createCachedBookFromEntity)
+                .orElse(null));
+        if(cachedBook == null) {
             throw new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + " Not Found");
         }
+        return cachedBook;
+    }
 
+    public Book getBookByIsbn(String isbn, String traceId) throws LibraryResourceNotFoundException {
+
+        Integer bookId = bookIsbnIndex.find(isbn);
+        if(bookId == null) {
+            throw new LibraryResourceNotFoundException(traceId, "Book with ISBN: " + isbn + " Not Found");
+        }
+        return getBook(bookId, traceId);
+    }
+
+    public BookBatchResponse getBooks(List<Integer> bookIds, String traceId) {
+        return getBooks(bookIds, true, traceId);
+    }
+
+    // Books loaded from the DB are put in the cache only if asked to
+    private BookBatchResponse getBooks(List<Integer> bookIds, boolean cacheLoadedBooks, String traceId) {
+
+        // Serve whatever we can from the cache and fetch the rest from the DB in one go
+        Map<Integer, Book> books = new HashMap<>(bookIds.size());
+        Set<Integer> bookIdsToLoad = new HashSet<>();
+        for(Integer bookId : bookIds) {
+            Book book = bookCache.get(bookId);
+            if(book != null) {
+                books.put(bookId, book);
+            } else {
+                bookIdsToLoad.add(bookId);
+            }
+        }
+
+        if(bookIdsToLoad.size() > 0) {
+            long evictions = bookCache.getEvictions();
+            Map<Integer, Book> loadedBooks = new HashMap<>(bookIdsToLoad.size());
+            Map<Integer, BookRow> firstRows = new HashMap<>(bookIdsToLoad.size());
+            Map<Integer, Integer> authorVersions = new HashMap<>(bookIdsToLoad.size());
+            for(BookRow row : bookRepository.findBookRowsByBookIdIn(bookIdsToLoad)) {
+                Book book = loadedBooks.computeIfAbsent(row.getBookId(), bookId -> createBookFromRow(row));
+                firstRows.putIfAbsent(row.getBookId(), row);
+                if(row.getAuthorId() != null) {
+                    book.getAuthors().add(new Author(row.getAuthorId(), row.getAuthorFirstName(),
+                            row.getAuthorLastName()));
+                    authorVersions.merge(row.getBookId(), row.getAuthorVersion(), Integer::sum);
+                }
+            }
+            if(cacheLoadedBooks) {
+                loadedBooks.forEach((bookId, book) -> {
+                    BookRow row = firstRows.get(bookId);
+                    int statusVersion = row.getStatusVersion() == null ? 0 : row.getStatusVersion();
+                    String eTag = createETag(row.getVersion(), statusVersion, authorVersions.getOrDefault(bookId, 0),
+                            book.getBookStatus());
+                    bookCache.putIfNoneEvicted(bookId, new CachedBook(book, eTag), evictions);
+                });
+            }
+            books.putAll(loadedBooks);
+        }
+
+        // Keep the order in which the Books were requested
+        List<Book> foundBooks = new ArrayList<>(books.size());
+        List<Integer> missingBookIds = new ArrayList<>();
+        for(Integer bookId : new LinkedHashSet<>(bookIds)) {
+            Book book = books.get(bookId);
+            if(book != null) {
+                foundBooks.add(book);
+            } else {
+                missingBookIds.add(bookId);
+            }
+        }
+        logger.debug("TraceId: {}, Books found: {}, Book Ids not found: {}", traceId, foundBooks.size(), missingBookIds);
+        return new BookBatchResponse(foundBooks, missingBookIds);
     }
 
     public void updateBook(Book bookToBeUpdated, String traceId) throws LibraryResourceNotFoundException {
 
-        Optional<BookEntity> bookEntity = bookRepository.findById(bookToBeUpdated.getBookId());
+        Optional<BookEntity> bookEntity = bookRepository.findWithDetailsByBookId(bookToBeUpdated.getBookId());
         Book book = null;
 
         if(bookEntity.isPresent()) {
@@ -115,6 +227,7 @@ public class BookService {
                 pe.setYearPublished(bookToBeUpdated.getYearPublished());
             }
             bookRepository.save(pe);
+            bookCache.evict(bookToBeUpdated.getBookId());
             book = createBookFromEntity(pe);
             bookToBeUpdated.setBookStatus(book.getBookStatus());
             bookToBeUpdated.setAuthors(book.getAuthors());
@@ -124,29 +237,85 @@ public class BookService {
 
     }
 
+    /**
+     * Sets the total number of copies of the Book, and its state if given. The total is changed in the
+     * {@link BookAvailabilityLedger}, so it is checked against the copies issued at that very moment, and changed back
+     * if the transaction that sets the state rolls back.
+     */
+    public BookStatus restockBook(Integer bookId, BookStatus bookStatus, String traceId)
+            throws LibraryResourceNotFoundException, LibraryResourceBadRequestException {
+
+        int totalNumberOfCopies = bookStatus.getTotalNumberOfCopies();
+        BookStatus restocked = optimisticLockRetry.execute(Collections.singleton(bookId), "restock", () -> {
+            BookStatusEntity bse = bookStatusRepository.findById(bookId)
+                    .orElseThrow(() -> new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + " Not Found"));
+            int[] counts = bookAvailabilityLedger.restock(bookId, totalNumberOfCopies);
+            if(counts == null) {
+                throw new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + " Not Found");
+            }
+            // Refused, in which case nothing is changed
+            if(counts[0] != totalNumberOfCopies) {
+                return new BookStatus(bookId, bse.getState(), counts[0], counts[1]);
+            }
+            LibraryApiUtils.runAfterRollback(() -> {
+                if(!bookAvailabilityLedger.revertRestock(bookId, totalNumberOfCopies, counts[2])) {
+                    logger.warn("TraceId: {}, Book Id: {} restock to {} rolled back, but its copies have changed " +
+                            "since and are left as they are", traceId, bookId, totalNumberOfCopies);
+                }
+                bookCache.evict(bookId);
+            });
+            if(bookStatus.getState() != null) {
+                bse.setState(bookStatus.getState());
+            }
+            return new BookStatus(bookId, bse.getState(), counts[0], counts[1]);
+        });
+        // There can't be fewer copies than the ones that are out
+        if(restocked.getTotalNumberOfCopies() != totalNumberOfCopies) {
+            logger.error("TraceId: {}, Book Id: {} has {} copies issued, can't restock to {}!!", traceId, bookId,
+                    restocked.getNumberOfCopiesIssued(), totalNumberOfCopies);
+            throw new LibraryResourceBadRequestException(traceId, "Book Id: " + bookId + " has " +
+                    restocked.getNumberOfCopiesIssued() + " copies issued");
+        }
+        bookCache.evict(bookId);
+        logger.info("TraceId: {}, Book Id: {} restocked to {} copies", traceId, bookId, restocked.getTotalNumberOfCopies());
+        return restocked;
+    }
+
     public void deleteBook(Integer bookId, String traceId) throws LibraryResourceNotFoundException {
 
         try {
-            bookRepository.deleteById(bookId);
+            // RESERVATION refers to the Book, its reservations go first
+            optimisticLockRetry.execute(Collections.singleton(bookId), "delete", () -> {
+                reservationService.removeBook(bookId);
+                bookRepository.deleteById(bookId);
+                return null;
+            });
+            bookTitleIndex.remove(bookId);
+            bookIsbnIndex.remove(bookId);
+            bookAvailabilityLedger.remove(bookId);
         } catch(EmptyResultDataAccessException e) {
             logger.error("TraceId: {}, Book Id: {} Not Found", traceId, bookId, e);
             throw new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + " Not Found");
+        } finally {
+            bookCache.evict(bookId);
         }
     }
 
+    // Needs to be called whenever the BookStatus of a Book changes outside of this service (e.g. Book issue/return)
+    public void bookStatusChanged(Integer bookId) {
+        bookCache.evict(bookId);
+    }
+
     @Transactional
     public Book addBookAuthors(Integer bookId, Set<Integer> authorIds, String traceId)
             throws LibraryResourceNotFoundException {
 
-        Optional<BookEntity> bookEntity = bookRepository.findById(bookId);
+        Optional<BookEntity> bookEntity = bookRepository.findWithDetailsByBookId(bookId);
         if(bookEntity.isPresent()) {
             BookEntity be = bookEntity.get();
-            Set<AuthorEntity> authors = authorIds.stream()
-                    .map(authorId -> authorRepository.findById(authorId))
-                    .collect(Collectors.toSet()).stream()
-                    .filter(ae -> ae.isPresent() == true)
-                    .map(ae -> ae.get())
-                    .collect(Collectors.toSet());
+            // Fetch all the requested authors in one go rather than one lookup per author
+            Set<AuthorEntity> authors = new HashSet<>();
+            authorRepository.findAllById(authorIds).forEach(authors::add);
 
             if(authors.size() == 0) {
                 throw new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + ". None of the authors were found");
@@ -154,6 +323,7 @@ public class BookService {
 
             be.setAuthors(authors);
             bookRepository.save(be);
+            bookCache.evict(bookId);
             return createBookFromEntity(be);
         } else {
             logger.error("TraceId: {}, Book Id: {} Not Found", traceId, bookId);
@@ -161,24 +331,79 @@ public class BookService {
         }
     }
 
-    public List<Book> searchBookByTitle(String title, String traceId) {
+    public BookSearchResponse searchBookByTitle(String title, int limit, String cursor, String traceId)
+            throws LibraryResourceBadRequestException {
 
-        List<BookEntity> bookEntities = null;
-        if(LibraryApiUtils.doesStringValueExist(title)) {
-            bookEntities = bookRepository.findByTitleContaining(title);
+        BookSearchCursor after = null;
+        if(LibraryApiUtils.doesStringValueExist(cursor)) {
+            try {
+                after = BookSearchCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                logger.error("TraceId: {}, Invalid search cursor: {}", traceId, cursor);
+                throw new LibraryResourceBadRequestException(traceId, "Invalid search cursor");
+            }
         }
-        if(bookEntities != null && bookEntities.size() > 0) {
-            return createBooksForSearchResponse(bookEntities);
+
+        List<Integer> bookIds;
+        boolean hasNext;
+        if(bookTitleIndex.isReady()) {
+            // Ask for one more than the limit to find out if there is a next page
+            int[] matches = bookTitleIndex.search(title, after != null ? after.getTitle() : null,
+                    after != null ? after.getBookId() : 0, limit + 1);
+            hasNext = matches.length > limit;
+            bookIds = new ArrayList<>(Math.min(matches.length, limit));
+            for(int i = 0; i < matches.length && i < limit; i++) {
+                bookIds.add(matches[i]);
+            }
         } else {
-            return Collections.emptyList();
+            Pageable pageable = PageRequest.of(0, limit);
+            Slice<Integer> slice = after != null
+                    ? bookRepository.findBookIdsByTitleContainingAfter(title, after.getTitle(), after.getBookId(), pageable)
+                    : bookRepository.findBookIdsByTitleContaining(title, pageable);
+            hasNext = slice.hasNext();
+            bookIds = slice.getContent();
+        }
+
+        if(bookIds.isEmpty()) {
+            return new BookSearchResponse(Collections.emptyList(), null);
+        }
+
+        // Only the requested page gets loaded
+        List<Book> books = getBooks(bookIds, traceId).getBooks();
+        String nextCursor = null;
+        if(hasNext && books.size() > 0) {
+            Book last = books.get(books.size() - 1);
+            nextCursor = new BookSearchCursor(last.getTitle(), last.getBookId()).encode();
+        }
+        return new BookSearchResponse(books, nextCursor);
+    }
+
+    // Streams every Book matching the title, loading them a chunk at a time
+    @Transactional(readOnly = true)
+    public void streamBooksByTitle(String title, Consumer<Book> consumer, String traceId) {
+
+        logger.debug("TraceId: {}, Streaming Books", traceId);
+        List<Integer> chunk = new ArrayList<>(streamChunkSize);
+        try(Stream<Integer> bookIds = bookRepository.streamBookIdsByTitleContaining(title)) {
+            bookIds.forEach(bookId -> {
+                chunk.add(bookId);
+                if(chunk.size() == streamChunkSize) {
+                    streamChunk(chunk, consumer, traceId);
+                }
+            });
+        }
+        if(chunk.size() > 0) {
+            streamChunk(chunk, consumer, traceId);
         }
     }
 
-    private List<Book> createBooksForSearchResponse(List<BookEntity> bookEntities) {
+    private void streamChunk(List<Integer> chunk, Consumer<Book> consumer, String traceId) {
 
-        return bookEntities.stream()
-                .map(pe -> createBookFromEntity(pe))
-                .collect(Collectors.toList());
+        // A broad stream would otherwise evict the Books that are looked up again and again
+        getBooks(chunk, false, traceId).getBooks().forEach(consumer);
+        chunk.clear();
+        // Nothing is modified here, so the loaded Books can simply be let go of
+        entityManager.clear();
     }
 
     private Book createBookFromEntity(BookEntity be) {
@@ -186,23 +411,61 @@ public class BookService {
         Book book = new Book(be.getBookId(), be.getIsbn(), be.getTitle(), be.getPublisher().getPublisherid(),
                 be.getYearPublished(), be.getEdition(), createBookStatusFromEntity(be.getBookStatus()));
 
+        // Authors are already part of the fetched entity graph, so no need to go back to the DB for each of them
         if(be.getAuthors() != null && be.getAuthors().size() > 0) {
             Set<Author> authors = be.getAuthors().stream()
-                    .map(authorEntity -> {
-                        AuthorEntity ae = authorRepository.findById(authorEntity.getAuthorId()).get();
-                        return createAuthorFromAuthorEntity(ae);
-                    }).collect(Collectors.toSet());
+                    .map(ae -> createAuthorFromAuthorEntity(ae))
+                    .collect(Collectors.toSet());
 
             book.setAuthors(authors);
         }
         return book;
     }
 
+    private CachedBook createCachedBookFromEntity(BookEntity be) {
+
+        Book book = createBookFromEntity(be);
+        int statusVersion = be.getBookStatus() == null ? 0 : be.getBookStatus().getVersion();
+        int authorVersions = be.getAuthors() == null ? 0
+                : be.getAuthors().stream().mapToInt(AuthorEntity::getVersion).sum();
+        return new CachedBook(book, createETag(be.getVersion(), statusVersion, authorVersions, book.getBookStatus()));
+    }
+
+    // Versions of the Book, its BookStatus and (summed) its Authors. Each of them only ever goes up, and removing an
+    // Author from the Book bumps the version of the Book. Issues and returns reach BOOK_STATUS (and its version) only
+    // when the ledger flushes, so the counts the Book was assembled with are added.
+    private static String createETag(int bookVersion, int statusVersion, int authorVersions, BookStatus bookStatus) {
+
+        String eTag = bookVersion + "." + statusVersion + "." + authorVersions;
+        return bookStatus == null ? eTag
+                : eTag + "." + bookStatus.getTotalNumberOfCopies() + "." + bookStatus.getNumberOfCopiesIssued();
+    }
+
+    private Book createBookFromRow(BookRow row) {
+
+        BookStatus bookStatus = row.getState() == null ? null : withLedgerCounts(new BookStatus(row.getBookId(),
+                row.getState(), row.getTotalNumberOfCopies(), row.getNumberOfCopiesIssued()));
+        return new Book(row.getBookId(), row.getIsbn(), row.getTitle(), row.getPublisherId(),
+                row.getYearPublished(), row.getEdition(), bookStatus);
+    }
+
     private Author createAuthorFromAuthorEntity(AuthorEntity ae) {
         return new Author(ae.getAuthorId(), ae.getFirstName(), ae.getLastName());
     }
 
     private BookStatus createBookStatusFromEntity(BookStatusEntity bse) {
-        return new BookStatus(bse.getBookId(), bse.getState(), bse.getTotalNumberOfCopies(), bse.getNumberOfCopiesIssued());
+        return withLedgerCounts(new BookStatus(bse.getBookId(), bse.getState(), bse.getTotalNumberOfCopies(),
+                bse.getNumberOfCopiesIssued()));
+    }
+
+    // BOOK_STATUS lags behind the ledger until it is flushed
+    private BookStatus withLedgerCounts(BookStatus bookStatus) {
+
+        int[] counts = bookAvailabilityLedger.getCounts(bookStatus.getBookId());
+        if(counts != null) {
+            bookStatus.setTotalNumberOfCopies(counts[0]);
+            bookStatus.setNumberOfCopiesIssued(counts[1]);
+        }
+        return bookStatus;
     }
 }
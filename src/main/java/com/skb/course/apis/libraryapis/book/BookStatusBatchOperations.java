@@ -0,0 +1,12 @@
+package com.skb.course.apis.libraryapis.book;
+
+import java.util.List;
+
+public interface BookStatusBatchOperations {
+
+    /**
+     * Sets the total and issued copies of each of the given Books ({Book Id, total, issued}), in one JDBC batch.
+     * Returns, in the order given, the number of rows updated: 0 if there is no such Book.
+     */
+    int[] updateCounts(List<int[]> counts);
+}
@@ -0,0 +1,39 @@
+package com.skb.course.apis.libraryapis.book;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+public class BookStatusBatchOperationsImpl implements BookStatusBatchOperations {
+
+    private static final String UPDATE_COUNTS_SQL = "UPDATE BOOK_STATUS" +
+            " SET Total_Number_Of_Copies = ?, Number_Of_Copies_Issued = ?, Version = Version + 1" +
+            " WHERE Book_Id = ?";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int[] updateCounts(List<int[]> counts) {
+
+        if(counts.isEmpty()) {
+            return new int[0];
+        }
+        // Runs on the connection of the current transaction. Hibernate doesn't give us the count of each statement
+        // of a batch, plain JDBC does.
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try(PreparedStatement statement = connection.prepareStatement(UPDATE_COUNTS_SQL)) {
+                for(int[] c : counts) {
+                    statement.setInt(1, c[1]);
+                    statement.setInt(2, c[2]);
+                    statement.setInt(3, c[0]);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+    }
+}
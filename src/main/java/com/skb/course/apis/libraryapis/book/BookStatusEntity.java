@@ -14,12 +14,20 @@ public class BookStatusEntity {
     @Enumerated(EnumType.STRING)
     private BookStatusState state;
 
-    @Column(name = "Total_Number_Of_Copies")
+    // The counts are only written when the Book is added. After that they belong to the BookAvailabilityLedger.
+    @Column(name = "Total_Number_Of_Copies", updatable = false)
     private int totalNumberOfCopies;
 
-    @Column(name = "Number_Of_Copies_Issued")
+    @Column(name = "Number_Of_Copies_Issued", updatable = false)
     private int numberOfCopiesIssued;
 
+    // Incremented when the ledger flushes the counts (BookStatusBatchOperationsImpl.updateCounts) or a restock changes
+    // the state, not on every issue or return. Part of the ETag of the Book, which BookService keeps fresh by appending
+    // the ledger's counts
+    @Version
+    @Column(name = "Version")
+    private int version;
+
     @OneToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "Book_Id", nullable = false)
     private BookEntity bookEntity;
@@ -77,4 +85,8 @@ public class BookStatusEntity {
     public void setBookEntity(BookEntity bookEntity) {
         this.bookEntity = bookEntity;
     }
+
+    public int getVersion() {
+        return version;
+    }
 }
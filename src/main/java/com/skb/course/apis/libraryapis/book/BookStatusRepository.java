@@ -1,8 +1,28 @@
 package com.skb.course.apis.libraryapis.book;
 
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
-public interface BookStatusRepository extends CrudRepository<BookStatusEntity, Integer> {
+public interface BookStatusRepository extends CrudRepository<BookStatusEntity, Integer>, BookStatusBatchOperations {
+
+    // Book Id, total copies and copies issued
+    @Query("select s.bookId, s.totalNumberOfCopies, s.numberOfCopiesIssued from BookStatusEntity s " +
+            "where s.bookId in :bookIds")
+    List<Object[]> findCountsByBookIdIn(@Param("bookIds") Collection<Integer> bookIds);
+
+    // Book Id, total copies, copies issued and the copies actually out (on loan, or held for a User who reserved the
+    // Book) of the Books whose copies issued say otherwise
+    @Query(nativeQuery = true, value = "SELECT s.Book_Id, s.Total_Number_Of_Copies, s.Number_Of_Copies_Issued, " +
+            "COALESCE(l.Copies, 0) + COALESCE(h.Copies, 0) FROM BOOK_STATUS s " +
+            "LEFT JOIN (SELECT Book_Id, COUNT(*) AS Copies FROM USER_BOOK GROUP BY Book_Id) l ON l.Book_Id = s.Book_Id " +
+            "LEFT JOIN (SELECT Book_Id, COUNT(*) AS Copies FROM RESERVATION WHERE Hold_Until IS NOT NULL " +
+            "GROUP BY Book_Id) h ON h.Book_Id = s.Book_Id " +
+            "WHERE s.Number_Of_Copies_Issued <> COALESCE(l.Copies, 0) + COALESCE(h.Copies, 0)")
+    List<Object[]> findMiscountedCopiesIssued();
 }
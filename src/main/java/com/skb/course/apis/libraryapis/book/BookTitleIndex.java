@@ -0,0 +1,276 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory trigram inverted index over Book titles, used to answer the title search without a LIKE '%...%' scan
+ * of the BOOK table. Each trigram of the (lower-cased) titles maps to a sorted int posting list of Book Ids. A search
+ * intersects the posting lists of the trigrams in the query and then confirms the candidates against the title.
+ *
+ * The index is built once the application is ready and is kept in sync by BookService on add/update/delete.
+ * Until it has been built, isReady() returns false and callers are expected to go to the DB instead.
+ */
+@Component
+public class BookTitleIndex {
+
+    private static Logger logger = LoggerFactory.getLogger(BookTitleIndex.class);
+
+    // Same order as the DB fallback (lower-cased title, then Book Id), so a cursor from either one can be resumed by
+    // the other
+    private static final Comparator<IndexedTitle> TITLE_ORDER =
+            Comparator.comparing((IndexedTitle it) -> it.lowerCaseTitle).thenComparingInt(it -> it.bookId);
+
+    private BookRepository bookRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    private final Map<Integer, IndexedTitle> titles = new HashMap<>();
+    private volatile boolean ready;
+
+    public BookTitleIndex(BookRepository bookRepository) {
+        this.bookRepository = bookRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            titles.clear();
+            for(Object[] bookIdAndTitle : bookRepository.findAllBookIdsAndTitles()) {
+                addInternal((Integer) bookIdAndTitle[0], (String) bookIdAndTitle[1]);
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Book title index built with {} titles and {} trigrams in {} ms", titles.size(), postings.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Adds (or re-indexes) a Book. Within a transaction, the change is applied once the transaction commits.
+    public void add(int bookId, String title) {
+        LibraryApiUtils.runAfterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                removeInternal(bookId);
+                addInternal(bookId, title);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void remove(int bookId) {
+        LibraryApiUtils.runAfterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                removeInternal(bookId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Returns the Ids of up to {@code limit} Books whose title contains {@code query} (ignoring case), ordered by
+     * (lower-cased title, bookId) and starting after the given keyset. {@code afterTitle} may be null to start from the beginning.
+     */
+    public int[] search(String query, String afterTitle, int afterBookId, int limit) {
+
+        String q = query.toLowerCase(Locale.ROOT);
+        IndexedTitle after = afterTitle != null ? new IndexedTitle(afterBookId, afterTitle) : null;
+
+        // Max-heap holding the first "limit" matches in TITLE_ORDER
+        PriorityQueue<IndexedTitle> page = new PriorityQueue<>(limit + 1, TITLE_ORDER.reversed());
+
+        lock.readLock().lock();
+        try {
+            if(q.length() < 3) {
+                // Nothing to look up in the index, but scanning the titles in memory is still cheap
+                for(IndexedTitle it : titles.values()) {
+                    collect(it, q, after, page, limit);
+                }
+            } else {
+                PostingList candidates = intersect(q);
+                if(candidates != null) {
+                    for(int i = 0; i < candidates.size; i++) {
+                        collect(titles.get(candidates.bookIds[i]), q, after, page, limit);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int[] bookIds = new int[page.size()];
+        for(int i = bookIds.length - 1; i >= 0; i--) {
+            bookIds[i] = page.poll().bookId;
+        }
+        return bookIds;
+    }
+
+    private void collect(IndexedTitle it, String q, IndexedTitle after, PriorityQueue<IndexedTitle> page, int limit) {
+
+        if(!it.lowerCaseTitle.contains(q)) {
+            return;
+        }
+        if(after != null && TITLE_ORDER.compare(it, after) <= 0) {
+            return;
+        }
+        if(page.size() < limit) {
+            page.add(it);
+        } else if(TITLE_ORDER.compare(it, page.peek()) < 0) {
+            page.poll();
+            page.add(it);
+        }
+    }
+
+    // Intersection of the posting lists of all the trigrams in the query, smallest list first
+    private PostingList intersect(String q) {
+
+        Set<Long> trigrams = trigrams(q);
+        List<PostingList> lists = new ArrayList<>(trigrams.size());
+        for(Long trigram : trigrams) {
+            PostingList postingList = postings.get(trigram);
+            if(postingList == null) {
+                return null;
+            }
+            lists.add(postingList);
+        }
+        lists.sort(Comparator.comparingInt(pl -> pl.size));
+
+        PostingList result = lists.get(0);
+        for(int i = 1; i < lists.size() && result.size > 0; i++) {
+            result = result.intersect(lists.get(i));
+        }
+        return result;
+    }
+
+    private void addInternal(int bookId, String title) {
+
+        if(title == null) {
+            return;
+        }
+        IndexedTitle it = new IndexedTitle(bookId, title);
+        titles.put(bookId, it);
+        for(Long trigram : trigrams(it.lowerCaseTitle)) {
+            postings.computeIfAbsent(trigram, t -> new PostingList()).add(bookId);
+        }
+    }
+
+    private void removeInternal(int bookId) {
+
+        IndexedTitle it = titles.remove(bookId);
+        if(it == null) {
+            return;
+        }
+        for(Long trigram : trigrams(it.lowerCaseTitle)) {
+            PostingList postingList = postings.get(trigram);
+            if(postingList != null) {
+                postingList.remove(bookId);
+                if(postingList.size == 0) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private static Set<Long> trigrams(String s) {
+
+        Set<Long> trigrams = new HashSet<>();
+        for(int i = 0; i + 3 <= s.length(); i++) {
+            trigrams.add(((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    private static class IndexedTitle {
+
+        private final int bookId;
+        private final String title;
+        private final String lowerCaseTitle;
+
+        private IndexedTitle(int bookId, String title) {
+            this.bookId = bookId;
+            this.title = title;
+            this.lowerCaseTitle = title.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Sorted, growable list of Book Ids
+    private static class PostingList {
+
+        private int[] bookIds;
+        private int size;
+
+        private PostingList() {
+            this(new int[4], 0);
+        }
+
+        private PostingList(int[] bookIds, int size) {
+            this.bookIds = bookIds;
+            this.size = size;
+        }
+
+        private void add(int bookId) {
+
+            int pos = Arrays.binarySearch(bookIds, 0, size, bookId);
+            if(pos >= 0) {
+                return;
+            }
+            pos = -(pos + 1);
+            if(size == bookIds.length) {
+                bookIds = Arrays.copyOf(bookIds, size * 2);
+            }
+            System.arraycopy(bookIds, pos, bookIds, pos + 1, size - pos);
+            bookIds[pos] = bookId;
+            size++;
+        }
+
+        private void remove(int bookId) {
+
+            int pos = Arrays.binarySearch(bookIds, 0, size, bookId);
+            if(pos < 0) {
+                return;
+            }
+            System.arraycopy(bookIds, pos + 1, bookIds, pos, size - pos - 1);
+            size--;
+        }
+
+        private PostingList intersect(PostingList other) {
+
+            int[] result = new int[Math.min(size, other.size)];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while(i < size && j < other.size) {
+                if(bookIds[i] < other.bookIds[j]) {
+                    i++;
+                } else if(bookIds[i] > other.bookIds[j]) {
+                    j++;
+                } else {
+                    result[n++] = bookIds[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new PostingList(result, n);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.skb.course.apis.libraryapis.book;
+
+/**
+ * Entry of the {@link BookCache}: an assembled {@link Book} and the ETag of the state it was assembled from. Both are
+ * built from the same read, so the ETag always describes the Book it comes with.
+ */
+public class CachedBook {
+
+    private final Book book;
+    private final String eTag;
+
+    public CachedBook(Book book, String eTag) {
+        this.book = book;
+        this.eTag = eTag;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -46,6 +46,20 @@ public class LibraryControllerExceptionHandler extends ResponseEntityExceptionHa
         return new ResponseEntity<>(new LibraryApiError(e.getTraceId(), e.getMessage()), HttpStatus.FORBIDDEN);
     }
 
+    @ExceptionHandler(LibraryResourceTooManyRequestsException.class)
+    public final ResponseEntity<LibraryApiError> handleLibraryResourceTooManyRequestsException(
+            LibraryResourceTooManyRequestsException e, WebRequest webRequest) {
+
+        return new ResponseEntity<>(new LibraryApiError(e.getTraceId(), e.getMessage()), HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @ExceptionHandler(LibraryResourceUnavailableException.class)
+    public final ResponseEntity<LibraryApiError> handleLibraryResourceUnavailableException(
+            LibraryResourceUnavailableException e, WebRequest webRequest) {
+
+        return new ResponseEntity<>(new LibraryApiError(e.getTraceId(), e.getMessage()), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(Exception.class)
     public final ResponseEntity<LibraryApiError> handleAllException(
             Exception e, WebRequest webRequest) {
@@ -0,0 +1,15 @@
+package com.skb.course.apis.libraryapis.exception;
+
+public class LibraryResourceTooManyRequestsException extends Exception {
+
+    private String traceId;
+
+    public LibraryResourceTooManyRequestsException(String traceId, String message) {
+        super(message);
+        this.traceId = traceId;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+}
@@ -0,0 +1,15 @@
+package com.skb.course.apis.libraryapis.exception;
+
+public class LibraryResourceUnavailableException extends Exception {
+
+    private String traceId;
+
+    public LibraryResourceUnavailableException(String traceId, String message) {
+        super(message);
+        this.traceId = traceId;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+}
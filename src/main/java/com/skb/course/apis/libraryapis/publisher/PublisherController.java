@@ -1,15 +1,21 @@
 package com.skb.course.apis.libraryapis.publisher;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceUnauthorizedException;
+import com.skb.course.apis.libraryapis.security.JwtClaims;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import com.skb.course.apis.libraryapis.util.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.util.UUID;
@@ -21,27 +27,35 @@ public class PublisherController {
     private static Logger logger = LoggerFactory.getLogger(PublisherController.class);
 
     private PublisherService publisherService;
+    private ObjectMapper objectMapper;
 
-    public PublisherController(PublisherService publisherService) {
+    public PublisherController(PublisherService publisherService, ObjectMapper objectMapper) {
         this.publisherService = publisherService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping(path = "/{publisherId}")
     public ResponseEntity<?> getPublisher(@PathVariable Integer publisherId,
-                                          @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+                                          @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                          WebRequest webRequest)
             throws LibraryResourceNotFoundException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
 
-        return new ResponseEntity<>(publisherService.getPublisher(publisherId, traceId), HttpStatus.OK);
+        // Sends a 304 if the client's If-None-Match is still current
+        String eTag = publisherService.getPublisherETag(publisherId, traceId);
+        if(webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(publisherService.getPublisher(publisherId, traceId));
     }
 
     @PostMapping
     public ResponseEntity<?> addPublisher(@Valid @RequestBody Publisher publisher,
                                           @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                          @RequestHeader(value = "Authorization") String bearerToken)
+                                          @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceAlreadyExistException, LibraryResourceUnauthorizedException {
 
         logger.debug("Request to add Publisher: {}", publisher);
@@ -49,8 +63,8 @@ public class PublisherController {
             traceId = UUID.randomUUID().toString();
         }
 
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to add a Publisher. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to add a Publisher. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Publisher");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -64,15 +78,15 @@ public class PublisherController {
     public ResponseEntity<?> updatePublisher(@PathVariable Integer publisherId,
                                              @Valid @RequestBody Publisher publisher,
                                              @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                             @RequestHeader(value = "Authorization") String bearerToken)
+                                             @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
 
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to update a Publisher. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to update a Publisher. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Publisher");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -87,15 +101,15 @@ public class PublisherController {
     @DeleteMapping(path = "/{publisherId}")
     public ResponseEntity<?> deletePublisher(@PathVariable Integer publisherId,
                                              @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                             @RequestHeader(value = "Authorization") String bearerToken)
+                                             @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
 
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
-            logger.error(LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to delete a Publisher. Disallowed because user is not Admin");
+        if(!claims.isAdmin()) {
+            logger.error(claims.getUserId() + " attempted to delete a Publisher. Disallowed because user is not Admin");
             throw new LibraryResourceUnauthorizedException(traceId, "User not allowed to Add a Publisher");
         }
         logger.debug("Added TraceId: {}", traceId);
@@ -121,4 +135,25 @@ public class PublisherController {
         logger.debug("Returning response for TraceId: {}", traceId);
         return new ResponseEntity<>(publisherService.searchPublisher(name, traceId), HttpStatus.OK);
     }
+
+    @GetMapping(path = "/search", produces = NdJsonWriter.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamPublishers(@RequestParam String name,
+                                                                  @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        if(!LibraryApiUtils.doesStringValueExist(name)) {
+            logger.error("TraceId: {}, Please enter a name to search Publisher!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Please enter a name to search Publisher.");
+        }
+        String streamTraceId = traceId;
+        StreamingResponseBody body = outputStream -> publisherService.streamPublishers(name,
+                new NdJsonWriter<>(objectMapper, outputStream), streamTraceId);
+
+        logger.debug("Streaming response for TraceId: {}", traceId);
+        return ResponseEntity.ok().contentType(NdJsonWriter.APPLICATION_NDJSON).body(body);
+    }
 }
@@ -22,6 +22,11 @@ public class PublisherEntity {
     @Column(name = "Phone_Number")
     private String phoneNumber;
 
+    // Incremented by Hibernate on every update. Serves as the ETag of the Publisher
+    @Version
+    @Column(name = "Version")
+    private int version;
+
     public PublisherEntity() {
     }
 
@@ -58,4 +63,8 @@ public class PublisherEntity {
     public void setPhoneNumber(String phoneNumber) {
         this.phoneNumber = phoneNumber;
     }
+
+    public int getVersion() {
+        return version;
+    }
 }
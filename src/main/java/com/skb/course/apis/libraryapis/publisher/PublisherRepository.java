@@ -1,11 +1,28 @@
 package com.skb.course.apis.libraryapis.publisher;
 
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface PublisherRepository extends CrudRepository<PublisherEntity, Integer> {
+
+    @Query("select p.version from PublisherEntity p where p.publisherid = :publisherId")
+    Optional<Integer> findVersionByPublisherId(@Param("publisherId") Integer publisherId);
+
     List<PublisherEntity> findByNameContaining(String name);
+
+    // Needs to be consumed within a transaction
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<PublisherEntity> streamByNameContaining(String name);
 }
@@ -8,11 +8,16 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class PublisherService {
@@ -21,6 +26,9 @@ public class PublisherService {
 
     private PublisherRepository publisherRepository;
 
+    @PersistenceContext
+    private EntityManager entityManager;
+
     public PublisherService(PublisherRepository publisherRepository) {
         this.publisherRepository = publisherRepository;
     }
@@ -64,6 +72,14 @@ public class PublisherService {
         return publisher;
     }
 
+    // Answered from the version column alone, without loading the Publisher
+    public String getPublisherETag(Integer publisherId, String traceId) throws LibraryResourceNotFoundException {
+
+        return publisherRepository.findVersionByPublisherId(publisherId)
+                .map(String::valueOf)
+                .orElseThrow(() -> new LibraryResourceNotFoundException(traceId, "Publisher Id: " + publisherId + " Not Found"));
+    }
+
     public void updatePublisher(Publisher publisherToBeUpdated, String traceId) throws LibraryResourceNotFoundException {
 
         Optional<PublisherEntity> publisherEntity = publisherRepository.findById(publisherToBeUpdated.getPublisherId());
@@ -110,6 +126,20 @@ public class PublisherService {
         }
     }
 
+    // Same search as above, but each Publisher is handed over to the consumer as soon as it is read from the DB
+    @Transactional(readOnly = true)
+    public void streamPublishers(String name, Consumer<Publisher> consumer, String traceId) {
+
+        logger.debug("TraceId: {}, Streaming Publishers", traceId);
+        try(Stream<PublisherEntity> stream = publisherRepository.streamByNameContaining(name)) {
+            stream.forEach(pe -> {
+                consumer.accept(createPublisherFromEntity(pe));
+                // Keep the persistence context from growing with the result
+                entityManager.detach(pe);
+            });
+        }
+    }
+
     private List<Publisher> createPublishersForSearchResponse(List<PublisherEntity> publisherEntities) {
 
         return publisherEntities.stream()
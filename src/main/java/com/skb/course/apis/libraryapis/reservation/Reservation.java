@@ -0,0 +1,68 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Reservation {
+
+    private Integer bookId;
+    private Integer userId;
+    private ReservationStatus status;
+    private LocalDateTime reservedAt;
+    // Only present once a copy is held for the User
+    private LocalDateTime holdUntil;
+
+    public Reservation() {
+    }
+
+    public Reservation(int bookId, int userId, ReservationStatus status, LocalDateTime reservedAt,
+                       LocalDateTime holdUntil) {
+        this.bookId = bookId;
+        this.userId = userId;
+        this.status = status;
+        this.reservedAt = reservedAt;
+        this.holdUntil = holdUntil;
+    }
+
+    public Integer getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(Integer bookId) {
+        this.bookId = bookId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public ReservationStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ReservationStatus status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getReservedAt() {
+        return reservedAt;
+    }
+
+    public void setReservedAt(LocalDateTime reservedAt) {
+        this.reservedAt = reservedAt;
+    }
+
+    public LocalDateTime getHoldUntil() {
+        return holdUntil;
+    }
+
+    public void setHoldUntil(LocalDateTime holdUntil) {
+        this.holdUntil = holdUntil;
+    }
+}
@@ -0,0 +1,79 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceUnauthorizedException;
+import com.skb.course.apis.libraryapis.security.JwtClaims;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.UUID;
+
+// Users reserve Books for themselves. Admins reserve on behalf of a User, given as the userId parameter.
+@RestController
+@RequestMapping(path = "/v1/books/{bookId}/reservations")
+public class ReservationController {
+
+    private static Logger logger = LoggerFactory.getLogger(ReservationController.class);
+
+    private ReservationService reservationService;
+
+    public ReservationController(ReservationService reservationService) {
+        this.reservationService = reservationService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> reserve(@PathVariable int bookId,
+                                     @RequestParam(required = false) Integer userId,
+                                     @AuthenticationPrincipal JwtClaims claims,
+                                     @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException,
+            LibraryResourceNotFoundException, LibraryResourceAlreadyExistException {
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+        int reservingUserId = resolveUserId(userId, claims, traceId, "reserve");
+        logger.debug("Returning response for TraceId: {}", traceId);
+        return new ResponseEntity<>(reservationService.reserve(bookId, reservingUserId, traceId), HttpStatus.CREATED);
+    }
+
+    @DeleteMapping
+    public ResponseEntity<?> cancel(@PathVariable int bookId,
+                                    @RequestParam(required = false) Integer userId,
+                                    @AuthenticationPrincipal JwtClaims claims,
+                                    @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException,
+            LibraryResourceNotFoundException {
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+        int reservingUserId = resolveUserId(userId, claims, traceId, "cancel");
+        reservationService.cancel(bookId, reservingUserId, traceId);
+        return new ResponseEntity<>(HttpStatus.ACCEPTED);
+    }
+
+    private int resolveUserId(Integer userId, JwtClaims claims, String traceId, String action)
+            throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException {
+
+        if(claims.isAdmin()) {
+            if(userId == null) {
+                logger.error("TraceId: {}, Admin attempted to {} a reservation without a User Id!!", traceId, action);
+                throw new LibraryResourceBadRequestException(traceId, "Please give the User Id to " + action + " the reservation for");
+            }
+            return userId;
+        }
+        int userIdInClaim = claims.getUserId();
+        if(userId != null && userId != userIdInClaim) {
+            logger.error("Trace Id: {}, UserId {} not allowed to {} a reservation of another user {} ", traceId,
+                    userIdInClaim, action, userId);
+            throw new LibraryResourceUnauthorizedException(traceId, "Not allowed to " + action + " a reservation of another user");
+        }
+        return userIdInClaim;
+    }
+}
@@ -0,0 +1,80 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "RESERVATION", uniqueConstraints = @UniqueConstraint(columnNames = {"Book_Id", "User_Id"}))
+public class ReservationEntity {
+
+    @Column(name = "Reservation_Id")
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "reservationId_generator")
+    // Ids are reserved in blocks, see PooledLoSequenceGenerator
+    @GenericGenerator(name = "reservationId_generator", strategy = "com.skb.course.apis.libraryapis.util.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "reservation_sequence"))
+    private int reservationId;
+
+    @Column(name = "Book_Id")
+    private int bookId;
+
+    @Column(name = "User_Id")
+    private int userId;
+
+    @Column(name = "Reserved_At")
+    private LocalDateTime reservedAt;
+
+    // Null while the User waits for a copy
+    @Column(name = "Hold_Until")
+    private LocalDateTime holdUntil;
+
+    public ReservationEntity() {
+    }
+
+    public ReservationEntity(int bookId, int userId, LocalDateTime reservedAt, LocalDateTime holdUntil) {
+        this.bookId = bookId;
+        this.userId = userId;
+        this.reservedAt = reservedAt;
+        this.holdUntil = holdUntil;
+    }
+
+    public int getReservationId() {
+        return reservationId;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(int bookId) {
+        this.bookId = bookId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public LocalDateTime getReservedAt() {
+        return reservedAt;
+    }
+
+    public void setReservedAt(LocalDateTime reservedAt) {
+        this.reservedAt = reservedAt;
+    }
+
+    public LocalDateTime getHoldUntil() {
+        return holdUntil;
+    }
+
+    public void setHoldUntil(LocalDateTime holdUntil) {
+        this.holdUntil = holdUntil;
+    }
+}
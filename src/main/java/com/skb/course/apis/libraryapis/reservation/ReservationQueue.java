@@ -0,0 +1,133 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The reservations of one Book: the Users waiting for a copy, first come first served, and the Users a copy is held
+ * for, in the order their holds run out. Both are linked lists threaded through the reservations themselves, so
+ * adding, finding, removing and moving a reservation are all O(1).
+ *
+ * Not thread safe, callers synchronize on the queue.
+ */
+final class ReservationQueue {
+
+    private final Map<Integer, Node> byUser = new HashMap<>();
+    private final NodeList waiting = new NodeList();
+    private final NodeList held = new NodeList();
+
+    Node get(int userId) {
+        return byUser.get(userId);
+    }
+
+    void add(Node node) {
+        listOf(node).addLast(node);
+        byUser.put(node.userId, node);
+    }
+
+    Node firstWaiting() {
+        return waiting.first;
+    }
+
+    Node firstHeld() {
+        return held.first;
+    }
+
+    boolean hasWaiting() {
+        return waiting.first != null;
+    }
+
+    // Moves the User from the waiting list to the end of the held list
+    void hold(Node node, LocalDateTime holdUntil) {
+        waiting.remove(node);
+        node.holdUntil = holdUntil;
+        held.addLast(node);
+    }
+
+    // Undoes hold(), the User is back at the front of the waiting list
+    void unhold(Node node) {
+        held.remove(node);
+        node.holdUntil = null;
+        waiting.addFirst(node);
+    }
+
+    void remove(Node node) {
+        listOf(node).remove(node);
+        byUser.remove(node.userId);
+    }
+
+    // Undoes remove(), the User is back at the front of the list they were in
+    void restore(Node node) {
+        listOf(node).addFirst(node);
+        byUser.put(node.userId, node);
+    }
+
+    boolean contains(Node node) {
+        return byUser.get(node.userId) == node;
+    }
+
+    private NodeList listOf(Node node) {
+        return node.holdUntil == null ? waiting : held;
+    }
+
+    static final class Node {
+
+        final int reservationId;
+        final int userId;
+        final LocalDateTime reservedAt;
+        LocalDateTime holdUntil;
+        private Node previous;
+        private Node next;
+
+        Node(int reservationId, int userId, LocalDateTime reservedAt, LocalDateTime holdUntil) {
+            this.reservationId = reservationId;
+            this.userId = userId;
+            this.reservedAt = reservedAt;
+            this.holdUntil = holdUntil;
+        }
+    }
+
+    private static final class NodeList {
+
+        private Node first;
+        private Node last;
+
+        void addLast(Node node) {
+            node.previous = last;
+            node.next = null;
+            if(last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void addFirst(Node node) {
+            node.previous = null;
+            node.next = first;
+            if(first == null) {
+                last = node;
+            } else {
+                first.previous = node;
+            }
+            first = node;
+        }
+
+        void remove(Node node) {
+            if(node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if(node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ReservationRepository extends CrudRepository<ReservationEntity, Integer> {
+
+    // Every Book's queue, first come first
+    List<ReservationEntity> findAllByOrderByReservedAtAscReservationIdAsc();
+
+    // Updates and deletes by id, without reading the reservation first
+    @Modifying
+    @Query("update ReservationEntity r set r.holdUntil = :holdUntil where r.reservationId = :reservationId")
+    int updateHoldUntil(@Param("reservationId") int reservationId, @Param("holdUntil") LocalDateTime holdUntil);
+
+    @Modifying
+    @Query("delete from ReservationEntity r where r.reservationId = :reservationId")
+    int deleteByReservationId(@Param("reservationId") int reservationId);
+
+    // For a Book being deleted
+    @Modifying
+    @Query("delete from ReservationEntity r where r.bookId = :bookId")
+    int deleteByBookId(@Param("bookId") int bookId);
+}
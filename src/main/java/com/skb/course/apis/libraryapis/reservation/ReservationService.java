@@ -0,0 +1,410 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import com.skb.course.apis.libraryapis.book.BookAvailabilityLedger;
+import com.skb.course.apis.libraryapis.book.BookCache;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.user.UserBookEntityRepository;
+import com.skb.course.apis.libraryapis.user.UserRepository;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reservations of Books that have no copy left. Users join the Book's queue and, when a copy comes back, it is held
+ * for the User at the front of the queue for the hold window instead of going back on the shelf. The User then
+ * gets that copy when the Book is issued to them; if they don't come for it in time it goes to the next User.
+ *
+ * Queues are kept in memory (see {@link ReservationQueue}) and every change is written to RESERVATION in the same
+ * transaction as the loan change that caused it, so they are rebuilt as they were on start. Held copies stay counted
+ * as issued in the {@link BookAvailabilityLedger}.
+ */
+@Service
+public class ReservationService {
+
+    private static Logger logger = LoggerFactory.getLogger(ReservationService.class);
+
+    private ReservationRepository reservationRepository;
+    private UserRepository userRepository;
+    private UserBookEntityRepository userBookEntityRepository;
+    private BookAvailabilityLedger bookAvailabilityLedger;
+    private BookCache bookCache;
+    private TransactionTemplate transactionTemplate;
+    private Duration holdWindow;
+
+    private final Map<Integer, ReservationQueue> queues = new ConcurrentHashMap<>();
+
+    public ReservationService(ReservationRepository reservationRepository, UserRepository userRepository,
+                              UserBookEntityRepository userBookEntityRepository,
+                              BookAvailabilityLedger bookAvailabilityLedger, BookCache bookCache,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${library.reservation.hold.minutes:2880}") long holdMinutes) {
+        this.reservationRepository = reservationRepository;
+        this.userRepository = userRepository;
+        this.userBookEntityRepository = userBookEntityRepository;
+        this.bookAvailabilityLedger = bookAvailabilityLedger;
+        this.bookCache = bookCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.holdWindow = Duration.ofMinutes(holdMinutes);
+    }
+
+    @PostConstruct
+    public void load() {
+
+        List<ReservationEntity> held = new ArrayList<>();
+        int reservations = 0;
+        for(ReservationEntity re : reservationRepository.findAllByOrderByReservedAtAscReservationIdAsc()) {
+            if(re.getHoldUntil() == null) {
+                queueOf(re.getBookId()).add(createNodeFromEntity(re));
+            } else {
+                held.add(re);
+            }
+            reservations++;
+        }
+        // Held lists are in the order the holds run out
+        held.sort(Comparator.comparing(ReservationEntity::getHoldUntil));
+        for(ReservationEntity re : held) {
+            queueOf(re.getBookId()).add(createNodeFromEntity(re));
+        }
+        logger.info("Loaded {} reservations of {} Books", reservations, queues.size());
+    }
+
+    /**
+     * Puts the User in the Book's queue. If nobody is waiting and a copy is available, it is held for the User
+     * straight away.
+     */
+    public Reservation reserve(int bookId, int userId, String traceId)
+            throws LibraryResourceNotFoundException, LibraryResourceAlreadyExistException {
+
+        if(!userRepository.existsById(userId)) {
+            throw new LibraryResourceNotFoundException(traceId, "Library User Id: " + userId + " Not Found");
+        }
+        bookAvailabilityLedger.load(Collections.singleton(bookId));
+        if(bookAvailabilityLedger.getCounts(bookId) == null) {
+            throw new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + " Not Found");
+        }
+        if(!userBookEntityRepository.findByUserIdAndBookId(userId, bookId).isEmpty()) {
+            throw new LibraryResourceAlreadyExistException(traceId, "Book Id: " + bookId + " is already issued to User Id: " + userId);
+        }
+        ReservationQueue queue = queueOf(bookId);
+        synchronized(queue) {
+            if(queue.get(userId) != null) {
+                throw new LibraryResourceAlreadyExistException(traceId, "User Id: " + userId + " has already reserved Book Id: " + bookId);
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        ReservationEntity reservation;
+        try {
+            reservation = transactionTemplate.execute(status -> {
+                LocalDateTime holdUntil = null;
+                boolean nobodyWaiting;
+                synchronized(queue) {
+                    nobodyWaiting = !queue.hasWaiting();
+                }
+                if(nobodyWaiting && bookAvailabilityLedger.issue(bookId) == BookAvailabilityLedger.IssueResult.Issued) {
+                    LibraryApiUtils.runAfterRollback(() -> {
+                        bookAvailabilityLedger.returnCopy(bookId);
+                        bookCache.evict(bookId);
+                    });
+                    holdUntil = now.plus(holdWindow);
+                }
+                return reservationRepository.save(new ReservationEntity(bookId, userId, now, holdUntil));
+            });
+        } catch(DataIntegrityViolationException e) {
+            logger.error("TraceId: {}, User Id: {} has already reserved Book Id: {}", traceId, userId, bookId, e);
+            throw new LibraryResourceAlreadyExistException(traceId, "User Id: " + userId + " has already reserved Book Id: " + bookId);
+        }
+
+        // Until now returns haven't seen the reservation, the copies they freed went back on the shelf (and are held
+        // for the queue by the next sweep)
+        synchronized(queue) {
+            queue.add(createNodeFromEntity(reservation));
+        }
+        if(reservation.getHoldUntil() != null) {
+            bookCache.evict(bookId);
+            logger.info("TraceId: {}, Copy of Book Id: {} held for User Id: {} until {}", traceId, bookId, userId,
+                    reservation.getHoldUntil());
+        }
+        return createReservationFromEntity(reservation);
+    }
+
+    /**
+     * Takes the User out of the Book's queue. A copy held for the User goes to the next User in the queue.
+     */
+    public void cancel(int bookId, int userId, String traceId) throws LibraryResourceNotFoundException {
+
+        ReservationQueue queue = queues.get(bookId);
+        ReservationQueue.Node node = queue == null ? null : nodeOf(queue, userId);
+        if(node == null || !transactionTemplate.execute(status -> remove(bookId, queue, node))) {
+            throw new LibraryResourceNotFoundException(traceId, "User Id: " + userId + " has not reserved Book Id: " + bookId);
+        }
+    }
+
+    /**
+     * Ends every reservation of the Book, which is being deleted. Called within the transaction of the delete; copies
+     * held for the queue go with the Book.
+     */
+    public void removeBook(int bookId) {
+
+        ReservationQueue queue = queues.remove(bookId);
+        if(queue != null) {
+            LibraryApiUtils.runAfterRollback(() -> queues.putIfAbsent(bookId, queue));
+        }
+        reservationRepository.deleteByBookId(bookId);
+    }
+
+    /**
+     * Ends every reservation of the User, who is being deleted. Called within the transaction of the delete; copies
+     * held for the User go to the next Users in the queues.
+     */
+    public void removeUser(int userId) {
+
+        for(Map.Entry<Integer, ReservationQueue> entry : queues.entrySet()) {
+            ReservationQueue.Node node = nodeOf(entry.getValue(), userId);
+            if(node != null) {
+                remove(entry.getKey(), entry.getValue(), node);
+            }
+        }
+    }
+
+    /**
+     * Holds up to the given number of copies of the Book, which have just been returned, for the Users waiting for
+     * it. Called within the transaction of the return. Returns how many copies were held; the others are the caller's
+     * to put back.
+     */
+    public int holdReturnedCopies(int bookId, int copies) {
+
+        ReservationQueue queue = queues.get(bookId);
+        return queue == null ? 0 : holdForWaitingUsers(bookId, queue, copies);
+    }
+
+    public boolean hasHeldCopy(int userId, int bookId) {
+
+        ReservationQueue queue = queues.get(bookId);
+        if(queue == null) {
+            return false;
+        }
+        synchronized(queue) {
+            ReservationQueue.Node node = queue.get(userId);
+            return node != null && node.holdUntil != null && node.holdUntil.isAfter(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Hands the copy held for the User over, ending the reservation. Called within the transaction of the issue.
+     * Returns false if no copy of the Book is held for the User.
+     */
+    public boolean takeHeldCopy(int userId, int bookId) {
+
+        ReservationQueue queue = queues.get(bookId);
+        if(queue == null) {
+            return false;
+        }
+        ReservationQueue.Node node;
+        synchronized(queue) {
+            node = queue.get(userId);
+            if(node == null || node.holdUntil == null || !node.holdUntil.isAfter(LocalDateTime.now())) {
+                return false;
+            }
+            queue.remove(node);
+        }
+        LibraryApiUtils.runAfterRollback(() -> restore(queue, node));
+        reservationRepository.deleteByReservationId(node.reservationId);
+        return true;
+    }
+
+    /**
+     * Ends the reservation of a User who waited for the Book but got a copy of it anyway. Called within the
+     * transaction of the issue.
+     */
+    public void withdraw(int userId, int bookId) {
+
+        ReservationQueue queue = queues.get(bookId);
+        if(queue == null) {
+            return;
+        }
+        ReservationQueue.Node node;
+        synchronized(queue) {
+            node = queue.get(userId);
+            if(node == null || node.holdUntil != null) {
+                return;
+            }
+            queue.remove(node);
+        }
+        LibraryApiUtils.runAfterRollback(() -> restore(queue, node));
+        reservationRepository.deleteByReservationId(node.reservationId);
+    }
+
+    @Scheduled(initialDelayString = "${library.reservation.sweep.interval.millis:60000}",
+            fixedDelayString = "${library.reservation.sweep.interval.millis:60000}")
+    public void sweepHolds() {
+        sweep(LocalDateTime.now());
+    }
+
+    /**
+     * Passes the copies whose holds ran out before the given time to the next Users in the queues (or puts them back
+     * on the shelf) and holds copies that are available, e.g. after a restock, for Users still waiting.
+     */
+    void sweep(LocalDateTime now) {
+
+        for(Map.Entry<Integer, ReservationQueue> entry : queues.entrySet()) {
+            int bookId = entry.getKey();
+            ReservationQueue queue = entry.getValue();
+            try {
+                List<ReservationQueue.Node> expired = new ArrayList<>();
+                synchronized(queue) {
+                    ReservationQueue.Node node;
+                    while((node = queue.firstHeld()) != null && !node.holdUntil.isAfter(now)) {
+                        queue.remove(node);
+                        expired.add(node);
+                    }
+                }
+                if(!expired.isEmpty()) {
+                    transactionTemplate.execute(status -> {
+                        for(ReservationQueue.Node node : expired) {
+                            LibraryApiUtils.runAfterRollback(() -> restore(queue, node));
+                            reservationRepository.deleteByReservationId(node.reservationId);
+                        }
+                        releaseHeldCopies(bookId, queue, expired.size());
+                        return null;
+                    });
+                    logger.info("{} holds of Book Id: {} ran out", expired.size(), bookId);
+                }
+
+                while(hasWaiting(queue)) {
+                    Integer held = transactionTemplate.execute(status -> {
+                        if(bookAvailabilityLedger.issue(bookId) != BookAvailabilityLedger.IssueResult.Issued) {
+                            return 0;
+                        }
+                        LibraryApiUtils.runAfterRollback(() -> bookAvailabilityLedger.returnCopy(bookId));
+                        int copies = holdForWaitingUsers(bookId, queue, 1);
+                        if(copies == 0) {
+                            LibraryApiUtils.runAfterCommit(() -> bookAvailabilityLedger.returnCopy(bookId));
+                        }
+                        return copies;
+                    });
+                    if(held == null || held == 0) {
+                        break;
+                    }
+                    bookCache.evict(bookId);
+                }
+            } catch(RuntimeException e) {
+                logger.error("Reservations of Book Id: {} could not be swept!!", bookId, e);
+            }
+        }
+    }
+
+    // Within a transaction. Returns false if the reservation has ended in the meantime.
+    private boolean remove(int bookId, ReservationQueue queue, ReservationQueue.Node node) {
+
+        synchronized(queue) {
+            if(!queue.contains(node)) {
+                return false;
+            }
+            queue.remove(node);
+        }
+        LibraryApiUtils.runAfterRollback(() -> restore(queue, node));
+        reservationRepository.deleteByReservationId(node.reservationId);
+        if(node.holdUntil != null) {
+            releaseHeldCopies(bookId, queue, 1);
+        }
+        return true;
+    }
+
+    // Copies that were held for Users who no longer want them go to the next Users, or back on the shelf once the
+    // transaction commits. Within a transaction.
+    private void releaseHeldCopies(int bookId, ReservationQueue queue, int copies) {
+
+        int unclaimed = copies - holdForWaitingUsers(bookId, queue, copies);
+        LibraryApiUtils.runAfterCommit(() -> {
+            if(unclaimed > 0) {
+                bookAvailabilityLedger.returnCopies(bookId, unclaimed);
+            }
+            bookCache.evict(bookId);
+        });
+    }
+
+    // Within a transaction. If it rolls back, the Users are put back at the front of the queue.
+    private int holdForWaitingUsers(int bookId, ReservationQueue queue, int copies) {
+
+        LocalDateTime holdUntil = LocalDateTime.now().plus(holdWindow);
+        List<ReservationQueue.Node> held = new ArrayList<>(Math.min(copies, 16));
+        synchronized(queue) {
+            ReservationQueue.Node node;
+            while(held.size() < copies && (node = queue.firstWaiting()) != null) {
+                queue.hold(node, holdUntil);
+                held.add(node);
+            }
+        }
+        if(held.isEmpty()) {
+            return 0;
+        }
+
+        LibraryApiUtils.runAfterRollback(() -> {
+            synchronized(queue) {
+                for(int i = held.size() - 1; i >= 0; i--) {
+                    ReservationQueue.Node node = held.get(i);
+                    if(queue.contains(node) && node.holdUntil != null) {
+                        queue.unhold(node);
+                    }
+                }
+            }
+        });
+        for(ReservationQueue.Node node : held) {
+            reservationRepository.updateHoldUntil(node.reservationId, holdUntil);
+            logger.info("Copy of Book Id: {} held for User Id: {} until {}", bookId, node.userId, holdUntil);
+        }
+        return held.size();
+    }
+
+    private void restore(ReservationQueue queue, ReservationQueue.Node node) {
+        synchronized(queue) {
+            if(queue.get(node.userId) == null) {
+                queue.restore(node);
+            }
+        }
+    }
+
+    private ReservationQueue.Node nodeOf(ReservationQueue queue, int userId) {
+        synchronized(queue) {
+            return queue.get(userId);
+        }
+    }
+
+    private boolean hasWaiting(ReservationQueue queue) {
+        synchronized(queue) {
+            return queue.hasWaiting();
+        }
+    }
+
+    private ReservationQueue queueOf(int bookId) {
+        return queues.computeIfAbsent(bookId, id -> new ReservationQueue());
+    }
+
+    private ReservationQueue.Node createNodeFromEntity(ReservationEntity re) {
+        return new ReservationQueue.Node(re.getReservationId(), re.getUserId(), re.getReservedAt(), re.getHoldUntil());
+    }
+
+    private Reservation createReservationFromEntity(ReservationEntity re) {
+        return new Reservation(re.getBookId(), re.getUserId(),
+                re.getHoldUntil() == null ? ReservationStatus.Waiting : ReservationStatus.Held,
+                re.getReservedAt(), re.getHoldUntil());
+    }
+}
@@ -0,0 +1,9 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+public enum ReservationStatus {
+
+    // Waiting in the Book's queue for a copy
+    Waiting,
+    // A copy is set aside for the User until the hold runs out
+    Held;
+}
@@ -1,9 +1,11 @@
 package com.skb.course.apis.libraryapis.security;
 
-import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
@@ -12,15 +14,22 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
-
-import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import java.util.Collections;
 
+/**
+ * Verifies the request's token, once (or finds it verified already in the {@link VerifiedTokenCache}), and sets its
+ * claims ({@link JwtClaims}) as the principal of the request's Authentication, with the User's role as its authority.
+ * A request without a valid token goes on unauthenticated.
+ */
 public class JwtAuthorizationFilter extends BasicAuthenticationFilter {
 
+    private static Logger logger = LoggerFactory.getLogger(JwtAuthorizationFilter.class);
+
+    private VerifiedTokenCache verifiedTokenCache;
 
-    public JwtAuthorizationFilter(AuthenticationManager authenticationManager) {
+    public JwtAuthorizationFilter(AuthenticationManager authenticationManager, VerifiedTokenCache verifiedTokenCache) {
         super(authenticationManager);
+        this.verifiedTokenCache = verifiedTokenCache;
     }
 
     @Override
@@ -41,17 +50,14 @@ public class JwtAuthorizationFilter extends BasicAuthenticationFilter {
 
     private UsernamePasswordAuthenticationToken getAuthentication(String authorizationHeader) {
 
-        if(authorizationHeader != null) {
-            String userNameFromJwt = JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes()))
-                                    .build()
-                                    .verify(authorizationHeader.replace(SecurityConstants.BEARER_TOKEN_PREFIX, ""))
-                                    .getSubject();
-
-            if(userNameFromJwt != null) {
-                return new UsernamePasswordAuthenticationToken(userNameFromJwt, null, new ArrayList<>());
-            }
+        try {
+            JwtClaims claims = verifiedTokenCache.verify(
+                    authorizationHeader.substring(SecurityConstants.BEARER_TOKEN_PREFIX.length()));
+            return new UsernamePasswordAuthenticationToken(claims, null,
+                    Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + claims.getRole().name())));
+        } catch(JWTVerificationException | IllegalArgumentException e) {
+            logger.warn("Token rejected: {}", e.getMessage());
+            return null;
         }
-
-        return null;
     }
 }
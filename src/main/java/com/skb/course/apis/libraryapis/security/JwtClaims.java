@@ -0,0 +1,56 @@
+package com.skb.course.apis.libraryapis.security;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.skb.course.apis.libraryapis.user.Role;
+
+/**
+ * The claims of a verified token, set as the principal of the request's Authentication by
+ * {@link JwtAuthorizationFilter}. Controllers take it as an {@code @AuthenticationPrincipal} parameter.
+ */
+public final class JwtClaims {
+
+    private final String subject;
+    private final int userId;
+    private final Role role;
+
+    public JwtClaims(String subject, int userId, Role role) {
+        this.subject = subject;
+        this.userId = userId;
+        this.role = role;
+    }
+
+    static JwtClaims from(DecodedJWT jwt) {
+
+        Integer userId = jwt.getClaim("userId").asInt();
+        String role = jwt.getClaim("role").asString();
+        if(jwt.getSubject() == null || userId == null || role == null) {
+            throw new IllegalArgumentException("Token of " + jwt.getSubject() + " is missing claims");
+        }
+        return new JwtClaims(jwt.getSubject(), userId, Role.valueOf(role));
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public boolean isAdmin() {
+        return role == Role.ADMIN;
+    }
+
+    @Override
+    public String toString() {
+        return "JwtClaims{" +
+                "subject='" + subject + '\'' +
+                ", userId=" + userId +
+                ", role=" + role +
+                '}';
+    }
+}
@@ -13,10 +13,13 @@ public class LibraryApiSecurityConfig extends WebSecurityConfigurerAdapter {
 
     private UserDetailsServiceImpl userDetailsService;
     private BCryptPasswordEncoder bCryptPasswordEncoder;
+    private VerifiedTokenCache verifiedTokenCache;
 
-    public LibraryApiSecurityConfig(UserDetailsServiceImpl userDetailsService, BCryptPasswordEncoder bCryptPasswordEncoder) {
+    public LibraryApiSecurityConfig(UserDetailsServiceImpl userDetailsService, BCryptPasswordEncoder bCryptPasswordEncoder,
+                                    VerifiedTokenCache verifiedTokenCache) {
         this.userDetailsService = userDetailsService;
         this.bCryptPasswordEncoder = bCryptPasswordEncoder;
+        this.verifiedTokenCache = verifiedTokenCache;
     }
 
     protected void configure(HttpSecurity httpSecurity) throws Exception {
@@ -28,7 +31,7 @@ public class LibraryApiSecurityConfig extends WebSecurityConfigurerAdapter {
                     .anyRequest().authenticated()
                     .and()
                     .addFilter(new JwtAuthenticationFilter(authenticationManager()))
-                    .addFilter(new JwtAuthorizationFilter(authenticationManager()))
+                    .addFilter(new JwtAuthorizationFilter(authenticationManager(), verifiedTokenCache))
                     .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
     }
 
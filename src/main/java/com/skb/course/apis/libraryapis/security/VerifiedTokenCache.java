@@ -0,0 +1,120 @@
+package com.skb.course.apis.libraryapis.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+
+/**
+ * Claims of the tokens verified recently, so that a client sending the same token with every request pays for the
+ * HMAC and the decoding once. Entries are keyed by a SHA-256 digest of the whole token (not just its signature, a
+ * token is only what was verified if all of it is the same) and expire when the token does. Tokens that fail
+ * verification are not kept.
+ *
+ * Hits and misses are published as "cache.*" metrics with the tag cache=verified-tokens, and the time taken by the
+ * verifications themselves as "library.jwt.verification".
+ */
+@Component
+public class VerifiedTokenCache {
+
+    public static final String CACHE_NAME = "verified-tokens";
+    public static final String VERIFICATION_METRIC = "library.jwt.verification";
+
+    // Verifiers are immutable, one is shared by all the requests
+    private static final JWTVerifier VERIFIER = JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes())).build();
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private Cache<ByteBuffer, Verified> cache;
+    private Timer verifications;
+
+    public VerifiedTokenCache(@Value("${library.security.token.cache.max.size:10000}") long maxSize,
+                              MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new UntilTokenExpires())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        this.verifications = Timer.builder(VERIFICATION_METRIC)
+                .description("Time taken to verify tokens that were not in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the claims of the token, verifying it unless it was verified before and hasn't expired since.
+     *
+     * @throws com.auth0.jwt.exceptions.JWTVerificationException if the token isn't valid
+     * @throws IllegalArgumentException if the token is valid but lacks the claims of a User
+     */
+    public JwtClaims verify(String token) {
+        return cache.get(digest(token), key -> verifications.record(() -> verifyNow(token))).claims;
+    }
+
+    static JwtClaims verifyUncached(String token) {
+        return verifyNow(token).claims;
+    }
+
+    private static Verified verifyNow(String token) {
+
+        DecodedJWT jwt = VERIFIER.verify(token);
+        long expiresAt = jwt.getExpiresAt() == null
+                ? System.currentTimeMillis() + SecurityConstants.EXPIRATION_TIME
+                : jwt.getExpiresAt().getTime();
+        return new Verified(JwtClaims.from(jwt), expiresAt);
+    }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA_256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static final class Verified {
+
+        private final JwtClaims claims;
+        private final long expiresAt;
+
+        private Verified(JwtClaims claims, long expiresAt) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class UntilTokenExpires implements Expiry<ByteBuffer, Verified> {
+
+        @Override
+        public long expireAfterCreate(ByteBuffer key, Verified value, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(ByteBuffer key, Verified value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(ByteBuffer key, Verified value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
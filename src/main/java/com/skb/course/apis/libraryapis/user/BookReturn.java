@@ -0,0 +1,32 @@
+package com.skb.course.apis.libraryapis.user;
+
+// One Book handed back by a User, as sent to POST /v1/returns
+public class BookReturn {
+
+    private int userId;
+    private int bookId;
+
+    public BookReturn() {
+    }
+
+    public BookReturn(int userId, int bookId) {
+        this.userId = userId;
+        this.bookId = bookId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(int bookId) {
+        this.bookId = bookId;
+    }
+}
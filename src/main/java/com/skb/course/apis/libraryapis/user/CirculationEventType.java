@@ -0,0 +1,28 @@
+package com.skb.course.apis.libraryapis.user;
+
+public enum CirculationEventType {
+
+    Issue(1),
+    Reissue(2),
+    Return(3);
+
+    // As written in the circulation journal, 0 marks the end of the written records
+    private final byte code;
+
+    CirculationEventType(int code) {
+        this.code = (byte) code;
+    }
+
+    byte getCode() {
+        return code;
+    }
+
+    static CirculationEventType fromCode(byte code) {
+        switch(code) {
+            case 1: return Issue;
+            case 2: return Reissue;
+            case 3: return Return;
+            default: throw new IllegalArgumentException("Unknown circulation event type: " + code);
+        }
+    }
+}
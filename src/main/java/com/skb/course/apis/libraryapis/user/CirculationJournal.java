@@ -0,0 +1,194 @@
+package com.skb.course.apis.libraryapis.user;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only history of the loans: every issue, re-issue and return, which USER_BOOK doesn't keep (re-issues
+ * overwrite the loan and returns delete it). Audits, analytics and replays read it with {@link #scan}.
+ *
+ * The journal is a sequence of fixed-size segment files, each memory mapped while it is written, holding fixed-width
+ * records. A record is in the page cache once it is appended, so it survives the process dying; segments are forced
+ * to disk when they fill up and on shutdown. Records are appended once the loan change has committed, with no trip
+ * to the DB.
+ */
+@Component
+public class CirculationJournal {
+
+    private static Logger logger = LoggerFactory.getLogger(CirculationJournal.class);
+
+    private static final String SEGMENT_PREFIX = "circulation-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    // User Id, Book Id, epoch day and the event type, written last so that a record is only seen once complete.
+    // Records never straddle a page.
+    static final int RECORD_SIZE = 16;
+    private static final int TYPE_OFFSET = 12;
+
+    private Path directory;
+    private int segmentSize;
+
+    private final List<Path> segments = new ArrayList<>();
+    private MappedByteBuffer active;
+    // Bytes of the active segment written so far
+    private volatile int position;
+
+    public CirculationJournal(@Value("${library.circulation.journal.dir:data/circulation}") String directory,
+                              @Value("${library.circulation.journal.segment.size:67108864}") int segmentSize) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = Math.max(RECORD_SIZE, segmentSize - segmentSize % RECORD_SIZE);
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+
+        Files.createDirectories(directory);
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        // Segment numbers are zero padded, so the names sort in the order the segments were written
+        Collections.sort(segments);
+        if(segments.isEmpty()) {
+            openNextSegment();
+        } else {
+            active = map(segments.get(segments.size() - 1), FileChannel.MapMode.READ_WRITE);
+            position = end(active);
+        }
+        logger.info("Circulation journal {} opened, {} segments, {} records in the last one",
+                directory.toAbsolutePath(), segments.size(), position / RECORD_SIZE);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if(active != null) {
+            active.force();
+        }
+    }
+
+    public void append(CirculationEventType type, int userId, int bookId, LocalDate day) {
+        append(type, userId, Collections.singleton(bookId), day);
+    }
+
+    /**
+     * Appends one event of the given type for each of the Books. A journal that can't be written is logged, not
+     * thrown: the loans have already changed.
+     */
+    public synchronized void append(CirculationEventType type, int userId, Collection<Integer> bookIds, LocalDate day) {
+
+        int epochDay = (int) day.toEpochDay();
+        try {
+            int at = position;
+            for(Integer bookId : bookIds) {
+                if(at == active.capacity()) {
+                    position = at;
+                    active.force();
+                    openNextSegment();
+                    at = 0;
+                }
+                active.putInt(at, userId);
+                active.putInt(at + 4, bookId);
+                active.putInt(at + 8, epochDay);
+                active.put(at + TYPE_OFFSET, type.getCode());
+                at += RECORD_SIZE;
+            }
+            position = at;
+        } catch(IOException e) {
+            logger.error("{} of Books: {} by User Id: {} could not be written to the circulation journal!!", type,
+                    bookIds, userId, e);
+        }
+    }
+
+    /**
+     * Reads every event appended so far, oldest first. Segments are read through their mappings, one record after
+     * the other, without copying.
+     */
+    public void scan(EventConsumer consumer) throws IOException {
+
+        List<Path> written;
+        ByteBuffer last;
+        int lastEnd;
+        synchronized(this) {
+            written = new ArrayList<>(segments.subList(0, segments.size() - 1));
+            last = active.duplicate();
+            lastEnd = position;
+        }
+        for(Path segment : written) {
+            MappedByteBuffer buffer = map(segment, FileChannel.MapMode.READ_ONLY);
+            scan(buffer, end(buffer), consumer);
+        }
+        scan(last, lastEnd, consumer);
+    }
+
+    private static void scan(ByteBuffer buffer, int end, EventConsumer consumer) {
+        for(int at = 0; at < end; at += RECORD_SIZE) {
+            consumer.accept(buffer.getInt(at), buffer.getInt(at + 4),
+                    CirculationEventType.fromCode(buffer.get(at + TYPE_OFFSET)), buffer.getInt(at + 8));
+        }
+    }
+
+    // Records are written one after the other into a zeroed file, so the written ones are a prefix of the segment
+    private static int end(ByteBuffer buffer) {
+
+        int low = 0;
+        int high = buffer.capacity() / RECORD_SIZE;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(buffer.get(middle * RECORD_SIZE + TYPE_OFFSET) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low * RECORD_SIZE;
+    }
+
+    private void openNextSegment() throws IOException {
+
+        long segmentNumber = 1;
+        if(!segments.isEmpty()) {
+            String lastName = segments.get(segments.size() - 1).getFileName().toString();
+            segmentNumber = Long.parseLong(lastName.substring(SEGMENT_PREFIX.length(),
+                    lastName.length() - SEGMENT_SUFFIX.length())) + 1;
+        }
+        Path segment = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            active = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.add(segment);
+        position = 0;
+    }
+
+    private static MappedByteBuffer map(Path segment, FileChannel.MapMode mode) throws IOException {
+
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[] {StandardOpenOption.READ}
+                : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try(FileChannel channel = FileChannel.open(segment, options)) {
+            return channel.map(mode, 0, channel.size());
+        }
+    }
+
+    @FunctionalInterface
+    public interface EventConsumer {
+        void accept(int userId, int bookId, CirculationEventType type, int epochDay);
+    }
+}
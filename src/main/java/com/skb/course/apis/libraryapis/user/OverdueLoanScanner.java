@@ -0,0 +1,147 @@
+package com.skb.course.apis.libraryapis.user;
+
+import com.skb.course.apis.libraryapis.util.IntLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Nightly count of overdue loans (Return Date before today) per User and per Book, written to a CSV report.
+ *
+ * USER_BOOK is read in chunks on the (Return_Date, User_Book_Id) keyset, each chunk a short query of its own, with
+ * an optional pause between chunks so the scan doesn't crowd out the API. Only the counts are kept, in primitive
+ * maps, so memory grows with the number of distinct Users and Books that are overdue, not with the number of loans.
+ */
+@Component
+public class OverdueLoanScanner {
+
+    private static Logger logger = LoggerFactory.getLogger(OverdueLoanScanner.class);
+
+    private UserBookEntityRepository userBookEntityRepository;
+    private int chunkSize;
+    private long throttleMillis;
+    private Path reportDirectory;
+
+    public OverdueLoanScanner(UserBookEntityRepository userBookEntityRepository,
+                              @Value("${library.overdue.scan.chunk.size:1000}") int chunkSize,
+                              @Value("${library.overdue.scan.throttle.millis:50}") long throttleMillis,
+                              @Value("${library.overdue.report.dir:data/reports}") String reportDirectory) {
+        this.userBookEntityRepository = userBookEntityRepository;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.throttleMillis = throttleMillis;
+        this.reportDirectory = Paths.get(reportDirectory);
+    }
+
+    @Scheduled(cron = "${library.overdue.scan.cron:0 30 2 * * *}")
+    public void scanOverdueLoans() {
+        try {
+            scan(LocalDate.now());
+        } catch(RuntimeException e) {
+            logger.error("Overdue loan scan failed!!", e);
+        }
+    }
+
+    /**
+     * Counts the loans that were due before the given day and writes the report of that day, replacing any earlier
+     * one. Returns the report file.
+     */
+    public Path scan(LocalDate today) {
+
+        long start = System.currentTimeMillis();
+        IntLongHashMap overdueByUser = new IntLongHashMap(1024);
+        IntLongHashMap overdueByBook = new IntLongHashMap(1024);
+        long overdueLoans = 0;
+        int chunks = 0;
+
+        Pageable chunk = PageRequest.of(0, chunkSize);
+        List<Object[]> loans = userBookEntityRepository.findOverdueLoans(today, chunk);
+        while(!loans.isEmpty()) {
+            for(Object[] loan : loans) {
+                int userId = (Integer) loan[1];
+                int bookId = (Integer) loan[2];
+                overdueByUser.put(userId, overdueByUser.get(userId, 0) + 1);
+                overdueByBook.put(bookId, overdueByBook.get(bookId, 0) + 1);
+            }
+            overdueLoans += loans.size();
+            chunks++;
+            if(loans.size() < chunkSize) {
+                break;
+            }
+            Object[] last = loans.get(loans.size() - 1);
+            pause();
+            loans = userBookEntityRepository.findOverdueLoansAfter(today, (LocalDate) last[3], (Integer) last[0],
+                    chunk);
+        }
+
+        Path report = writeReport(today, overdueLoans, overdueByUser, overdueByBook);
+        logger.info("Overdue loan scan for {} found {} loans of {} Users and {} Books in {} chunks, {} ms. Report: {}",
+                today, overdueLoans, overdueByUser.size(), overdueByBook.size(), chunks,
+                System.currentTimeMillis() - start, report.toAbsolutePath());
+        return report;
+    }
+
+    // Written aside and moved in place, so a report is either complete or absent
+    private Path writeReport(LocalDate today, long overdueLoans, IntLongHashMap overdueByUser,
+                             IntLongHashMap overdueByBook) {
+
+        Path report = reportDirectory.resolve("overdue-" + today + ".csv");
+        Path partial = reportDirectory.resolve("overdue-" + today + ".csv.part");
+        try {
+            Files.createDirectories(reportDirectory);
+            try(BufferedWriter writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+                writer.write("# Loans due before " + today + ": " + overdueLoans + " overdue, " +
+                        overdueByUser.size() + " Users, " + overdueByBook.size() + " Books");
+                writer.newLine();
+                writer.write("kind,id,overdueLoans");
+                writer.newLine();
+                writeCounts(writer, "user", overdueByUser);
+                writeCounts(writer, "book", overdueByBook);
+            }
+            return Files.move(partial, report, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Overdue loan report " + report + " could not be written", e);
+        }
+    }
+
+    private static void writeCounts(BufferedWriter writer, String kind, IntLongHashMap counts) throws IOException {
+        try {
+            counts.forEach((id, count) -> {
+                try {
+                    writer.write(kind + "," + id + "," + count);
+                    writer.newLine();
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void pause() {
+
+        if(throttleMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(throttleMillis);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
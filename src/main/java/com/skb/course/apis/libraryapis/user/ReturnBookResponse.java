@@ -0,0 +1,34 @@
+package com.skb.course.apis.libraryapis.user;
+
+import java.util.List;
+
+public class ReturnBookResponse {
+
+    private int returned;
+    // One per return sent, in the same order
+    private List<ReturnBookStatus> returnBookStatuses;
+
+    public ReturnBookResponse() {
+    }
+
+    public ReturnBookResponse(int returned, List<ReturnBookStatus> returnBookStatuses) {
+        this.returned = returned;
+        this.returnBookStatuses = returnBookStatuses;
+    }
+
+    public int getReturned() {
+        return returned;
+    }
+
+    public void setReturned(int returned) {
+        this.returned = returned;
+    }
+
+    public List<ReturnBookStatus> getReturnBookStatuses() {
+        return returnBookStatuses;
+    }
+
+    public void setReturnBookStatuses(List<ReturnBookStatus> returnBookStatuses) {
+        this.returnBookStatuses = returnBookStatuses;
+    }
+}
@@ -0,0 +1,51 @@
+package com.skb.course.apis.libraryapis.user;
+
+public class ReturnBookStatus {
+
+    private Integer userId;
+    private Integer bookId;
+    private String status;
+    private String remarks;
+
+    public ReturnBookStatus() {
+    }
+
+    public ReturnBookStatus(int userId, int bookId, String status, String remarks) {
+        this.userId = userId;
+        this.bookId = bookId;
+        this.status = status;
+        this.remarks = remarks;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public Integer getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(Integer bookId) {
+        this.bookId = bookId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getRemarks() {
+        return remarks;
+    }
+
+    public void setRemarks(String remarks) {
+        this.remarks = remarks;
+    }
+}
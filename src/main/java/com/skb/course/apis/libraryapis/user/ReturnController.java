@@ -0,0 +1,58 @@
+package com.skb.course.apis.libraryapis.user;
+
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceUnauthorizedException;
+import com.skb.course.apis.libraryapis.security.JwtClaims;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.UUID;
+
+// Returns of many Users at once, e.g. everything found in the drop-box at the end of the day
+@RestController
+@RequestMapping(path = "/v1/returns")
+public class ReturnController {
+
+    private static Logger logger = LoggerFactory.getLogger(ReturnController.class);
+
+    private UserService userService;
+
+    @Value("${library.api.return.batch.max.size:5000}")
+    private int maxBatchSize;
+
+    public ReturnController(UserService userService) {
+        this.userService = userService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> returnBooks(@RequestBody List<BookReturn> bookReturns,
+                                         @AuthenticationPrincipal JwtClaims claims,
+                                         @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException {
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+        if(!claims.isAdmin()) {
+            // Logging UserId for security audit trail.
+            logger.error(traceId +  claims.getUserId() + " attempted to return Books. Disallowed. " +
+                    "User is not a Admin.");
+            throw new LibraryResourceUnauthorizedException(traceId, " attempted to return Books. Disallowed.");
+        }
+        if(bookReturns == null || bookReturns.size() == 0 || bookReturns.contains(null)) {
+            logger.error(traceId + " Invalid return list. List is either not present, empty or has empty entries.");
+            throw new LibraryResourceBadRequestException(traceId, "Invalid return list. List is either not present, empty or has empty entries.");
+        }
+        if(bookReturns.size() > maxBatchSize) {
+            logger.error("TraceId: {}, {} returns sent, more than the allowed {}!!", traceId, bookReturns.size(), maxBatchSize);
+            throw new LibraryResourceBadRequestException(traceId, "Please send at most " + maxBatchSize + " returns");
+        }
+        return new ResponseEntity<>(userService.returnBooks(bookReturns, traceId), HttpStatus.OK);
+    }
+}
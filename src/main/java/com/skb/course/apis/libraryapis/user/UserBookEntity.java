@@ -1,5 +1,9 @@
 package com.skb.course.apis.libraryapis.user;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
 import javax.persistence.*;
 import java.time.LocalDate;
 
@@ -10,7 +14,9 @@ public class UserBookEntity {
     @Column(name = "UserBook_Id")
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "userBook_Id_generator")
-    @SequenceGenerator(name="userBook_Id_generator", sequenceName = "user_book_sequence", allocationSize=1)
+    // Ids are reserved in blocks, see PooledLoSequenceGenerator
+    @GenericGenerator(name = "userBook_Id_generator", strategy = "com.skb.course.apis.libraryapis.util.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "user_book_sequence"))
     private int userBook_Id;
 
     @Column(name = "User_Id")
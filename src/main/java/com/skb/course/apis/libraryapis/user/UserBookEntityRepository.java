@@ -1,10 +1,63 @@
 package com.skb.course.apis.libraryapis.user;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.LockModeType;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 public interface UserBookEntityRepository extends CrudRepository<UserBookEntity, Integer> {
 
     List<UserBookEntity> findByUserIdAndBookId(int userId, int bookId);
+
+    List<UserBookEntity> findByUserIdAndBookIdIn(int userId, Collection<Integer> bookIds);
+
+    // A User's loans due before the given day, soonest first, with the ISBN and title of the Book in the same query.
+    // Pages follow the (returnDate, bookId) keyset, a User has at most one loan of a Book.
+    @Query("select new com.skb.course.apis.libraryapis.user.UserLoan(ub.bookId, b.isbn, b.title, ub.issuedDate, " +
+            "ub.returnDate, ub.numberOfTimesIssued) from UserBookEntity ub, BookEntity b " +
+            "where b.bookId = ub.bookId and ub.userId = :userId and ub.returnDate < :dueBefore " +
+            "order by ub.returnDate, ub.bookId")
+    Slice<UserLoan> findLoans(@Param("userId") int userId, @Param("dueBefore") LocalDate dueBefore,
+                              Pageable pageable);
+
+    @Query("select new com.skb.course.apis.libraryapis.user.UserLoan(ub.bookId, b.isbn, b.title, ub.issuedDate, " +
+            "ub.returnDate, ub.numberOfTimesIssued) from UserBookEntity ub, BookEntity b " +
+            "where b.bookId = ub.bookId and ub.userId = :userId and ub.returnDate < :dueBefore " +
+            "and (ub.returnDate > :afterReturnDate or (ub.returnDate = :afterReturnDate and ub.bookId > :afterBookId)) " +
+            "order by ub.returnDate, ub.bookId")
+    Slice<UserLoan> findLoansAfter(@Param("userId") int userId, @Param("dueBefore") LocalDate dueBefore,
+                                   @Param("afterReturnDate") LocalDate afterReturnDate,
+                                   @Param("afterBookId") int afterBookId, Pageable pageable);
+
+    // Loans of any of the Users for any of the Books (a superset of the pairs being returned), locked until the
+    // transaction ends so that they can't be returned twice
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<UserBookEntity> findByUserIdInAndBookIdIn(Collection<Integer> userIds, Collection<Integer> bookIds);
+
+    @Modifying
+    @Query("delete from UserBookEntity ub where ub.userBook_Id in :userBookIds")
+    int deleteByUserBookIdIn(@Param("userBookIds") Collection<Integer> userBookIds);
+
+    // Overdue loans are read on the (returnDate, userBook_Id) keyset, one chunk at a time. Each row is
+    // {userBook_Id, userId, bookId, returnDate}.
+    @Query("select ub.userBook_Id, ub.userId, ub.bookId, ub.returnDate from UserBookEntity ub " +
+            "where ub.returnDate < :today order by ub.returnDate, ub.userBook_Id")
+    List<Object[]> findOverdueLoans(@Param("today") LocalDate today, Pageable pageable);
+
+    @Query("select ub.userBook_Id, ub.userId, ub.bookId, ub.returnDate from UserBookEntity ub " +
+            "where ub.returnDate < :today " +
+            "and (ub.returnDate > :afterReturnDate or (ub.returnDate = :afterReturnDate and ub.userBook_Id > :afterUserBookId)) " +
+            "order by ub.returnDate, ub.userBook_Id")
+    List<Object[]> findOverdueLoansAfter(@Param("today") LocalDate today,
+                                         @Param("afterReturnDate") LocalDate afterReturnDate,
+                                         @Param("afterUserBookId") int afterUserBookId,
+                                         Pageable pageable);
 }
@@ -1,21 +1,32 @@
 package com.skb.course.apis.libraryapis.user;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceUnauthorizedException;
+import com.skb.course.apis.libraryapis.security.JwtClaims;
 import com.skb.course.apis.libraryapis.user.User;
 import com.skb.course.apis.libraryapis.user.UserService;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceTooManyRequestsException;
+import com.skb.course.apis.libraryapis.util.IdempotentRequests;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import com.skb.course.apis.libraryapis.util.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.time.LocalDate;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping(path = "/v1/users")
@@ -24,15 +35,22 @@ public class UserController {
     private static Logger logger = LoggerFactory.getLogger(UserController.class);
 
     private UserService userService;
+    private ObjectMapper objectMapper;
+    private IdempotentRequests idempotentRequests;
 
-    public UserController(UserService userService) {
+    @Value("${library.api.user.loans.max.limit:100}")
+    private int maxLoansLimit;
+
+    public UserController(UserService userService, ObjectMapper objectMapper, IdempotentRequests idempotentRequests) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.idempotentRequests = idempotentRequests;
     }
 
     @GetMapping(path = "/{userId}")
     public ResponseEntity<?> getUser(@PathVariable Integer userId,
                                      @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                     @RequestHeader(value = "Authorization") String bearerToken)
+                                     @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
@@ -40,12 +58,12 @@ public class UserController {
         }
         logger.debug("Added TraceId: {}", traceId);
 
-        if(LibraryApiUtils.isUserAdmin(bearerToken)) {
+        if(claims.isAdmin()) {
             logger.error("Trace Id: {}, even an admin user is not allowed to get a user's details", traceId);
             throw new LibraryResourceUnauthorizedException(traceId, "Even an admin user is not allowed to get a user's details");
         }
 
-        int userIdInClaim = LibraryApiUtils.getUserIdFromClaim(bearerToken);
+        int userIdInClaim = claims.getUserId();
         if(userIdInClaim != userId) {
             logger.error("Trace Id: {}, UserId {} not allowed to get the details of another user {} ", traceId, userIdInClaim, userId);
             throw new LibraryResourceUnauthorizedException(traceId, "Not allowed to get the details of another user");
@@ -74,19 +92,19 @@ public class UserController {
     public ResponseEntity<?> updateUser(@PathVariable Integer userId,
                                              @Valid @RequestBody User user,
                                              @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                            @RequestHeader(value = "Authorization") String bearerToken)
+                                            @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
         logger.debug("Added TraceId: {}", traceId);
-        if(LibraryApiUtils.isUserAdmin(bearerToken)) {
+        if(claims.isAdmin()) {
             logger.error("Trace Id: {}, even an admin user is not allowed to update a user's details", traceId);
             throw new LibraryResourceUnauthorizedException(traceId, "Even an admin user is not allowed to update a user's details");
         }
 
-        int userIdInClaim = LibraryApiUtils.getUserIdFromClaim(bearerToken);
+        int userIdInClaim = claims.getUserId();
         if(userIdInClaim != userId) {
             logger.error("Trace Id: {}, UserId {} not allowed to update the details of another user {} ", traceId, userIdInClaim, userId);
             throw new LibraryResourceUnauthorizedException(traceId, "Not allowed to update the details of another user");
@@ -100,7 +118,7 @@ public class UserController {
     @DeleteMapping(path = "/{userId}")
     public ResponseEntity<?> deleteUser(@PathVariable Integer userId,
                                         @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
-                                        @RequestHeader(value = "Authorization") String bearerToken)
+                                        @AuthenticationPrincipal JwtClaims claims)
             throws LibraryResourceNotFoundException, LibraryResourceUnauthorizedException {
 
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
@@ -108,12 +126,12 @@ public class UserController {
         }
         logger.debug("Added TraceId: {}", traceId);
 
-        if(LibraryApiUtils.isUserAdmin(bearerToken)) {
+        if(claims.isAdmin()) {
             logger.error("Trace Id: {}, even an admin user is not allowed to delete a user", traceId);
             throw new LibraryResourceUnauthorizedException(traceId, "Even an admin user is not allowed to delete a user");
         }
 
-        int userIdInClaim = LibraryApiUtils.getUserIdFromClaim(bearerToken);
+        int userIdInClaim = claims.getUserId();
         if(userIdInClaim != userId) {
             logger.error("Trace Id: {}, UserId {} not allowed to delete another user {} ", traceId, userIdInClaim, userId);
             throw new LibraryResourceUnauthorizedException(traceId, "Not allowed to delete another user");
@@ -141,17 +159,40 @@ public class UserController {
         return new ResponseEntity<>(userService.searchUser(firstName, lastName, traceId), HttpStatus.OK);
     }
 
+    @GetMapping(path = "/search", produces = NdJsonWriter.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsers(@RequestParam String firstName, @RequestParam String lastName,
+                                                             @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+
+        if(!LibraryApiUtils.doesStringValueExist(firstName) && !LibraryApiUtils.doesStringValueExist(lastName)) {
+            logger.error("TraceId: {}, Please enter at least one search criteria to search Users!!", traceId);
+            throw new LibraryResourceBadRequestException(traceId, "Please enter a name to search User.");
+        }
+        String streamTraceId = traceId;
+        StreamingResponseBody body = outputStream -> userService.streamUsers(firstName, lastName,
+                new NdJsonWriter<>(objectMapper, outputStream), streamTraceId);
+
+        logger.debug("Streaming response for TraceId: {}", traceId);
+        return ResponseEntity.ok().contentType(NdJsonWriter.APPLICATION_NDJSON).body(body);
+    }
+
+    // A retry sent with the Idempotency-Key of an earlier request gets the response of that request
     @PutMapping(path = "/{userId}/books")
-    public ResponseEntity<?> issueBooks(@PathVariable int userId, @RequestBody Set<Integer> bookIds,
-                                        @RequestHeader("Authorization") String bearerToken,
-                                        @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+    public CompletableFuture<ResponseEntity<?>> issueBooks(@PathVariable int userId, @RequestBody Set<Integer> bookIds,
+                                        @AuthenticationPrincipal JwtClaims claims,
+                                        @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey)
             throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException, LibraryResourceNotFoundException {
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
+        if(!claims.isAdmin()) {
             // Logging UserId for security audit trail.
-            logger.error(traceId +  LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to issue Books. Disallowed. " +
+            logger.error(traceId +  claims.getUserId() + " attempted to issue Books. Disallowed. " +
                     "User is not a Admin.");
             throw new LibraryResourceUnauthorizedException(traceId, " attempted to issue Books. Disallowed.");
         }
@@ -159,37 +200,82 @@ public class UserController {
             logger.error(traceId + " Invalid Book list. List is either not present or empty.");
             throw new LibraryResourceBadRequestException(traceId, "Invalid Book list. List is either not present or empty.");
         }
-        IssueBookResponse issueBookResponse = null;
+        // Already complete unless the Book issue pipeline is enabled
+        CompletableFuture<IssueBookResponse> issueBookResponse = null;
+        String issueTraceId = traceId;
         try {
-            issueBookResponse = userService.issueBooks(userId, bookIds, traceId);
+            issueBookResponse = idempotentRequests.execute("issue:" + userId, idempotencyKey, bookIds, traceId, () -> {
+                try {
+                    return userService.issueBooksQueued(userId, bookIds, issueTraceId);
+                } catch(LibraryResourceTooManyRequestsException e) {
+                    // Answered as a 429 all the same
+                    CompletableFuture<IssueBookResponse> tooManyRequests = new CompletableFuture<>();
+                    tooManyRequests.completeExceptionally(e);
+                    return tooManyRequests;
+                }
+            });
         } catch (LibraryResourceNotFoundException e) {
             logger.error(traceId + e.getMessage());
             throw e;
         }
-        return new ResponseEntity<>(issueBookResponse, HttpStatus.OK);
+        return issueBookResponse.thenApply(response -> new ResponseEntity<>(response, HttpStatus.OK));
+    }
+
+    // What the User has borrowed, soonest due first, a page at a time. Admins may list the loans of any User.
+    @GetMapping(path = "/{userId}/books")
+    public ResponseEntity<?> getLoans(@PathVariable int userId,
+                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueBefore,
+                                      @RequestParam(defaultValue = "20") int limit,
+                                      @RequestParam(required = false) String cursor,
+                                      @AuthenticationPrincipal JwtClaims claims,
+                                      @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+            throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException, LibraryResourceNotFoundException {
+        if(!LibraryApiUtils.doesStringValueExist(traceId)) {
+            traceId = UUID.randomUUID().toString();
+        }
+        if(!claims.isAdmin()) {
+            int userIdInClaim = claims.getUserId();
+            if(userIdInClaim != userId) {
+                logger.error("Trace Id: {}, UserId {} not allowed to get the loans of another user {} ", traceId, userIdInClaim, userId);
+                throw new LibraryResourceUnauthorizedException(traceId, "Not allowed to get the loans of another user");
+            }
+        }
+        if(limit < 1 || limit > maxLoansLimit) {
+            logger.error("TraceId: {}, Invalid loan limit: {}!!", traceId, limit);
+            throw new LibraryResourceBadRequestException(traceId, "Loan limit must be between 1 and " + maxLoansLimit);
+        }
+        logger.debug("Returning response for TraceId: {}", traceId);
+        return new ResponseEntity<>(userService.getLoans(userId, dueBefore, limit, cursor, traceId), HttpStatus.OK);
     }
 
     @DeleteMapping(path = "/{userId}/books/{bookId}")
-    public ResponseEntity<?> returnBooks(@PathVariable int userId, @PathVariable int bookId,
-                                         @RequestHeader("Authorization") String bearerToken,
-                                         @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId)
+    public CompletableFuture<ResponseEntity<?>> returnBooks(@PathVariable int userId, @PathVariable int bookId,
+                                         @AuthenticationPrincipal JwtClaims claims,
+                                         @RequestHeader(value = "Trace-Id", defaultValue = "") String traceId,
+                                         @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey)
             throws LibraryResourceUnauthorizedException, LibraryResourceBadRequestException, LibraryResourceNotFoundException {
         if(!LibraryApiUtils.doesStringValueExist(traceId)) {
             traceId = UUID.randomUUID().toString();
         }
-        if(!LibraryApiUtils.isUserAdmin(bearerToken)) {
+        if(!claims.isAdmin()) {
             // Logging UserId for security audit trail.
-            logger.error(traceId +  LibraryApiUtils.getUserIdFromClaim(bearerToken) + " attempted to return Books. Disallowed. " +
+            logger.error(traceId +  claims.getUserId() + " attempted to return Books. Disallowed. " +
                     "User is not a Admin.");
             throw new LibraryResourceUnauthorizedException(traceId, " attempted to delete Books. Disallowed.");
         }
+        // Replays of a return that went through don't report the Book as not issued any more
+        CompletableFuture<Boolean> returned = null;
+        String returnTraceId = traceId;
         try {
-            userService.returnBooks(userId, bookId, traceId);
+            returned = idempotentRequests.execute("return:" + userId, idempotencyKey, bookId, traceId, () -> {
+                userService.returnBooks(userId, bookId, returnTraceId);
+                return CompletableFuture.completedFuture(Boolean.TRUE);
+            });
         } catch (LibraryResourceNotFoundException e) {
             logger.error(traceId + e.getMessage());
             throw e;
         }
-        return new ResponseEntity<>(HttpStatus.ACCEPTED);
+        return returned.thenApply(r -> new ResponseEntity<>(HttpStatus.ACCEPTED));
     }
 
 }
@@ -3,6 +3,10 @@ package com.skb.course.apis.libraryapis.user;
 
 import com.skb.course.apis.libraryapis.model.common.Gender;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
 import javax.persistence.*;
 import java.time.LocalDate;
 
@@ -13,7 +17,9 @@ public class UserEntity {
     @Column(name = "User_Id")
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "userId_generator")
-    @SequenceGenerator(name="userId_generator", sequenceName = "user_sequence", allocationSize=1)
+    // Ids are reserved in blocks, see PooledLoSequenceGenerator
+    @GenericGenerator(name = "userId_generator", strategy = "com.skb.course.apis.libraryapis.util.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "user_sequence"))
     private int userId;
 
     @Column(name = "Username")
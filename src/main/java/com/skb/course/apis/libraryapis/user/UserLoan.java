@@ -0,0 +1,75 @@
+package com.skb.course.apis.libraryapis.user;
+
+import java.time.LocalDate;
+
+// A Book a User has borrowed, with just enough of the Book to tell which one it is
+public class UserLoan {
+
+    private int bookId;
+    private String isbn;
+    private String title;
+    private LocalDate issuedDate;
+    private LocalDate returnDate;
+    private int numberOfTimesIssued;
+
+    public UserLoan() {
+    }
+
+    public UserLoan(int bookId, String isbn, String title, LocalDate issuedDate, LocalDate returnDate,
+                    int numberOfTimesIssued) {
+        this.bookId = bookId;
+        this.isbn = isbn;
+        this.title = title;
+        this.issuedDate = issuedDate;
+        this.returnDate = returnDate;
+        this.numberOfTimesIssued = numberOfTimesIssued;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(int bookId) {
+        this.bookId = bookId;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public LocalDate getIssuedDate() {
+        return issuedDate;
+    }
+
+    public void setIssuedDate(LocalDate issuedDate) {
+        this.issuedDate = issuedDate;
+    }
+
+    public LocalDate getReturnDate() {
+        return returnDate;
+    }
+
+    public void setReturnDate(LocalDate returnDate) {
+        this.returnDate = returnDate;
+    }
+
+    public int getNumberOfTimesIssued() {
+        return numberOfTimesIssued;
+    }
+
+    public void setNumberOfTimesIssued(int numberOfTimesIssued) {
+        this.numberOfTimesIssued = numberOfTimesIssued;
+    }
+}
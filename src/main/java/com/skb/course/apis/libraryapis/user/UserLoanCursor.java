@@ -0,0 +1,55 @@
+package com.skb.course.apis.libraryapis.user;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Opaque continuation cursor for a User's loans. It holds the (returnDate, bookId) of the last loan returned, which
+ * is where the next page starts from.
+ */
+public class UserLoanCursor {
+
+    private LocalDate returnDate;
+    private int bookId;
+
+    public UserLoanCursor(LocalDate returnDate, int bookId) {
+        this.returnDate = returnDate;
+        this.bookId = bookId;
+    }
+
+    public LocalDate getReturnDate() {
+        return returnDate;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String encode() {
+        String raw = bookId + ":" + returnDate;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static UserLoanCursor decode(String cursor) {
+
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid loan cursor: " + cursor, e);
+        }
+
+        int separator = raw.indexOf(':');
+        if(separator <= 0) {
+            throw new IllegalArgumentException("Invalid loan cursor: " + cursor);
+        }
+        try {
+            return new UserLoanCursor(LocalDate.parse(raw.substring(separator + 1)),
+                    Integer.parseInt(raw.substring(0, separator)));
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid loan cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.skb.course.apis.libraryapis.user;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserLoanResponse {
+
+    private List<UserLoan> loans;
+
+    // Pass this back as "cursor" to get the next page. Not present when there are no more loans
+    private String nextCursor;
+
+    public UserLoanResponse() {
+    }
+
+    public UserLoanResponse(List<UserLoan> loans, String nextCursor) {
+        this.loans = loans;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<UserLoan> getLoans() {
+        return loans;
+    }
+
+    public void setLoans(List<UserLoan> loans) {
+        this.loans = loans;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
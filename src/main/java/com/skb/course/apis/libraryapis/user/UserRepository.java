@@ -1,19 +1,43 @@
 package com.skb.course.apis.libraryapis.user;
 
 import com.skb.course.apis.libraryapis.author.AuthorEntity;
+import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface UserRepository extends CrudRepository<UserEntity, Integer> {
 
     UserEntity findByUsername(String username);
 
-    List<UserEntity> findByFirstNameAndLastNameContaining(String firstName, String lastName);
+    // Which of the Users exist, without loading them
+    @Query("select u.userId from UserEntity u where u.userId in :userIds")
+    List<Integer> findUserIdsByUserIdIn(@Param("userIds") Collection<Integer> userIds);
+
+    // The search methods select only the columns of UserSearchView, no entities are loaded
+    List<UserSearchView> findByFirstNameAndLastNameContaining(String firstName, String lastName);
+
+    List<UserSearchView> findByFirstNameContaining(String firstName);
+
+    List<UserSearchView> findByLastNameContaining(String lastName);
+
+    // Streaming variants of the above, they need to be consumed within a transaction
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<UserSearchView> streamByFirstNameAndLastNameContaining(String firstName, String lastName);
 
-    List<UserEntity> findByFirstNameContaining(String firstName);
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<UserSearchView> streamByFirstNameContaining(String firstName);
 
-    List<UserEntity> findByLastNameContaining(String lastName);
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = LibraryApiUtils.STREAM_FETCH_SIZE))
+    Stream<UserSearchView> streamByLastNameContaining(String lastName);
 }
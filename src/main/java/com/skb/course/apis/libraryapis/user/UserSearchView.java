@@ -0,0 +1,27 @@
+package com.skb.course.apis.libraryapis.user;
+
+// Read-only projection of the USER columns returned by the User search
+public class UserSearchView {
+
+    private final String username;
+    private final String firstName;
+    private final String lastName;
+
+    public UserSearchView(String username, String firstName, String lastName) {
+        this.username = username;
+        this.firstName = firstName;
+        this.lastName = lastName;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+}
@@ -2,21 +2,33 @@ package com.skb.course.apis.libraryapis.user;
 
 import com.skb.course.apis.libraryapis.book.*;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceTooManyRequestsException;
+import com.skb.course.apis.libraryapis.reservation.ReservationService;
 import com.skb.course.apis.libraryapis.security.SecurityConstants;
 import com.skb.course.apis.libraryapis.util.LibraryApiUtils;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UserService {
@@ -25,23 +37,34 @@ public class UserService {
 
     private UserRepository userRepository;
     private BCryptPasswordEncoder bCryptPasswordEncoder;
-    private BookRepository bookRepository;
-    private BookStatusRepository bookStatusRepository;
     private BookService bookService;
     private UserBookEntityRepository userBookEntityRepository;
+    private OptimisticLockRetry optimisticLockRetry;
+    private BookAvailabilityLedger bookAvailabilityLedger;
+    private BookIssuePipeline bookIssuePipeline;
+    private ReservationService reservationService;
+    private CirculationJournal circulationJournal;
+
+    // The latest date a DATE column holds, every loan is due before it
+    private static final LocalDate NO_DUE_DATE_LIMIT = LocalDate.of(9999, 12, 31);
 
     @Value("${library.rule.user.book.max.times.issue: 3}")
     private int maxNumberOfTimesIssue;
 
     public UserService(BCryptPasswordEncoder bCryptPasswordEncoder, UserRepository userRepository,
-                       BookRepository bookRepository, BookStatusRepository bookStatusRepository,
-                       BookService bookService, UserBookEntityRepository userBookEntityRepository) {
+                       BookService bookService, UserBookEntityRepository userBookEntityRepository,
+                       OptimisticLockRetry optimisticLockRetry, BookAvailabilityLedger bookAvailabilityLedger,
+                       BookIssuePipeline bookIssuePipeline, ReservationService reservationService,
+                       CirculationJournal circulationJournal) {
         this.bCryptPasswordEncoder = bCryptPasswordEncoder;
         this.userRepository = userRepository;
-        this.bookRepository = bookRepository;
-        this.bookStatusRepository = bookStatusRepository;
         this.bookService = bookService;
         this.userBookEntityRepository = userBookEntityRepository;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.bookAvailabilityLedger = bookAvailabilityLedger;
+        this.bookIssuePipeline = bookIssuePipeline;
+        this.reservationService = reservationService;
+        this.circulationJournal = circulationJournal;
     }
 
 
@@ -118,7 +141,12 @@ public class UserService {
     public void deleteUser(Integer userId, String traceId) throws LibraryResourceNotFoundException {
 
         try {
-            userRepository.deleteById(userId);
+            // RESERVATION refers to the User, their reservations go first
+            optimisticLockRetry.execute(Collections.emptySet(), "deleteUser", () -> {
+                reservationService.removeUser(userId);
+                userRepository.deleteById(userId);
+                return null;
+            });
         } catch(EmptyResultDataAccessException e) {
             logger.error("TraceId: {}, User Id: {} Not Found", traceId, userId, e);
             throw new LibraryResourceNotFoundException(traceId, "User Id: " + userId + " Not Found");
@@ -127,73 +155,107 @@ public class UserService {
 
     public List<User> searchUser(String firstName, String lastName, String traceId) {
 
-        List<UserEntity> userEntities = null;
+        List<UserSearchView> userViews = null;
         if(LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
-            userEntities = userRepository.findByFirstNameAndLastNameContaining(firstName, lastName);
+            userViews = userRepository.findByFirstNameAndLastNameContaining(firstName, lastName);
         } else if(LibraryApiUtils.doesStringValueExist(firstName) && !LibraryApiUtils.doesStringValueExist(lastName)) {
-            userEntities = userRepository.findByFirstNameContaining(firstName);
+            userViews = userRepository.findByFirstNameContaining(firstName);
         } else if(!LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
-            userEntities = userRepository.findByLastNameContaining(lastName);
+            userViews = userRepository.findByLastNameContaining(lastName);
         }
-        if(userEntities != null && userEntities.size() > 0) {
-            return createUsersForSearchResponse(userEntities);
+        if(userViews != null && userViews.size() > 0) {
+            return createUsersForSearchResponse(userViews);
         } else {
             return Collections.emptyList();
         }
     }
 
-    @Transactional
+    // Same search as above, but each User is handed over to the consumer as soon as it is read from the DB
+    @Transactional(readOnly = true)
+    public void streamUsers(String firstName, String lastName, Consumer<User> consumer, String traceId) {
+
+        Stream<UserSearchView> userViews = Stream.empty();
+        if(LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
+            userViews = userRepository.streamByFirstNameAndLastNameContaining(firstName, lastName);
+        } else if(LibraryApiUtils.doesStringValueExist(firstName) && !LibraryApiUtils.doesStringValueExist(lastName)) {
+            userViews = userRepository.streamByFirstNameContaining(firstName);
+        } else if(!LibraryApiUtils.doesStringValueExist(firstName) && LibraryApiUtils.doesStringValueExist(lastName)) {
+            userViews = userRepository.streamByLastNameContaining(lastName);
+        }
+        logger.debug("TraceId: {}, Streaming Users", traceId);
+        try(Stream<UserSearchView> stream = userViews) {
+            // Projections are not managed, so the persistence context doesn't grow with the result
+            stream.forEach(uv -> consumer.accept(createUserFromSearchView(uv)));
+        }
+    }
+
+    /**
+     * Issues the Books to the User with a fixed number of round trips, whatever the number of Books: the User's
+     * existing loans of these Books are read in one query and copies are taken from the {@link BookAvailabilityLedger}
+     * (which reads, in one query, the Books it doesn't hold yet). New and re-issued loans are written out in JDBC
+     * batches when the transaction commits, and the copies are put back in the ledger if it rolls back.
+     *
+     * Runs in a transaction of its own, which is retried if it loses a race on a versioned row.
+     */
     public IssueBookResponse issueBooks(int userId, Set<Integer> bookIds, String traceId) throws LibraryResourceNotFoundException {
+        return optimisticLockRetry.execute(bookIds, "issue", () -> issueBooksOnce(userId, bookIds, traceId));
+    }
+
+    private IssueBookResponse issueBooksOnce(int userId, Set<Integer> bookIds, String traceId)
+            throws LibraryResourceNotFoundException {
 
         Optional<UserEntity> userEntity = userRepository.findById(userId);
 
         if(userEntity.isPresent()) {
             Set<IssueBookStatus> issueBookStatuses = new HashSet<>(bookIds.size());
-            // Find out if the supplied list of books is issue-able or not
-            bookIds.stream()
-                    .forEach(bookId -> {
-                        Optional<BookEntity> be = bookRepository.findById(bookId);
-                        IssueBookStatus bookStatus;
-                        if (!be.isPresent()) {
-                            bookStatus = new IssueBookStatus(bookId, "Not Issued", "Book Not Found");
-                        } else {
-                            BookStatusEntity bse = be.get().getBookStatus();
-                            if ((bse.getTotalNumberOfCopies() - bse.getNumberOfCopiesIssued()) == 0) {
-                                bookStatus = new IssueBookStatus(bookId,"Not Issued", "No copies available");
-                            } else {
-                                // Check if the book has already been issued to the user, and this can be re-issued
-                                List<UserBookEntity> byUserIdAndBookId = userBookEntityRepository.findByUserIdAndBookId(userId, bookId);
-                                if(byUserIdAndBookId != null && byUserIdAndBookId.size() > 0) {
-                                    // Book can be re-issued
-                                    UserBookEntity userBookEntity = byUserIdAndBookId.get(0);
-                                    if(userBookEntity.getNumberOfTimesIssued() < maxNumberOfTimesIssue) {
-                                        userBookEntity.setNumberOfTimesIssued(userBookEntity.getNumberOfTimesIssued() + 1);
-                                        userBookEntity.setIssuedDate(LocalDate.now());
-                                        userBookEntity.setReturnDate(LocalDate.now().plusDays(14));
-                                        userBookEntityRepository.save(userBookEntity);
-                                        bookStatus = new IssueBookStatus(bookId, "Issued", "Book Re-Issued");
-                                    } else {
-                                        // Book cannot be re-issued as it has already been issued max number of times
-                                        bookStatus = new IssueBookStatus(bookId, "Not Issued",
-                                                "Book already issued to the user for " + maxNumberOfTimesIssue + " times");
-                                    }
-                                } else {
-                                    // This is the first time book is being issued
-                                    // Issue the books to the user
-                                    UserBookEntity userBookEntity = new UserBookEntity(userId, bookId, LocalDate.now(), LocalDate.now().plusDays(14), 1);
-                                    userBookEntityRepository.save(userBookEntity);
-
-                                    // Manage the number of issued copies
-                                    BookStatusEntity bs = be.get().getBookStatus();
-                                    bs.setNumberOfCopiesIssued(bs.getNumberOfCopiesIssued() + 1);
-                                    bookStatusRepository.save(bs);
-
-                                    bookStatus = new IssueBookStatus(bookId, "Issued", "Book Issued");
-                                }
-                            }
-                        }
-                        issueBookStatuses.add(bookStatus);
+            if(bookIds.isEmpty()) {
+                return new IssueBookResponse(issueBookStatuses);
+            }
+
+            bookAvailabilityLedger.load(bookIds);
+            // Books already issued to the user can be re-issued
+            Map<Integer, UserBookEntity> userBooks = userBookEntityRepository.findByUserIdAndBookIdIn(userId, bookIds)
+                    .stream()
+                    .collect(Collectors.toMap(UserBookEntity::getBookId, Function.identity(), (ub1, ub2) -> ub1));
+
+            List<Integer> bookIdsToIssue = new ArrayList<>(bookIds.size());
+            for(Integer bookId : bookIds) {
+                UserBookEntity userBookEntity = userBooks.get(bookId);
+                if(bookAvailabilityLedger.getCounts(bookId) == null) {
+                    issueBookStatuses.add(new IssueBookStatus(bookId, "Not Issued", "Book Not Found"));
+                } else if(userBookEntity != null) {
+                    issueBookStatuses.add(reissue(userBookEntity));
+                } else {
+                    bookIdsToIssue.add(bookId);
+                }
+            }
+
+            List<UserBookEntity> newUserBooks = new ArrayList<>(bookIdsToIssue.size());
+            for(Integer bookId : bookIdsToIssue) {
+                // A copy held for the User is already taken
+                if(reservationService.takeHeldCopy(userId, bookId)) {
+                    newUserBooks.add(new UserBookEntity(userId, bookId, LocalDate.now(), LocalDate.now().plusDays(14), 1));
+                    issueBookStatuses.add(new IssueBookStatus(bookId, "Issued", "Reserved Book Issued"));
+                    continue;
+                }
+                BookAvailabilityLedger.IssueResult result = bookAvailabilityLedger.issue(bookId);
+                if(result == BookAvailabilityLedger.IssueResult.Issued) {
+                    LibraryApiUtils.runAfterRollback(() -> {
+                        bookAvailabilityLedger.returnCopy(bookId);
+                        bookService.bookStatusChanged(bookId);
                     });
+                    reservationService.withdraw(userId, bookId);
+                    newUserBooks.add(new UserBookEntity(userId, bookId, LocalDate.now(), LocalDate.now().plusDays(14), 1));
+                    bookService.bookStatusChanged(bookId);
+                    issueBookStatuses.add(new IssueBookStatus(bookId, "Issued", "Book Issued"));
+                } else if(result == BookAvailabilityLedger.IssueResult.NotFound) {
+                    issueBookStatuses.add(new IssueBookStatus(bookId, "Not Issued", "Book Not Found"));
+                } else {
+                    issueBookStatuses.add(new IssueBookStatus(bookId,"Not Issued", "No copies available"));
+                }
+            }
+            userBookEntityRepository.saveAll(newUserBooks);
+            journal(CirculationEventType.Issue, userId, newUserBooks);
 
             // Set and return final response
             return new IssueBookResponse(issueBookStatuses);
@@ -202,8 +264,115 @@ public class UserService {
         }
     }
 
-    @Transactional
+    /**
+     * Same as {@link #issueBooks(int, Set, String)}, but the copies are taken by the {@link BookIssuePipeline} (when it
+     * is enabled) and the returned future completes once the loans are written. Books the User already has are
+     * re-issued when the loans are written.
+     *
+     * @throws LibraryResourceTooManyRequestsException if the pipeline is too far behind to take the request
+     */
+    public CompletableFuture<IssueBookResponse> issueBooksQueued(int userId, Set<Integer> bookIds, String traceId)
+            throws LibraryResourceNotFoundException, LibraryResourceTooManyRequestsException {
+
+        // Copies held for the User are handed over as the loans are written, which the synchronous issue does
+        if(!bookIssuePipeline.isEnabled()
+                || bookIds.stream().anyMatch(bookId -> reservationService.hasHeldCopy(userId, bookId))) {
+            return CompletableFuture.completedFuture(issueBooks(userId, bookIds, traceId));
+        }
+        if(!userRepository.existsById(userId)) {
+            throw new LibraryResourceNotFoundException(traceId, "Library User Id: " + userId + " Not Found");
+        }
+
+        // Read here, so that the workers don't have to go to the DB
+        bookAvailabilityLedger.load(bookIds);
+        Set<Integer> loanedBookIds = userBookEntityRepository.findByUserIdAndBookIdIn(userId, bookIds).stream()
+                .map(UserBookEntity::getBookId)
+                .collect(Collectors.toSet());
+        List<Integer> bookIdsToIssue = bookIds.stream()
+                .filter(bookId -> !loanedBookIds.contains(bookId))
+                .collect(Collectors.toList());
+
+        CompletableFuture<Map<Integer, BookAvailabilityLedger.IssueResult>> copiesTaken;
+        try {
+            copiesTaken = bookIssuePipeline.issue(bookIdsToIssue);
+        } catch(RejectedExecutionException e) {
+            logger.warn("TraceId: {}, Book issue pipeline is full, Books: {} not issued to User Id: {}", traceId,
+                    bookIds, userId);
+            throw new LibraryResourceTooManyRequestsException(traceId, "Too many Books being issued. Try again later.");
+        }
+
+        return copiesTaken.thenApplyAsync(results -> {
+            try {
+                return optimisticLockRetry.execute(bookIds, "issue", () -> writeLoans(userId, bookIds, results));
+            } catch(RuntimeException e) {
+                logger.error("TraceId: {}, Loans of User Id: {} could not be written, putting the copies back!!",
+                        traceId, userId, e);
+                results.forEach((bookId, result) -> {
+                    if(result == BookAvailabilityLedger.IssueResult.Issued) {
+                        bookAvailabilityLedger.returnCopy(bookId);
+                        bookService.bookStatusChanged(bookId);
+                    }
+                });
+                throw e;
+            }
+        }, bookIssuePipeline.getCompletionExecutor());
+    }
+
+    // The loans for the copies taken by the pipeline, and the re-issues
+    private IssueBookResponse writeLoans(int userId, Set<Integer> bookIds,
+                                         Map<Integer, BookAvailabilityLedger.IssueResult> results) {
+
+        Map<Integer, UserBookEntity> userBooks = userBookEntityRepository.findByUserIdAndBookIdIn(userId, bookIds)
+                .stream()
+                .collect(Collectors.toMap(UserBookEntity::getBookId, Function.identity(), (ub1, ub2) -> ub1));
+
+        Set<IssueBookStatus> issueBookStatuses = new HashSet<>(bookIds.size());
+        List<UserBookEntity> newUserBooks = new ArrayList<>(bookIds.size());
+        for(Integer bookId : bookIds) {
+            BookAvailabilityLedger.IssueResult result = results.get(bookId);
+            if(result == BookAvailabilityLedger.IssueResult.Issued) {
+                reservationService.withdraw(userId, bookId);
+                newUserBooks.add(new UserBookEntity(userId, bookId, LocalDate.now(), LocalDate.now().plusDays(14), 1));
+                bookService.bookStatusChanged(bookId);
+                issueBookStatuses.add(new IssueBookStatus(bookId, "Issued", "Book Issued"));
+            } else if(result == BookAvailabilityLedger.IssueResult.NoCopiesAvailable) {
+                issueBookStatuses.add(new IssueBookStatus(bookId,"Not Issued", "No copies available"));
+            } else if(result == BookAvailabilityLedger.IssueResult.NotFound || !userBooks.containsKey(bookId)) {
+                // Not found, or returned since it was found to be issued to the User
+                issueBookStatuses.add(new IssueBookStatus(bookId, "Not Issued", "Book Not Found"));
+            } else {
+                issueBookStatuses.add(reissue(userBooks.get(bookId)));
+            }
+        }
+        userBookEntityRepository.saveAll(newUserBooks);
+        journal(CirculationEventType.Issue, userId, newUserBooks);
+        return new IssueBookResponse(issueBookStatuses);
+    }
+
+    // The user keeps the copy they already have
+    private IssueBookStatus reissue(UserBookEntity userBookEntity) {
+
+        if(userBookEntity.getNumberOfTimesIssued() < maxNumberOfTimesIssue) {
+            userBookEntity.setNumberOfTimesIssued(userBookEntity.getNumberOfTimesIssued() + 1);
+            userBookEntity.setIssuedDate(LocalDate.now());
+            userBookEntity.setReturnDate(LocalDate.now().plusDays(14));
+            journal(CirculationEventType.Reissue, userBookEntity.getUserId(), Collections.singletonList(userBookEntity));
+            return new IssueBookStatus(userBookEntity.getBookId(), "Issued", "Book Re-Issued");
+        }
+        // Book cannot be re-issued as it has already been issued max number of times
+        return new IssueBookStatus(userBookEntity.getBookId(), "Not Issued",
+                "Book already issued to the user for " + maxNumberOfTimesIssue + " times");
+    }
+
+    // Two returns of the same loan at once: the one that loses finds the loan gone when it is retried
     public void returnBooks(int userId, Integer bookId, String traceId) throws LibraryResourceNotFoundException {
+        optimisticLockRetry.execute(Collections.singleton(bookId), "return", () -> {
+            returnBookOnce(userId, bookId, traceId);
+            return null;
+        });
+    }
+
+    private void returnBookOnce(int userId, Integer bookId, String traceId) throws LibraryResourceNotFoundException {
 
         Optional<UserEntity> userEntity = userRepository.findById(userId);
 
@@ -212,12 +381,18 @@ public class UserService {
             if(byUserIdAndBookId != null && byUserIdAndBookId.size() > 0) {
                 // Return the book
                 userBookEntityRepository.delete(byUserIdAndBookId.get(0));
-
-                // Manage the number of issued copies
-                Optional<BookEntity> be = bookRepository.findById(bookId);
-                BookStatusEntity bs = be.get().getBookStatus();
-                bs.setNumberOfCopiesIssued(bs.getNumberOfCopiesIssued() - 1);
-                bookStatusRepository.save(bs);
+                journal(CirculationEventType.Return, userId, byUserIdAndBookId.subList(0, 1));
+                // Held for the next User in the Book's queue, if anyone is waiting
+                boolean held = reservationService.holdReturnedCopies(bookId, 1) == 1;
+
+                // The copy is only back once the loan is gone for good
+                LibraryApiUtils.runAfterCommit(() -> {
+                    if(!held && !bookAvailabilityLedger.returnCopy(bookId)) {
+                        logger.warn("TraceId: {}, Book Id: {} returned by User Id: {} but no copy of it is issued",
+                                traceId, bookId, userId);
+                    }
+                    bookService.bookStatusChanged(bookId);
+                });
             } else {
                 throw new LibraryResourceNotFoundException(traceId, "Book Id: " + bookId + " has not been issued to User Id: "+ userId + ". So can't be returned.");
             }
@@ -227,6 +402,129 @@ public class UserService {
         }
     }
 
+    /**
+     * A page of the User's loans due before the given day (or all of them), soonest due first. Each page is one query;
+     * the User is only looked up when the first page is empty, to tell a User without loans from a missing one.
+     */
+    public UserLoanResponse getLoans(int userId, LocalDate dueBefore, int limit, String cursor, String traceId)
+            throws LibraryResourceNotFoundException, LibraryResourceBadRequestException {
+
+        UserLoanCursor after = null;
+        if(LibraryApiUtils.doesStringValueExist(cursor)) {
+            try {
+                after = UserLoanCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                logger.error("TraceId: {}, Invalid loan cursor: {}", traceId, cursor);
+                throw new LibraryResourceBadRequestException(traceId, "Invalid loan cursor");
+            }
+        }
+
+        LocalDate before = dueBefore != null ? dueBefore : NO_DUE_DATE_LIMIT;
+        Pageable pageable = PageRequest.of(0, limit);
+        Slice<UserLoan> loans = after != null
+                ? userBookEntityRepository.findLoansAfter(userId, before, after.getReturnDate(), after.getBookId(), pageable)
+                : userBookEntityRepository.findLoans(userId, before, pageable);
+
+        if(!loans.hasContent() && after == null && !userRepository.existsById(userId)) {
+            throw new LibraryResourceNotFoundException(traceId, "Library User Id: " + userId + " Not Found");
+        }
+        String nextCursor = null;
+        if(loans.hasNext()) {
+            UserLoan last = loans.getContent().get(loans.getNumberOfElements() - 1);
+            nextCursor = new UserLoanCursor(last.getReturnDate(), last.getBookId()).encode();
+        }
+        return new UserLoanResponse(loans.getContent(), nextCursor);
+    }
+
+    /**
+     * Returns many loans, of any number of Users, with a fixed number of queries: the Users and their loans of the
+     * Books are read in one query each and the loans found are deleted in one statement. Once that commits, the copies
+     * are put back in the {@link BookAvailabilityLedger} with one change per Book, however many of its copies came back.
+     *
+     * Every return gets a status of its own, in the order they were sent; one that can't be done doesn't stop the rest.
+     */
+    public ReturnBookResponse returnBooks(List<BookReturn> bookReturns, String traceId) {
+
+        Set<Integer> bookIds = bookReturns.stream().map(BookReturn::getBookId).collect(Collectors.toSet());
+        return optimisticLockRetry.execute(bookIds, "return", () -> returnBooksOnce(bookReturns, bookIds, traceId));
+    }
+
+    private ReturnBookResponse returnBooksOnce(List<BookReturn> bookReturns, Set<Integer> bookIds, String traceId) {
+
+        Set<Integer> userIds = bookReturns.stream().map(BookReturn::getUserId).collect(Collectors.toSet());
+        Set<Integer> existingUserIds = new HashSet<>(userRepository.findUserIdsByUserIdIn(userIds));
+        Map<Long, UserBookEntity> loans = new HashMap<>();
+        if(!existingUserIds.isEmpty()) {
+            for(UserBookEntity ub : userBookEntityRepository.findByUserIdInAndBookIdIn(existingUserIds, bookIds)) {
+                loans.putIfAbsent(loanKey(ub.getUserId(), ub.getBookId()), ub);
+            }
+        }
+
+        List<ReturnBookStatus> returnBookStatuses = new ArrayList<>(bookReturns.size());
+        List<Integer> userBookIds = new ArrayList<>(bookReturns.size());
+        List<UserBookEntity> returnedLoans = new ArrayList<>(bookReturns.size());
+        Map<Integer, Integer> copiesReturned = new HashMap<>();
+        for(BookReturn bookReturn : bookReturns) {
+            int userId = bookReturn.getUserId();
+            int bookId = bookReturn.getBookId();
+            if(!existingUserIds.contains(userId)) {
+                returnBookStatuses.add(new ReturnBookStatus(userId, bookId, "Not Returned",
+                        "Library User Id: " + userId + " Not Found"));
+                continue;
+            }
+            // Removed, so that a loan sent twice is only returned once
+            UserBookEntity loan = loans.remove(loanKey(userId, bookId));
+            if(loan == null) {
+                returnBookStatuses.add(new ReturnBookStatus(userId, bookId, "Not Returned",
+                        "Book Id: " + bookId + " has not been issued to User Id: " + userId + ". So can't be returned."));
+            } else {
+                userBookIds.add(loan.getUserBook_Id());
+                returnedLoans.add(loan);
+                copiesReturned.merge(bookId, 1, Integer::sum);
+                returnBookStatuses.add(new ReturnBookStatus(userId, bookId, "Returned", "Book Returned"));
+            }
+        }
+
+        if(!userBookIds.isEmpty()) {
+            userBookEntityRepository.deleteByUserBookIdIn(userBookIds);
+            LocalDate today = LocalDate.now();
+            LibraryApiUtils.runAfterCommit(() -> returnedLoans.forEach(loan ->
+                    circulationJournal.append(CirculationEventType.Return, loan.getUserId(), loan.getBookId(), today)));
+            // Copies held for Users waiting for the Books don't go back on the shelf
+            Map<Integer, Integer> copiesToShelve = new HashMap<>(copiesReturned.size());
+            copiesReturned.forEach((bookId, copies) ->
+                    copiesToShelve.put(bookId, copies - reservationService.holdReturnedCopies(bookId, copies)));
+            LibraryApiUtils.runAfterCommit(() -> {
+                bookAvailabilityLedger.load(copiesToShelve.keySet());
+                copiesToShelve.forEach((bookId, copies) -> {
+                    int returned = bookAvailabilityLedger.returnCopies(bookId, copies);
+                    if(returned < copies) {
+                        logger.warn("TraceId: {}, {} copies of Book Id: {} returned but only {} of them are issued",
+                                traceId, copies, bookId, returned);
+                    }
+                    bookService.bookStatusChanged(bookId);
+                });
+            });
+        }
+        logger.info("TraceId: {}, {} of {} Books returned", traceId, userBookIds.size(), bookReturns.size());
+        return new ReturnBookResponse(userBookIds.size(), returnBookStatuses);
+    }
+
+    // The journal only hears of loan changes that have committed
+    private void journal(CirculationEventType type, int userId, List<UserBookEntity> loans) {
+
+        if(loans.isEmpty()) {
+            return;
+        }
+        List<Integer> bookIds = loans.stream().map(UserBookEntity::getBookId).collect(Collectors.toList());
+        LocalDate today = LocalDate.now();
+        LibraryApiUtils.runAfterCommit(() -> circulationJournal.append(type, userId, bookIds, today));
+    }
+
+    private static long loanKey(int userId, int bookId) {
+        return ((long) userId << 32) | (bookId & 0xFFFFFFFFL);
+    }
+
     public User getUserByUsername(String username) throws LibraryResourceNotFoundException {
 
         UserEntity userEntity = userRepository.findByUsername(username);
@@ -243,12 +541,16 @@ public class UserService {
                 ue.getDateOfBirth(), ue.getGender(), ue.getPhoneNumber(), ue.getEmailId(), Role.valueOf(ue.getRole()));
     }
 
-    private List<User> createUsersForSearchResponse(List<UserEntity> userEntities) {
-        return userEntities.stream()
-                .map(ue -> new User(ue.getUsername(), ue.getFirstName(), ue.getLastName()))
+    private List<User> createUsersForSearchResponse(List<UserSearchView> userViews) {
+        return userViews.stream()
+                .map(this::createUserFromSearchView)
                 .collect(Collectors.toList());
     }
 
+    private User createUserFromSearchView(UserSearchView uv) {
+        return new User(uv.getUsername(), uv.getFirstName(), uv.getLastName());
+    }
+
     private User createUserFromEntityForLogin(UserEntity ue) {
         return new User(ue.getUserId(), ue.getUsername(), ue.getPassword(), ue.getFirstName(), ue.getLastName(),
                 ue.getDateOfBirth(), ue.getGender(), ue.getPhoneNumber(), ue.getEmailId(), Role.valueOf(ue.getRole()));
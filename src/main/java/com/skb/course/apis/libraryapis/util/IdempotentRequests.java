@@ -0,0 +1,116 @@
+package com.skb.course.apis.libraryapis.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Responses of requests sent with an Idempotency-Key header, so that a client retrying a request (e.g. after a
+ * timeout) gets the response of the first attempt instead of running it again. A retry that arrives while the first
+ * attempt is still running waits for its response.
+ *
+ * Responses are kept in memory, bounded by number and by age. Failed requests are not kept, they may be retried.
+ * Replays are counted as "cache.gets" hits with the tag cache=idempotency-keys.
+ */
+@Component
+public class IdempotentRequests {
+
+    private static Logger logger = LoggerFactory.getLogger(IdempotentRequests.class);
+
+    public static final String CACHE_NAME = "idempotency-keys";
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private Cache<String, Response> responses;
+
+    public IdempotentRequests(@Value("${library.api.idempotency.max.keys:100000}") long maxKeys,
+                              @Value("${library.api.idempotency.ttl.seconds:86400}") long ttlSeconds,
+                              MeterRegistry meterRegistry) {
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, CACHE_NAME);
+    }
+
+    /**
+     * Runs the work, unless it has run before for the same key within the scope (e.g. the operation and the User),
+     * in which case the response it gave then is returned. The request is what the work is asked to do; a key sent
+     * again with a different request is rejected. Without a key the work simply runs.
+     */
+    public <T, E extends Exception> CompletableFuture<T> execute(String scope, String idempotencyKey, Object request,
+                                                                 String traceId, Work<T, E> work)
+            throws E, LibraryResourceBadRequestException {
+
+        if(!LibraryApiUtils.doesStringValueExist(idempotencyKey)) {
+            return work.run();
+        }
+        if(idempotencyKey.length() > MAX_KEY_LENGTH) {
+            logger.error("TraceId: {}, Idempotency-Key of {} characters!!", traceId, idempotencyKey.length());
+            throw new LibraryResourceBadRequestException(traceId, "Idempotency-Key must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String key = scope + ":" + idempotencyKey;
+        Response response = new Response(request);
+        Response first = responses.get(key, k -> response);
+        if(first != response) {
+            if(!first.request.equals(request)) {
+                logger.error("TraceId: {}, Idempotency-Key: {} of {} sent again with a different request!!", traceId,
+                        idempotencyKey, scope);
+                throw new LibraryResourceBadRequestException(traceId, "Idempotency-Key " + idempotencyKey +
+                        " was used for a different request");
+            }
+            logger.info("TraceId: {}, Idempotency-Key: {} of {} replayed", traceId, idempotencyKey, scope);
+            @SuppressWarnings("unchecked")
+            CompletableFuture<T> replay = (CompletableFuture<T>) first.result;
+            return replay;
+        }
+
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> result = (CompletableFuture<T>) response.result;
+        CompletableFuture<T> attempt;
+        try {
+            attempt = work.run();
+        } catch(Exception e) {
+            forget(key, response, e);
+            throw e;
+        }
+        attempt.whenComplete((value, failure) -> {
+            if(failure != null) {
+                forget(key, response, failure);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    private void forget(String key, Response response, Throwable failure) {
+        responses.asMap().remove(key, response);
+        response.result.completeExceptionally(failure);
+    }
+
+    @FunctionalInterface
+    public interface Work<T, E extends Exception> {
+        CompletableFuture<T> run() throws E;
+    }
+
+    private static class Response {
+
+        private final Object request;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        private Response(Object request) {
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.skb.course.apis.libraryapis.util;
+
+/**
+ * Open addressing (linear probing) hash map from int to long, without boxing. Not thread safe.
+ */
+public final class IntLongHashMap {
+
+    private static final int FREE_KEY = 0;
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    // 0 is the marker of a free slot, so the entry of key 0 (if any) is kept aside
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public IntLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public long get(int key, long missingValue) {
+
+        if(key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int slot = slotOf(key);
+        return keys[slot] == key ? values[slot] : missingValue;
+    }
+
+    public boolean containsKey(int key) {
+        return key == FREE_KEY ? hasFreeKey : keys[slotOf(key)] == key;
+    }
+
+    public void put(int key, long value) {
+
+        if(key == FREE_KEY) {
+            if(!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+        int slot = slotOf(key);
+        if(keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // At most half full, so that probe sequences stay short
+        if(++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    public void remove(int key) {
+
+        if(key == FREE_KEY) {
+            if(hasFreeKey) {
+                hasFreeKey = false;
+                size--;
+            }
+            return;
+        }
+        int gap = slotOf(key);
+        if(keys[gap] != key) {
+            return;
+        }
+        // Shift back the entries that follow, so that no probe sequence is broken by the now free slot
+        for(int next = (gap + 1) & mask; keys[next] != FREE_KEY; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if(((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = FREE_KEY;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(IntLongConsumer consumer) {
+
+        if(hasFreeKey) {
+            consumer.accept(FREE_KEY, freeKeyValue);
+        }
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != FREE_KEY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    // Slot holding the key, or the free slot where it would go
+    private int slotOf(int key) {
+
+        int slot = hash(key) & mask;
+        while(keys[slot] != FREE_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != FREE_KEY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // Ids are mostly sequential, spread them over the table
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @FunctionalInterface
+    public interface IntLongConsumer {
+        void accept(int key, long value);
+    }
+}
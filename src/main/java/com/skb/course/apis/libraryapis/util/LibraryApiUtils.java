@@ -1,12 +1,12 @@
 package com.skb.course.apis.libraryapis.util;
 
-import com.auth0.jwt.JWT;
-import com.skb.course.apis.libraryapis.security.SecurityConstants;
-
-import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class LibraryApiUtils {
 
+    // JDBC fetch size used by the queries that stream their results (needs useCursorFetch=true with MySQL)
+    public static final String STREAM_FETCH_SIZE = "500";
 
     public static boolean doesStringValueExist(String str) {
 
@@ -17,21 +17,34 @@ public class LibraryApiUtils {
         }
     }
 
-    public static boolean isUserAdmin(String bearerToken) {
-
-        String role = JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes()))
-                .build()
-                .verify(bearerToken.replace(SecurityConstants.BEARER_TOKEN_PREFIX, ""))
-                .getClaim("role").asString();
+    // Runs the given change once the current transaction commits, or right away if there is no transaction
+    public static void runAfterCommit(Runnable change) {
 
-        return role.equals("ADMIN");
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
     }
 
-    public static int getUserIdFromClaim(String bearerToken) {
-
-        return JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes()))
-                .build()
-                .verify(bearerToken.replace(SecurityConstants.BEARER_TOKEN_PREFIX, ""))
-                .getClaim("userId").asInt();
+    // Undoes a change made outside of the DB if the current transaction rolls back. Without a transaction there is
+    // nothing to roll back.
+    public static void runAfterRollback(Runnable undo) {
+
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if(status == STATUS_ROLLED_BACK) {
+                        undo.run();
+                    }
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,37 @@
+package com.skb.course.apis.libraryapis.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes each object it is given as one line of JSON (newline delimited JSON) to the underlying stream. Used for
+ * streaming search results without holding the whole result in memory.
+ */
+public class NdJsonWriter<T> implements Consumer<T> {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    private ObjectMapper objectMapper;
+    private OutputStream outputStream;
+
+    public NdJsonWriter(ObjectMapper objectMapper, OutputStream outputStream) {
+        this.objectMapper = objectMapper;
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void accept(T value) {
+        try {
+            outputStream.write(objectMapper.writeValueAsBytes(value));
+            outputStream.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
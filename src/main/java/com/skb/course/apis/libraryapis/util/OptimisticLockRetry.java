@@ -0,0 +1,125 @@
+package com.skb.course.apis.libraryapis.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs a unit of work on Books in a transaction of its own and, if it loses an optimistic locking race (a versioned
+ * row changed since it was read), runs it again after a short random pause. Gives up after a bounded number of
+ * attempts and lets the last conflict through.
+ *
+ * Every conflict and every retry is counted per Book and operation ("library.book.conflicts" and
+ * "library.book.retries") so contended titles show up in the metrics.
+ */
+@Component
+public class OptimisticLockRetry {
+
+    private static Logger logger = LoggerFactory.getLogger(OptimisticLockRetry.class);
+
+    public static final String CONFLICTS_METRIC = "library.book.conflicts";
+    public static final String RETRIES_METRIC = "library.book.retries";
+
+    private TransactionTemplate transactionTemplate;
+    private MeterRegistry meterRegistry;
+    private int maxAttempts;
+    private long backoffMillis;
+
+    public OptimisticLockRetry(PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                               @Value("${library.rule.book.conflict.max.attempts:3}") int maxAttempts,
+                               @Value("${library.rule.book.conflict.backoff.millis:20}") long backoffMillis) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Runs the work for the given Books. A checked exception thrown by the work ends it without a retry and, as with
+     * {@code @Transactional}, doesn't roll back what was done before it.
+     *
+     * Within a transaction started by the caller there is nothing that can be retried, so the work runs just once.
+     */
+    public <T, E extends Exception> T execute(Collection<Integer> bookIds, String operation, Work<T, E> work) throws E {
+
+        if(TransactionSynchronizationManager.isActualTransactionActive()) {
+            return work.run();
+        }
+
+        for(int attempt = 1; ; attempt++) {
+            try {
+                Outcome<T> outcome = transactionTemplate.execute(status -> {
+                    Outcome<T> o = new Outcome<>();
+                    try {
+                        o.result = work.run();
+                    } catch(RuntimeException e) {
+                        throw e;
+                    } catch(Exception e) {
+                        o.failure = e;
+                    }
+                    return o;
+                });
+                if(outcome.failure != null) {
+                    @SuppressWarnings("unchecked")
+                    E failure = (E) outcome.failure;
+                    throw failure;
+                }
+                return outcome.result;
+            } catch(OptimisticLockingFailureException e) {
+                count(CONFLICTS_METRIC, bookIds, operation);
+                if(attempt >= maxAttempts) {
+                    logger.error("Book Ids: {}, {} gave up after {} attempts", bookIds, operation, attempt, e);
+                    throw e;
+                }
+                logger.debug("Book Ids: {}, {} conflicted on attempt {}, retrying", bookIds, operation, attempt);
+                count(RETRIES_METRIC, bookIds, operation);
+                pause(attempt);
+            }
+        }
+    }
+
+    // "Full jitter": a random pause of up to backoffMillis * 2^(attempt - 1), so the losers of a race don't all
+    // come back at the same time
+    private void pause(int attempt) {
+
+        long bound = backoffMillis << Math.min(attempt - 1, 10);
+        if(bound <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void count(String metric, Collection<Integer> bookIds, String operation) {
+        for(Integer bookId : bookIds) {
+            Counter.builder(metric)
+                    .tag("bookId", String.valueOf(bookId))
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Work<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private static class Outcome<T> {
+        private T result;
+        private Exception failure;
+    }
+}
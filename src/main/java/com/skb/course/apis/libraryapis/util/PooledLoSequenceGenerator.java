@@ -0,0 +1,37 @@
+package com.skb.course.apis.libraryapis.util;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Sequence (or, on MySQL, sequence table) generator that reserves a block of ids per round trip instead of one. The
+ * value read from the sequence is the lowest id of the block ("pooled-lo"), and the sequence is moved on by the block
+ * size in the same step, so app nodes sharing a DB each get blocks of their own. Ids of a node's unused block are
+ * skipped when the node stops.
+ *
+ * Because the value read is the first id handed out, a sequence already used with one id at a time can switch to
+ * this generator as is. The block size is the "library.id.block.size" Hibernate setting
+ * (spring.jpa.properties.library.id.block.size), and can be changed between restarts in the same way.
+ */
+public class PooledLoSequenceGenerator extends SequenceStyleGenerator {
+
+    public static final String BLOCK_SIZE_SETTING = "library.id.block.size";
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+
+        String blockSize = serviceRegistry.getService(ConfigurationService.class)
+                .getSetting(BLOCK_SIZE_SETTING, StandardConverters.STRING, String.valueOf(DEFAULT_BLOCK_SIZE));
+        params.setProperty(INCREMENT_PARAM, String.valueOf(Math.max(1, Integer.parseInt(blockSize.trim()))));
+        params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+        super.configure(type, params, serviceRegistry);
+    }
+}
@@ -17,6 +17,8 @@ CREATE TABLE USER (
 				Role ENUM('ADMIN', 'USER') NOT NULL
 );
 
+-- USER_SEQUENCE and USER_BOOK_SEQUENCE hand out blocks of ids: next_val is the first id of the next block and
+-- moves on by spring.jpa.properties.library.id.block.size every time a block is taken
 CREATE TABLE USER_SEQUENCE (
 	User_Id INT NOT NULL,
   next_val INT
@@ -44,7 +46,7 @@ CREATE TABLE BOOK (
 				Publisher_Id INT NOT NULL,
 				Year_Published INT NOT NULL,
 				Edition VARCHAR(20),
-				FOREIGN KEY fk_publisher(Publisher_Id) REFERENCES PUBLISHER(Publisher_Id)
+				FOREIGN KEY (Publisher_Id) REFERENCES PUBLISHER(Publisher_Id)
 );
 
 CREATE TABLE BOOK_SEQUENCE (
@@ -60,8 +62,8 @@ CREATE TABLE USER_BOOK (
     Issued_Date Date NOT NULL,
     Return_Date Date NOT NULL,
     Number_Of_Times_Issued INT NOT NULL,
-    FOREIGN KEY fk_user(User_Id) REFERENCES USER(User_Id),
-    FOREIGN KEY fk_book(Book_Id) REFERENCES BOOK(Book_Id)
+    FOREIGN KEY (User_Id) REFERENCES USER(User_Id),
+    FOREIGN KEY (Book_Id) REFERENCES BOOK(Book_Id)
     );
 
 CREATE TABLE USER_BOOK_SEQUENCE (
@@ -87,8 +89,8 @@ INSERT INTO AUTHOR_SEQUENCE (Author_Id, next_val) VALUES (3111,3112);
 CREATE TABLE BOOK_AUTHOR (
       Book_Id INT ,
       Author_Id INT,
-      FOREIGN KEY fk_author(Author_Id) REFERENCES AUTHOR(Author_Id),
-      FOREIGN KEY fk_book(Book_Id) REFERENCES BOOK(Book_Id)
+      FOREIGN KEY (Author_Id) REFERENCES AUTHOR(Author_Id),
+      FOREIGN KEY (Book_Id) REFERENCES BOOK(Book_Id)
       );
 
 CREATE TABLE BOOK_STATUS (
@@ -96,6 +98,5 @@ CREATE TABLE BOOK_STATUS (
 		State ENUM('Active', 'Inactive') NOT NULL,
 		Total_Number_Of_Copies INT NOT NULL,
 		Number_Of_Copies_Issued INT DEFAULT 0,
-		FOREIGN KEY fk_book(Book_Id) REFERENCES BOOK(Book_Id)
+		FOREIGN KEY (Book_Id) REFERENCES BOOK(Book_Id)
 	);
-
@@ -0,0 +1,5 @@
+/* Version columns, used for optimistic locking and as ETags */
+ALTER TABLE PUBLISHER ADD COLUMN Version INT NOT NULL DEFAULT 0;
+ALTER TABLE BOOK ADD COLUMN Version INT NOT NULL DEFAULT 0;
+ALTER TABLE AUTHOR ADD COLUMN Version INT NOT NULL DEFAULT 0;
+ALTER TABLE BOOK_STATUS ADD COLUMN Version INT NOT NULL DEFAULT 0;
@@ -0,0 +1,13 @@
+/* Loans are looked up by User and Book on every issue and return, and a User has at most one loan of a Book */
+ALTER TABLE USER_BOOK ADD CONSTRAINT uk_user_book_user_id_book_id UNIQUE (User_Id, Book_Id);
+
+/* Name searches use LIKE '%...%', which can't seek an index. These indexes hold every column the searches return
+   (InnoDB adds the primary key), so a search scans the index instead of the table. */
+CREATE INDEX idx_user_first_name_last_name ON USER (First_Name, Last_Name, Username);
+CREATE INDEX idx_user_last_name_first_name ON USER (Last_Name, First_Name, Username);
+CREATE INDEX idx_author_first_name_last_name ON AUTHOR (First_Name, Last_Name, Date_Of_Birth, Gender);
+CREATE INDEX idx_author_last_name_first_name ON AUTHOR (Last_Name, First_Name, Date_Of_Birth, Gender);
+
+/* Title index rebuild at startup and title searches read Book Id and Title only, and later pages of a title search
+   start from the last title seen */
+CREATE INDEX idx_book_title ON BOOK (Title);
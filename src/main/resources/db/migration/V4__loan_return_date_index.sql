@@ -0,0 +1,3 @@
+/* The overdue loan scan reads USER_BOOK in (Return_Date, User_Book_Id) order, a chunk at a time. User and Book are
+   in the index too, so the scan never reads the table. */
+CREATE INDEX idx_user_book_return_date ON USER_BOOK (Return_Date, User_Book_Id, User_Id, Book_Id);
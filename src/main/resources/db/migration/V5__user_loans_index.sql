@@ -0,0 +1,2 @@
+/* A User's loans are listed soonest due first, a page at a time */
+CREATE INDEX idx_user_book_user_id_return_date ON USER_BOOK (User_Id, Return_Date, Book_Id);
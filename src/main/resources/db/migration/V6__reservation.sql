@@ -0,0 +1,17 @@
+/* Users waiting for a copy of a Book, and the copies held for them (Hold_Until set) */
+CREATE TABLE RESERVATION (
+    Reservation_Id INT PRIMARY KEY,
+    Book_Id INT NOT NULL,
+    User_Id INT NOT NULL,
+    Reserved_At DATETIME NOT NULL,
+    Hold_Until DATETIME NULL,
+    CONSTRAINT uk_reservation_book_id_user_id UNIQUE (Book_Id, User_Id),
+    FOREIGN KEY (Book_Id) REFERENCES BOOK(Book_Id),
+    FOREIGN KEY (User_Id) REFERENCES USER(User_Id)
+    );
+
+CREATE TABLE RESERVATION_SEQUENCE (
+	    Reservation_Id INT NOT NULL,
+      next_val INT );
+
+INSERT INTO RESERVATION_SEQUENCE (Reservation_Id, next_val) VALUES (1,2);
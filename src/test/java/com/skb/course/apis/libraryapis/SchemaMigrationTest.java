@@ -0,0 +1,100 @@
+package com.skb.course.apis.libraryapis;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.sql.DataSource;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = {"spring.datasource.url=jdbc:h2:mem:migrations;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "spring.flyway.enabled=true", "spring.jpa.hibernate.ddl-auto=none"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class SchemaMigrationTest {
+
+    @Autowired
+    Flyway flyway;
+
+    @Autowired
+    DataSource dataSource;
+
+    JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Test
+    public void all_migrations_applied() {
+
+        assertEquals("6", flyway.info().current().getVersion().getVersion());
+        assertEquals(0, flyway.info().pending().length);
+    }
+
+    @Test
+    public void loan_lookup_uses_the_user_book_index() {
+
+        String plan = jdbcTemplate.queryForObject(
+                "EXPLAIN SELECT * FROM USER_BOOK WHERE User_Id = 4211 AND Book_Id = 2002", String.class);
+
+        assertTrue(plan, plan.toUpperCase().contains("UK_USER_BOOK_USER_ID_BOOK_ID"));
+        assertFalse(plan, plan.contains("tableScan"));
+    }
+
+    @Test
+    public void title_search_pages_seek_the_title_index() {
+
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT Book_Id FROM BOOK WHERE Title > 'Spring' " +
+                "ORDER BY Title, Book_Id", String.class);
+
+        assertTrue(plan, plan.toUpperCase().contains("IDX_BOOK_TITLE"));
+    }
+
+    @Test
+    public void overdue_scan_chunks_read_the_return_date_index_only() {
+
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT User_Book_Id, User_Id, Book_Id, Return_Date " +
+                "FROM USER_BOOK WHERE Return_Date < '2019-06-01' " +
+                "AND (Return_Date > '2019-05-01' OR (Return_Date = '2019-05-01' AND User_Book_Id > 10)) " +
+                "ORDER BY Return_Date, User_Book_Id LIMIT 1000", String.class);
+
+        assertTrue(plan, plan.toUpperCase().contains("IDX_USER_BOOK_RETURN_DATE"));
+        assertTrue(plan, plan.contains("index sorted"));
+    }
+
+    @Test
+    public void user_loan_pages_seek_the_user_return_date_index() {
+
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT ub.Book_Id, b.ISBN, b.Title, ub.Return_Date " +
+                "FROM USER_BOOK ub JOIN BOOK b ON b.Book_Id = ub.Book_Id " +
+                "WHERE ub.User_Id = 4211 AND ub.Return_Date < '2019-06-01' " +
+                "ORDER BY ub.Return_Date, ub.Book_Id LIMIT 21", String.class);
+
+        assertTrue(plan, plan.toUpperCase().contains("IDX_USER_BOOK_USER_ID_RETURN_DATE"));
+    }
+
+    @Test(expected = DataIntegrityViolationException.class)
+    public void user_can_not_have_two_loans_of_a_book() {
+
+        jdbcTemplate.update("INSERT INTO USER (User_Id, Username, Password, First_Name, Last_Name, Date_Of_Birth, " +
+                "Gender, Phone_Number, Email_Id, Role) VALUES (4211, 'user', 'pwd', 'First', 'Last', '1990-01-01', " +
+                "'Female', '0400000000', 'user@email.com', 'USER')");
+        jdbcTemplate.update("INSERT INTO PUBLISHER (Publisher_Id, Name) VALUES (1002, 'Publisher')");
+        jdbcTemplate.update("INSERT INTO BOOK (Book_Id, ISBN, Title, Publisher_Id, Year_Published) " +
+                "VALUES (2002, 'isbn', 'Title', 1002, 2019)");
+        for(int userBookId = 1; userBookId <= 2; userBookId++) {
+            jdbcTemplate.update("INSERT INTO USER_BOOK (User_Book_Id, User_Id, Book_Id, Issued_Date, Return_Date, " +
+                    "Number_Of_Times_Issued) VALUES (?, 4211, 2002, '2019-01-01', '2019-01-15', 1)", userBookId);
+        }
+    }
+}
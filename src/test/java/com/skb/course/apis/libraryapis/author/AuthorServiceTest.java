@@ -1,5 +1,6 @@
 package com.skb.course.apis.libraryapis.author;
 
+import com.skb.course.apis.libraryapis.book.BookCache;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
 import com.skb.course.apis.libraryapis.model.common.Gender;
@@ -29,11 +30,14 @@ public class AuthorServiceTest {
     @Mock
     AuthorRepository authorRepository;
 
+    @Mock
+    BookCache bookCache;
+
     AuthorService authorService;
 
     @Before
     public void setUp() throws Exception {
-        authorService = new AuthorService(authorRepository);
+        authorService = new AuthorService(authorRepository, bookCache);
     }
 
     @Test
@@ -81,6 +85,26 @@ public class AuthorServiceTest {
         verify(authorRepository, times(1)).findById(123);
     }
 
+    @Test
+    public void getAuthorETag_success() throws LibraryResourceNotFoundException {
+
+        when(authorRepository.findVersionByAuthorId(anyInt()))
+                .thenReturn(Optional.of(4));
+        String eTag = authorService.getAuthorETag(123, TestConstants.API_TRACE_ID);
+
+        verify(authorRepository, times(1)).findVersionByAuthorId(123);
+        verify(authorRepository, never()).findById(anyInt());
+        assertEquals("4", eTag);
+    }
+
+    @Test(expected = LibraryResourceNotFoundException.class)
+    public void getAuthorETag_failure() throws LibraryResourceNotFoundException {
+
+        when(authorRepository.findVersionByAuthorId(anyInt()))
+                .thenReturn(Optional.empty());
+        authorService.getAuthorETag(123, TestConstants.API_TRACE_ID);
+    }
+
     @Test
     public void updateAuthor_success()
             throws LibraryResourceAlreadyExistException, LibraryResourceNotFoundException {
@@ -108,9 +132,13 @@ public class AuthorServiceTest {
     @Test
     public void deleteAuthor_success() throws LibraryResourceNotFoundException {
 
+        when(authorRepository.findBookIdsByAuthorId(123)).thenReturn(Arrays.asList(1, 2));
         doNothing().when(authorRepository).deleteById(123);
         authorService.deleteAuthor(123, TestConstants.API_TRACE_ID);
         verify(authorRepository, times(1)).deleteById(123);
+        // The Books of the Author are no longer what is cached
+        verify(bookCache, times(1)).evict(1);
+        verify(bookCache, times(1)).evict(2);
     }
 
     @Test(expected = LibraryResourceNotFoundException.class)
@@ -124,22 +152,22 @@ public class AuthorServiceTest {
     @Test
     public void searchAuthor_success_firstname_lastname() {
 
-        List<AuthorEntity> authorEntityList = Arrays.asList(
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "a", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female),
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "b", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(32), Gender.Male)
+        List<AuthorSearchView> authorViewList = Arrays.asList(
+                new AuthorSearchView(1, TestConstants.TEST_AUTHOR_FIRST_NAME + "a", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female),
+                new AuthorSearchView(2, TestConstants.TEST_AUTHOR_FIRST_NAME + "b", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(32), Gender.Male)
         );
 
         when(authorRepository.findByFirstNameAndLastNameContaining(TestConstants.TEST_AUTHOR_FIRST_NAME, TestConstants.TEST_AUTHOR_LAST_NAME))
-                .thenReturn(authorEntityList);
+                .thenReturn(authorViewList);
 
         List<Author> authors = authorService.searchAuthor(TestConstants.TEST_AUTHOR_FIRST_NAME, TestConstants.TEST_AUTHOR_LAST_NAME, TestConstants.API_TRACE_ID);
 
 
         verify(authorRepository, times(1))
                 .findByFirstNameAndLastNameContaining(TestConstants.TEST_AUTHOR_FIRST_NAME, TestConstants.TEST_AUTHOR_LAST_NAME);
-        assertEquals(authorEntityList.size(), authors.size());
+        assertEquals(authorViewList.size(), authors.size());
 
-        assertEquals(authorEntityList.size(), authors.stream()
+        assertEquals(authorViewList.size(), authors.stream()
                 .filter(author -> author.getFirstName().contains(TestConstants.TEST_AUTHOR_FIRST_NAME))
                 .count()
         );
@@ -148,23 +176,23 @@ public class AuthorServiceTest {
     @Test
     public void searchAuthor_success_firstname() {
 
-        List<AuthorEntity> authorEntityList = Arrays.asList(
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "a", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female),
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "b", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(32), Gender.Male),
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "c", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(34), Gender.Male)
+        List<AuthorSearchView> authorViewList = Arrays.asList(
+                new AuthorSearchView(3, TestConstants.TEST_AUTHOR_FIRST_NAME + "a", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female),
+                new AuthorSearchView(4, TestConstants.TEST_AUTHOR_FIRST_NAME + "b", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(32), Gender.Male),
+                new AuthorSearchView(5, TestConstants.TEST_AUTHOR_FIRST_NAME + "c", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(34), Gender.Male)
         );
 
         when(authorRepository.findByFirstNameContaining(TestConstants.TEST_AUTHOR_FIRST_NAME))
-                .thenReturn(authorEntityList);
+                .thenReturn(authorViewList);
 
         List<Author> authors = authorService.searchAuthor(TestConstants.TEST_AUTHOR_FIRST_NAME, "", TestConstants.API_TRACE_ID);
 
 
         verify(authorRepository, times(1))
                 .findByFirstNameContaining(TestConstants.TEST_AUTHOR_FIRST_NAME);
-        assertEquals(authorEntityList.size(), authors.size());
+        assertEquals(authorViewList.size(), authors.size());
 
-        assertEquals(authorEntityList.size(), authors.stream()
+        assertEquals(authorViewList.size(), authors.stream()
                 .filter(author -> author.getFirstName().contains(TestConstants.TEST_AUTHOR_FIRST_NAME))
                 .count()
         );
@@ -173,24 +201,24 @@ public class AuthorServiceTest {
     @Test
     public void searchAuthor_success_lastname() {
 
-        List<AuthorEntity> authorEntityList = Arrays.asList(
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "a", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female),
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "b", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(32), Gender.Male),
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "c", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(34), Gender.Male),
-                new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + "d", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(34), Gender.Male)
+        List<AuthorSearchView> authorViewList = Arrays.asList(
+                new AuthorSearchView(6, TestConstants.TEST_AUTHOR_FIRST_NAME + "a", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female),
+                new AuthorSearchView(7, TestConstants.TEST_AUTHOR_FIRST_NAME + "b", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(32), Gender.Male),
+                new AuthorSearchView(8, TestConstants.TEST_AUTHOR_FIRST_NAME + "c", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(34), Gender.Male),
+                new AuthorSearchView(9, TestConstants.TEST_AUTHOR_FIRST_NAME + "d", TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(34), Gender.Male)
         );
 
         when(authorRepository.findByLastNameContaining(TestConstants.TEST_AUTHOR_LAST_NAME))
-                .thenReturn(authorEntityList);
+                .thenReturn(authorViewList);
 
         List<Author> authors = authorService.searchAuthor("", TestConstants.TEST_AUTHOR_LAST_NAME, TestConstants.API_TRACE_ID);
 
 
         verify(authorRepository, times(1))
                 .findByLastNameContaining(TestConstants.TEST_AUTHOR_LAST_NAME);
-        assertEquals(authorEntityList.size(), authors.size());
+        assertEquals(authorViewList.size(), authors.size());
 
-        assertEquals(authorEntityList.size(), authors.stream()
+        assertEquals(authorViewList.size(), authors.stream()
                 .filter(author -> author.getLastName().contains(TestConstants.TEST_AUTHOR_LAST_NAME))
                 .count()
         );
@@ -0,0 +1,255 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.user.UserBookEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+// The ledger writes BOOK_STATUS in transactions of its own
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BookAvailabilityLedgerTest {
+
+    private static final int COPIES = 5;
+    private static final int THREADS = 16;
+
+    @Rule
+    public TemporaryFolder journalFolder = new TemporaryFolder();
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    BookStatusRepository bookStatusRepository;
+
+    List<BookAvailabilityLedger> ledgers = new ArrayList<>();
+
+    int bookId;
+
+    @Before
+    public void setUp() {
+
+        bookId = new TransactionTemplate(transactionManager).execute(status -> {
+            PublisherEntity publisher = new PublisherEntity(TestConstants.TEST_PUBLISHER_NAME,
+                    TestConstants.TEST_PUBLISHER_EMAIL, TestConstants.TEST_PUBLISHER_PHONE);
+            entityManager.persist(publisher);
+            BookEntity book = new BookEntity(TestConstants.TEST_BOOK_ISBN, TestConstants.TEST_BOOK_TITLE,
+                    TestConstants.TEST_BOOK_YEAR_PUBLISHED, TestConstants.TEST_BOOK_EDITION);
+            book.setPublisher(publisher);
+            entityManager.persist(book);
+            entityManager.persist(new BookStatusEntity(book.getBookId(), BookStatusState.Active, COPIES, 0));
+            return book.getBookId();
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for(BookAvailabilityLedger ledger : ledgers) {
+            ledger.stop();
+        }
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from UserBookEntity").executeUpdate();
+            entityManager.createQuery("delete from BookStatusEntity").executeUpdate();
+            entityManager.createQuery("delete from BookEntity").executeUpdate();
+            entityManager.createQuery("delete from PublisherEntity").executeUpdate();
+            return null;
+        });
+    }
+
+    @Test
+    public void issue_never_takes_more_copies_than_there_are() throws Exception {
+
+        BookAvailabilityLedger ledger = startLedger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<BookAvailabilityLedger.IssueResult>> results = new ArrayList<>();
+        try {
+            for(int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return ledger.issue(bookId);
+                }));
+            }
+            start.countDown();
+            int issued = 0;
+            for(Future<BookAvailabilityLedger.IssueResult> result : results) {
+                if(result.get(30, TimeUnit.SECONDS) == BookAvailabilityLedger.IssueResult.Issued) {
+                    issued++;
+                }
+            }
+            assertEquals(COPIES, issued);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertArrayEquals(new int[] {COPIES, COPIES}, ledger.getCounts(bookId));
+        assertEquals(BookAvailabilityLedger.IssueResult.NotFound, ledger.issue(-1));
+        // Nothing reaches BOOK_STATUS before the flush
+        assertEquals(0, bookStatusRepository.findById(bookId).get().getNumberOfCopiesIssued());
+
+        ledger.flush();
+        BookStatusEntity bookStatus = bookStatusRepository.findById(bookId).get();
+        assertEquals(COPIES, bookStatus.getNumberOfCopiesIssued());
+        assertEquals(COPIES, bookStatus.getTotalNumberOfCopies());
+    }
+
+    @Test
+    public void journal_is_replayed_after_a_crash() throws IOException {
+
+        BookAvailabilityLedger crashed = startLedger();
+        crashed.issue(bookId);
+        crashed.issue(bookId);
+        crashed.returnCopy(bookId);
+        // The loan of the copy that is still out
+        lend(1);
+        assertNotNull(crashed.restock(bookId, 7));
+        // No flush, so BOOK_STATUS doesn't know about any of it. A crashed ledger is never stopped either.
+        ledgers.remove(crashed);
+
+        BookAvailabilityLedger recovered = startLedger();
+        assertArrayEquals(new int[] {7, 1}, recovered.getCounts(bookId));
+        BookStatusEntity bookStatus = bookStatusRepository.findById(bookId).get();
+        assertEquals(7, bookStatus.getTotalNumberOfCopies());
+        assertEquals(1, bookStatus.getNumberOfCopiesIssued());
+        // Only the segment the recovered ledger writes to is left
+        assertEquals(1, journalFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void copies_issued_are_corrected_on_start() throws IOException {
+
+        BookAvailabilityLedger crashed = startLedger();
+        crashed.issue(bookId);
+        crashed.issue(bookId);
+        crashed.issue(bookId);
+        crashed.flush();
+        // Two loans are left, the third was returned but the ledger never got its copy back
+        lend(2);
+        ledgers.remove(crashed);
+
+        BookAvailabilityLedger recovered = startLedger();
+        assertArrayEquals(new int[] {COPIES, 2}, recovered.getCounts(bookId));
+        assertEquals(2, bookStatusRepository.findById(bookId).get().getNumberOfCopiesIssued());
+    }
+
+    @Test
+    public void restock_below_issued_copies_is_refused() {
+
+        BookAvailabilityLedger ledger = startLedger();
+        ledger.issue(bookId);
+        ledger.issue(bookId);
+
+        assertArrayEquals(new int[] {COPIES, 2, COPIES}, ledger.restock(bookId, 1));
+        assertArrayEquals(new int[] {2, 2, COPIES}, ledger.restock(bookId, 2));
+        assertNull(ledger.restock(-1, 2));
+        assertFalse(ledger.returnCopy(-1));
+    }
+
+    @Test
+    public void revertRestock_only_undoes_the_latest_restock() {
+
+        BookAvailabilityLedger ledger = startLedger();
+        ledger.restock(bookId, COPIES + 5);
+        assertTrue(ledger.revertRestock(bookId, COPIES + 5, COPIES));
+        assertArrayEquals(new int[] {COPIES, 0}, ledger.getCounts(bookId));
+
+        // Restocked again since
+        ledger.restock(bookId, COPIES + 5);
+        ledger.restock(bookId, COPIES + 2);
+        assertFalse(ledger.revertRestock(bookId, COPIES + 5, COPIES));
+        assertArrayEquals(new int[] {COPIES + 2, 0}, ledger.getCounts(bookId));
+
+        // More copies issued since than there were before
+        for(int i = 0; i <= COPIES; i++) {
+            assertEquals(BookAvailabilityLedger.IssueResult.Issued, ledger.issue(bookId));
+        }
+        assertFalse(ledger.revertRestock(bookId, COPIES + 2, COPIES));
+        assertArrayEquals(new int[] {COPIES + 2, COPIES + 1}, ledger.getCounts(bookId));
+    }
+
+    @Test
+    public void returnCopies_puts_back_no_more_than_are_issued() {
+
+        BookAvailabilityLedger ledger = startLedger();
+        ledger.issue(bookId);
+        ledger.issue(bookId);
+        ledger.issue(bookId);
+
+        assertEquals(2, ledger.returnCopies(bookId, 2));
+        assertArrayEquals(new int[] {COPIES, 1}, ledger.getCounts(bookId));
+        assertEquals(1, ledger.returnCopies(bookId, 4));
+        assertArrayEquals(new int[] {COPIES, 0}, ledger.getCounts(bookId));
+        assertEquals(0, ledger.returnCopies(-1, 1));
+    }
+
+    @Test
+    public void deleted_books_are_forgotten() {
+
+        BookAvailabilityLedger ledger = startLedger();
+        ledger.load(Collections.singleton(bookId));
+        ledger.issue(bookId);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from BookStatusEntity").executeUpdate();
+            return null;
+        });
+
+        ledger.flush();
+        assertNull(ledger.getCounts(bookId));
+        assertEquals(BookAvailabilityLedger.IssueResult.NotFound, ledger.issue(bookId));
+    }
+
+    private void lend(int copies) {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            for(int userId = 1; userId <= copies; userId++) {
+                entityManager.persist(new UserBookEntity(userId, bookId, LocalDate.now(), LocalDate.now().plusDays(14), 1));
+            }
+            return null;
+        });
+    }
+
+    private BookAvailabilityLedger startLedger() {
+
+        BookAvailabilityLedger ledger = new BookAvailabilityLedger(bookStatusRepository, transactionManager,
+                journalFolder.getRoot().getPath(), false, 4, 0, 2);
+        try {
+            ledger.start();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ledgers.add(ledger);
+        return ledger;
+    }
+}
@@ -0,0 +1,238 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceUnavailableException;
+import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+// Each chunk commits in its own transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BookBulkServiceTest {
+
+    private static final int CHUNK_SIZE = 100;
+    private static final int JDBC_BATCH_SIZE = 50;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    PublisherRepository publisherRepository;
+
+    BookIsbnIndex bookIsbnIndex;
+
+    BookBulkService bookBulkService;
+
+    Statistics statistics;
+
+    int publisherId;
+
+    @Before
+    public void setUp() {
+
+        bookIsbnIndex = new BookIsbnIndex(bookRepository, 100, 30, new SimpleMeterRegistry());
+        bookBulkService = new BookBulkService(bookRepository, publisherRepository, new BookTitleIndex(bookRepository),
+                bookIsbnIndex, transactionManager, new ObjectMapper().findAndRegisterModules(),
+                Validation.buildDefaultValidatorFactory().getValidator());
+        ReflectionTestUtils.setField(bookBulkService, "entityManager", entityManager);
+        ReflectionTestUtils.setField(bookBulkService, "chunkSize", CHUNK_SIZE);
+        ReflectionTestUtils.setField(bookBulkService, "jdbcBatchSize", JDBC_BATCH_SIZE);
+
+        publisherId = publisherRepository.save(new PublisherEntity("Bulk" + TestConstants.TEST_PUBLISHER_NAME,
+                TestConstants.TEST_PUBLISHER_EMAIL, TestConstants.TEST_PUBLISHER_PHONE)).getPublisherid();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @After
+    public void tearDown() {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from BookStatusEntity").executeUpdate();
+            entityManager.createQuery("delete from BookEntity").executeUpdate();
+            entityManager.createQuery("delete from PublisherEntity").executeUpdate();
+            return null;
+        });
+    }
+
+    @Test
+    public void addBooks_in_jdbc_batches() throws LibraryResourceBadRequestException, LibraryResourceUnavailableException {
+
+        StringBuilder json = new StringBuilder("[");
+        for(int i = 0; i < 2 * CHUNK_SIZE; i++) {
+            json.append(i > 0 ? "," : "").append(book("bulk-" + i, publisherId));
+        }
+        json.append("]");
+
+        BookBulkResponse response = addBooks(json.toString());
+        long statements = statistics.getPrepareStatementCount();
+
+        assertEquals(2 * CHUNK_SIZE, response.getCreated());
+        assertEquals(0, response.getConflicts() + response.getInvalid());
+        assertNull(response.getError());
+        assertEquals(2 * CHUNK_SIZE, bookRepository.count());
+
+        // One publisher lookup, one ISBN lookup per chunk, at most one trip to book_sequence per 50 Books and one
+        // JDBC batch per 50 BOOK rows and per 50 BOOK_STATUS rows
+        assertEquals(4 * CHUNK_SIZE, statistics.getEntityInsertCount());
+        int batches = 2 * CHUNK_SIZE / JDBC_BATCH_SIZE;
+        assertTrue(statements <= 1 + 2 + batches + 2 * batches);
+        response.getResults().forEach(r -> assertEquals(r.getBookId(), bookIsbnIndex.find(r.getIsbn())));
+    }
+
+    @Test
+    public void addBooks_reports_each_row() throws LibraryResourceBadRequestException, LibraryResourceUnavailableException {
+
+        addBooks("[" + book("bulk-existing", publisherId) + "]");
+
+        BookBulkResponse response = addBooks("[" +
+                book("bulk-1", publisherId) + "," +
+                book("bulk-existing", publisherId) + "," +
+                book("bulk-1", publisherId) + "," +
+                book("bulk-2", -1) + "," +
+                "{\"isbn\": \"bulk-3\", \"title\": \"No Status\", \"publisherId\": " + publisherId +
+                ", \"yearPublished\": 2019}," +
+                "{\"isbn\": \"bulk-4\", \"yearPublished\": \"not a year\"}," +
+                book("bulk-5", publisherId) + "]");
+
+        assertEquals(2, response.getCreated());
+        assertEquals(2, response.getConflicts());
+        assertEquals(3, response.getInvalid());
+        assertEquals(BookBulkResultStatus.Created, response.getResults().get(0).getStatus());
+        assertEquals(BookBulkResultStatus.Conflict, response.getResults().get(1).getStatus());
+        assertEquals(BookBulkResultStatus.Conflict, response.getResults().get(2).getStatus());
+        assertEquals(BookBulkResultStatus.Invalid, response.getResults().get(3).getStatus());
+        assertEquals(BookBulkResultStatus.Invalid, response.getResults().get(4).getStatus());
+        assertEquals(BookBulkResultStatus.Invalid, response.getResults().get(5).getStatus());
+        assertEquals(BookBulkResultStatus.Created, response.getResults().get(6).getStatus());
+        assertEquals(6, response.getResults().get(6).getRow());
+        assertEquals(3, bookRepository.count());
+    }
+
+    @Test
+    public void addBooks_malformed_body_keeps_rows_read_so_far() throws LibraryResourceBadRequestException, LibraryResourceUnavailableException {
+
+        BookBulkResponse response = addBooks("[" + book("bulk-1", publisherId) + "," + book("bulk-2", publisherId)
+                + ", {\"isbn\": ");
+
+        assertEquals(2, response.getCreated());
+        assertNotNull(response.getError());
+        assertEquals(2, bookRepository.count());
+    }
+
+    @Test
+    public void addBooks_tells_conflicts_from_invalid_rows() throws Exception {
+
+        // The schema here comes from the entities, put back the limits V1 gives the BOOK table
+        executeSql("alter table book add constraint uk_bulk_isbn unique (isbn)",
+                "alter table book alter column title varchar(50)");
+        try {
+            addBooks("[" + book("bulk-existing", publisherId) + "]");
+            // Rows only the DB can turn down: the ISBN check misses the existing Book and nothing is validated
+            BookRepository raceyBookRepository = mock(BookRepository.class);
+            when(raceyBookRepository.findIsbnsByIsbnIn(anyCollection())).thenReturn(Collections.emptyList());
+            bookBulkService = new BookBulkService(raceyBookRepository, publisherRepository,
+                    new BookTitleIndex(bookRepository), bookIsbnIndex, transactionManager,
+                    new ObjectMapper().findAndRegisterModules(), mock(Validator.class));
+            ReflectionTestUtils.setField(bookBulkService, "entityManager", entityManager);
+
+            String tooLongTitle = String.join("", Collections.nCopies(60, "x"));
+            BookBulkResponse response = addBooks("[" +
+                    book("bulk-1", publisherId) + "," +
+                    book("bulk-existing", publisherId) + "," +
+                    book("bulk-2", publisherId).replace("Bulk Title bulk-2", tooLongTitle) + "]");
+
+            assertEquals(BookBulkResultStatus.Created, response.getResults().get(0).getStatus());
+            assertEquals(BookBulkResultStatus.Conflict, response.getResults().get(1).getStatus());
+            assertEquals(BookBulkResultStatus.Invalid, response.getResults().get(2).getStatus());
+            assertNotEquals("Book already exists!!", response.getResults().get(2).getMessage());
+            assertEquals(2, bookRepository.count());
+        } finally {
+            executeSql("alter table book drop constraint uk_bulk_isbn",
+                    "alter table book alter column title varchar(255)");
+        }
+    }
+
+    @Test(expected = LibraryResourceUnavailableException.class)
+    public void addBooks_stops_if_the_db_is_unavailable() throws Exception {
+
+        PlatformTransactionManager unavailable = mock(PlatformTransactionManager.class);
+        when(unavailable.getTransaction(any())).thenThrow(new CannotCreateTransactionException("Connection refused"));
+        bookBulkService = new BookBulkService(bookRepository, publisherRepository, new BookTitleIndex(bookRepository),
+                bookIsbnIndex, unavailable, new ObjectMapper().findAndRegisterModules(),
+                Validation.buildDefaultValidatorFactory().getValidator());
+        ReflectionTestUtils.setField(bookBulkService, "entityManager", entityManager);
+
+        addBooks("[" + book("bulk-1", publisherId) + "," + book("bulk-2", publisherId) + "]");
+    }
+
+    @Test(expected = LibraryResourceBadRequestException.class)
+    public void addBooks_not_an_array() throws LibraryResourceBadRequestException, LibraryResourceUnavailableException {
+
+        addBooks(book("bulk-1", publisherId));
+    }
+
+    private BookBulkResponse addBooks(String json) throws LibraryResourceBadRequestException, LibraryResourceUnavailableException {
+        return bookBulkService.addBooks(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                TestConstants.API_TRACE_ID);
+    }
+
+    private void executeSql(String... statements) {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            for(String sql : statements) {
+                entityManager.createNativeQuery(sql).executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    private static String book(String isbn, int publisherId) {
+        return "{\"isbn\": \"" + isbn + "\", \"title\": \"Bulk Title " + isbn + "\", \"publisherId\": " + publisherId +
+                ", \"yearPublished\": 2019, \"edition\": \"First\"," +
+                " \"bookStatus\": {\"state\": \"Active\", \"totalNumberOfCopies\": 3}}";
+    }
+}
@@ -0,0 +1,173 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.skb.course.apis.libraryapis.author.AuthorRepository;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import com.skb.course.apis.libraryapis.reservation.ReservationService;
+import com.skb.course.apis.libraryapis.testutils.LibraryApiTestUtil;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookCacheTest {
+
+    @Mock
+    BookRepository bookRepository;
+
+    @Mock
+    PublisherRepository publisherRepository;
+
+    @Mock
+    BookStatusRepository bookStatusRepository;
+
+    @Mock
+    AuthorRepository authorRepository;
+
+    @Mock
+    BookAvailabilityLedger bookAvailabilityLedger;
+
+    BookCache bookCache;
+
+    BookService bookService;
+
+    @Before
+    public void setUp() throws Exception {
+        bookCache = new BookCache(10, 60, new SimpleMeterRegistry());
+        bookService = new BookService(bookRepository, publisherRepository, bookStatusRepository, authorRepository,
+                bookCache, new BookTitleIndex(bookRepository),
+                new BookIsbnIndex(bookRepository, 10, 30, new SimpleMeterRegistry()),
+                new OptimisticLockRetry(mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), 3, 0),
+                bookAvailabilityLedger, mock(ReservationService.class));
+    }
+
+    @Test
+    public void getBook_served_from_cache() throws LibraryResourceNotFoundException {
+
+        when(bookRepository.findWithDetailsByBookId(anyInt())).thenReturn(LibraryApiTestUtil.createBookEntityOptional());
+
+        Book first = bookService.getBook(123, TestConstants.API_TRACE_ID);
+        Book second = bookService.getBook(123, TestConstants.API_TRACE_ID);
+
+        verify(bookRepository, times(1)).findWithDetailsByBookId(123);
+        assertSame(first, second);
+        assertEquals(1, bookCache.stats().hitCount());
+        assertEquals(1, bookCache.stats().missCount());
+    }
+
+    @Test
+    public void getBook_reloaded_after_update() throws LibraryResourceNotFoundException {
+
+        when(bookRepository.findWithDetailsByBookId(anyInt())).thenReturn(LibraryApiTestUtil.createBookEntityOptional());
+
+        bookService.getBook(123, TestConstants.API_TRACE_ID);
+
+        Book book = LibraryApiTestUtil.createBook(1);
+        book.setBookId(123);
+        book.setEdition("Second Edition");
+        bookService.updateBook(book, TestConstants.API_TRACE_ID);
+
+        Book updated = bookService.getBook(123, TestConstants.API_TRACE_ID);
+
+        verify(bookRepository, times(3)).findWithDetailsByBookId(123);
+        assertEquals("Second Edition", updated.getEdition());
+    }
+
+    @Test
+    public void getBook_reloaded_after_status_change() throws LibraryResourceNotFoundException {
+
+        when(bookRepository.findWithDetailsByBookId(anyInt())).thenReturn(LibraryApiTestUtil.createBookEntityOptional());
+
+        bookService.getBook(123, TestConstants.API_TRACE_ID);
+        bookService.bookStatusChanged(123);
+        bookService.getBook(123, TestConstants.API_TRACE_ID);
+
+        verify(bookRepository, times(2)).findWithDetailsByBookId(123);
+    }
+
+    @Test
+    public void getBook_evicted_while_loading_is_reloaded() throws Exception {
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        when(bookRepository.findWithDetailsByBookId(anyInt())).thenAnswer(i -> {
+            if(loading.getCount() > 0) {
+                // The first load reads the Book before it changes
+                loading.countDown();
+                changed.await(10, TimeUnit.SECONDS);
+            }
+            return LibraryApiTestUtil.createBookEntityOptional();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Book> reader = executor.submit(() -> bookService.getBook(123, TestConstants.API_TRACE_ID));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            Future<?> writer = executor.submit(() -> bookService.bookStatusChanged(123));
+            while(bookCache.getEvictions() == 0) {
+                Thread.sleep(1);
+            }
+            changed.countDown();
+            reader.get(10, TimeUnit.SECONDS);
+            writer.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertNull(bookCache.get(123));
+        bookService.getBook(123, TestConstants.API_TRACE_ID);
+        verify(bookRepository, times(2)).findWithDetailsByBookId(123);
+    }
+
+    @Test(expected = LibraryResourceNotFoundException.class)
+    public void getBook_not_found_is_not_cached() throws LibraryResourceNotFoundException {
+
+        when(bookRepository.findWithDetailsByBookId(anyInt())).thenReturn(Optional.empty());
+
+        try {
+            bookService.getBook(123, TestConstants.API_TRACE_ID);
+        } finally {
+            assertNull(bookCache.get(123));
+        }
+    }
+
+    @Test
+    public void streamed_books_are_not_cached() {
+
+        ReflectionTestUtils.setField(bookService, "entityManager", mock(EntityManager.class));
+        when(bookRepository.streamBookIdsByTitleContaining("Java")).thenReturn(Stream.of(1, 2));
+        when(bookRepository.findBookRowsByBookIdIn(anyCollection())).thenReturn(Arrays.asList(
+                new BookRow(1, "isbn-1", "Java 1", 1, 2019, "First", 0, null, null, null, null, null, null, null, null),
+                new BookRow(2, "isbn-2", "Java 2", 1, 2019, "First", 0, null, null, null, null, null, null, null, null)));
+
+        List<Book> books = new ArrayList<>();
+        bookService.streamBooksByTitle("Java", books::add, TestConstants.API_TRACE_ID);
+
+        assertEquals(2, books.size());
+        assertNull(bookCache.get(1));
+        assertNull(bookCache.get(2));
+    }
+}
@@ -0,0 +1,315 @@
+package com.skb.course.apis.libraryapis.book;
+
+import com.skb.course.apis.libraryapis.author.Author;
+import com.skb.course.apis.libraryapis.author.AuthorEntity;
+import com.skb.course.apis.libraryapis.author.AuthorRepository;
+import com.skb.course.apis.libraryapis.author.AuthorService;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.model.common.Gender;
+import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import com.skb.course.apis.libraryapis.reservation.ReservationService;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.transaction.AfterTransaction;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class BookFetchPlanTest {
+
+    private static final int NUMBER_OF_BOOKS = 20;
+    private static final int AUTHORS_PER_BOOK = 3;
+
+    @Rule
+    public TemporaryFolder journalFolder = new TemporaryFolder();
+
+    @Autowired
+    TestEntityManager testEntityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    PublisherRepository publisherRepository;
+
+    @Autowired
+    BookStatusRepository bookStatusRepository;
+
+    @Autowired
+    AuthorRepository authorRepository;
+
+    BookTitleIndex bookTitleIndex;
+
+    BookAvailabilityLedger bookAvailabilityLedger;
+
+    BookCache bookCache;
+
+    BookService bookService;
+
+    Statistics statistics;
+
+    int firstBookId;
+
+    @Before
+    public void setUp() throws IOException {
+
+        bookTitleIndex = new BookTitleIndex(bookRepository);
+        bookAvailabilityLedger = new BookAvailabilityLedger(bookStatusRepository, transactionManager,
+                journalFolder.getRoot().getPath(), false, 4, 0, 100);
+        bookAvailabilityLedger.start();
+        bookCache = new BookCache(100, 60, new SimpleMeterRegistry());
+        bookService = new BookService(bookRepository, publisherRepository, bookStatusRepository, authorRepository,
+                bookCache, bookTitleIndex,
+                new BookIsbnIndex(bookRepository, 100, 30, new SimpleMeterRegistry()),
+                new OptimisticLockRetry(transactionManager, new SimpleMeterRegistry(), 3, 0), bookAvailabilityLedger,
+                mock(ReservationService.class));
+
+        PublisherEntity publisher = testEntityManager.persist(new PublisherEntity(TestConstants.TEST_PUBLISHER_NAME,
+                TestConstants.TEST_PUBLISHER_EMAIL, TestConstants.TEST_PUBLISHER_PHONE));
+
+        for(int i = 0; i < NUMBER_OF_BOOKS; i++) {
+            Set<AuthorEntity> authors = new HashSet<>();
+            for(int j = 0; j < AUTHORS_PER_BOOK; j++) {
+                authors.add(testEntityManager.persist(new AuthorEntity(TestConstants.TEST_AUTHOR_FIRST_NAME + i + j,
+                        TestConstants.TEST_AUTHOR_LAST_NAME, LocalDate.now().minusYears(30), Gender.Female)));
+            }
+            BookEntity book = new BookEntity(TestConstants.TEST_BOOK_ISBN + i, TestConstants.TEST_BOOK_TITLE + "-" + i,
+                    TestConstants.TEST_BOOK_YEAR_PUBLISHED, TestConstants.TEST_BOOK_EDITION);
+            book.setPublisher(publisher);
+            book.setAuthors(authors);
+            book = testEntityManager.persist(book);
+            testEntityManager.persist(new BookStatusEntity(book.getBookId(), BookStatusState.Active, 3, 0));
+            if(i == 0) {
+                firstBookId = book.getBookId();
+            }
+        }
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    // Changes undone when the test's transaction rolls back still go to the ledger
+    @AfterTransaction
+    public void tearDown() throws IOException {
+        bookAvailabilityLedger.stop();
+    }
+
+    @Test
+    public void getBook_single_statement() throws LibraryResourceNotFoundException {
+
+        Book book = bookService.getBook(firstBookId, TestConstants.API_TRACE_ID);
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertNotNull(book.getBookStatus());
+        assertEquals(AUTHORS_PER_BOOK, book.getAuthors().size());
+    }
+
+    @Test
+    public void searchBookByTitle_two_statements_per_page() throws LibraryResourceBadRequestException {
+
+        BookSearchResponse response = bookService.searchBookByTitle(TestConstants.TEST_BOOK_TITLE, 8, null,
+                TestConstants.API_TRACE_ID);
+
+        // One statement for the page of Book Ids and one to load those Books
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+        assertEquals(8, response.getBooks().size());
+        response.getBooks().forEach(book -> {
+            assertNotNull(book.getBookStatus());
+            assertEquals(AUTHORS_PER_BOOK, book.getAuthors().size());
+        });
+        assertNotNull(response.getNextCursor());
+    }
+
+    @Test
+    public void searchBookByTitle_pages_through_all_books() throws LibraryResourceBadRequestException {
+
+        List<Book> books = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            BookSearchResponse response = bookService.searchBookByTitle(TestConstants.TEST_BOOK_TITLE, 8, cursor,
+                    TestConstants.API_TRACE_ID);
+            books.addAll(response.getBooks());
+            cursor = response.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(NUMBER_OF_BOOKS, books.size());
+        assertEquals(NUMBER_OF_BOOKS, books.stream().map(Book::getBookId).distinct().count());
+        for(int i = 1; i < books.size(); i++) {
+            assertTrue(books.get(i - 1).getTitle().compareTo(books.get(i).getTitle()) <= 0);
+        }
+    }
+
+    @Test
+    public void searchBookByTitle_from_title_index() throws LibraryResourceBadRequestException {
+
+        bookTitleIndex.rebuild();
+        statistics.clear();
+
+        BookSearchResponse response = bookService.searchBookByTitle("is fun-1", 8, null, TestConstants.API_TRACE_ID);
+
+        // Book Ids come from the index, so only the page of Books is loaded from the DB
+        assertEquals(1, statistics.getPrepareStatementCount());
+        // "-1" and "-10" to "-19"
+        assertEquals(8, response.getBooks().size());
+        assertNotNull(response.getNextCursor());
+
+        response = bookService.searchBookByTitle("is fun-1", 8, response.getNextCursor(), TestConstants.API_TRACE_ID);
+        assertEquals(3, response.getBooks().size());
+        assertNull(response.getNextCursor());
+    }
+
+    @Test(expected = LibraryResourceBadRequestException.class)
+    public void searchBookByTitle_invalid_cursor() throws LibraryResourceBadRequestException {
+
+        bookService.searchBookByTitle(TestConstants.TEST_BOOK_TITLE, 8, "not-a-cursor", TestConstants.API_TRACE_ID);
+    }
+
+    @Test
+    public void getBooks_single_statement() {
+
+        List<Integer> bookIds = Arrays.asList(firstBookId + 1, -1, firstBookId, firstBookId + 2);
+        BookBatchResponse response = bookService.getBooks(bookIds, TestConstants.API_TRACE_ID);
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        // Books are built from a projection, no entities are loaded into the persistence context
+        assertEquals(0, statistics.getEntityLoadCount());
+        assertEquals(3, response.getBooks().size());
+        assertEquals(Integer.valueOf(firstBookId + 1), response.getBooks().get(0).getBookId());
+        assertEquals(Integer.valueOf(firstBookId), response.getBooks().get(1).getBookId());
+        assertEquals(Collections.singletonList(-1), response.getMissingBookIds());
+        response.getBooks().forEach(book -> assertEquals(AUTHORS_PER_BOOK, book.getAuthors().size()));
+    }
+
+    @Test
+    public void getCachedBook_etag_changes_with_the_book() throws LibraryResourceNotFoundException {
+
+        CachedBook cachedBook = bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID);
+        String eTag = cachedBook.getETag();
+        assertEquals(1, statistics.getPrepareStatementCount());
+        // Answered from the cache entry, the ETag and the Book both
+        assertSame(cachedBook, bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID));
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        Book book = new Book();
+        book.setBookId(firstBookId);
+        book.setEdition("Second Edition");
+        bookService.updateBook(book, TestConstants.API_TRACE_ID);
+        testEntityManager.flush();
+        cachedBook = bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID);
+        assertEquals("Second Edition", cachedBook.getBook().getEdition());
+        assertNotEquals(eTag, cachedBook.getETag());
+        String updatedETag = cachedBook.getETag();
+
+        bookAvailabilityLedger.issue(firstBookId);
+        bookService.bookStatusChanged(firstBookId);
+        cachedBook = bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID);
+        assertEquals(1, cachedBook.getBook().getBookStatus().getNumberOfCopiesIssued());
+        assertNotEquals(updatedETag, cachedBook.getETag());
+        String issuedETag = cachedBook.getETag();
+
+        Author author = new Author();
+        author.setAuthorId(cachedBook.getBook().getAuthors().iterator().next().getAuthorId());
+        author.setDateOfBirth(LocalDate.now().minusYears(40));
+        new AuthorService(authorRepository, bookCache).updateAuthor(author, TestConstants.API_TRACE_ID);
+        testEntityManager.flush();
+        assertNotEquals(issuedETag, bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID).getETag());
+    }
+
+    @Test
+    public void getCachedBook_etag_is_the_same_however_the_book_is_loaded() throws LibraryResourceNotFoundException {
+
+        // Cached from the rows of a batch read
+        bookService.getBooks(Collections.singletonList(firstBookId), TestConstants.API_TRACE_ID);
+        String eTag = bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID).getETag();
+
+        // and from the entities
+        bookCache.evict(firstBookId);
+        assertEquals(eTag, bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID).getETag());
+    }
+
+    @Test(expected = LibraryResourceNotFoundException.class)
+    public void getCachedBook_not_found() throws LibraryResourceNotFoundException {
+
+        bookService.getCachedBook(-1, TestConstants.API_TRACE_ID);
+    }
+
+    @Test
+    public void restockBook_success() throws LibraryResourceNotFoundException, LibraryResourceBadRequestException {
+
+        String eTag = bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID).getETag();
+        BookStatus restocked = bookService.restockBook(firstBookId,
+                new BookStatus(BookStatusState.Inactive, 5, 0), TestConstants.API_TRACE_ID);
+        testEntityManager.flush();
+
+        assertEquals(5, restocked.getTotalNumberOfCopies());
+        assertEquals(BookStatusState.Inactive, restocked.getState());
+        assertEquals(5, bookService.getBook(firstBookId, TestConstants.API_TRACE_ID).getBookStatus().getTotalNumberOfCopies());
+        assertNotEquals(eTag, bookService.getCachedBook(firstBookId, TestConstants.API_TRACE_ID).getETag());
+    }
+
+    @Test(expected = LibraryResourceBadRequestException.class)
+    public void restockBook_fewer_copies_than_issued() throws LibraryResourceNotFoundException, LibraryResourceBadRequestException {
+
+        bookAvailabilityLedger.issue(firstBookId);
+        bookAvailabilityLedger.issue(firstBookId);
+
+        bookService.restockBook(firstBookId, new BookStatus(null, 1, 0), TestConstants.API_TRACE_ID);
+    }
+
+    @Test
+    public void addBookAuthors_two_statements_for_reads() throws LibraryResourceNotFoundException {
+
+        Set<Integer> authorIds = new HashSet<>();
+        authorRepository.findAll().forEach(ae -> {
+            if(authorIds.size() < 5) {
+                authorIds.add(ae.getAuthorId());
+            }
+        });
+        statistics.clear();
+
+        Book book = bookService.addBookAuthors(firstBookId, authorIds, TestConstants.API_TRACE_ID);
+
+        // One statement for the book graph and one for all the requested authors
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(authorIds.size(), book.getAuthors().size());
+    }
+}
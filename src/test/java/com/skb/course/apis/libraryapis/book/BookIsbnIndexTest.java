@@ -0,0 +1,82 @@
+package com.skb.course.apis.libraryapis.book;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookIsbnIndexTest {
+
+    @Mock
+    BookRepository bookRepository;
+
+    BookIsbnIndex bookIsbnIndex;
+
+    @Before
+    public void setUp() throws Exception {
+
+        when(bookRepository.findAllBookIdsAndIsbns()).thenReturn(Arrays.asList(
+                new Object[]{1, "9781617292545"},
+                new Object[]{2, "9780321349606"}
+        ));
+        bookIsbnIndex = new BookIsbnIndex(bookRepository, 10, 30, new SimpleMeterRegistry());
+        bookIsbnIndex.rebuild();
+    }
+
+    @Test
+    public void find_from_index() {
+
+        assertEquals(Integer.valueOf(1), bookIsbnIndex.find("9781617292545"));
+        assertEquals(Integer.valueOf(2), bookIsbnIndex.find("9780321349606"));
+        verify(bookRepository, never()).findByIsbn(anyString());
+    }
+
+    @Test
+    public void find_unknown_isbn_goes_to_db_once() {
+
+        assertNull(bookIsbnIndex.find("0000000000000"));
+        assertNull(bookIsbnIndex.find("0000000000000"));
+        assertNull(bookIsbnIndex.find("0000000000000"));
+
+        verify(bookRepository, times(1)).findByIsbn("0000000000000");
+    }
+
+    @Test
+    public void find_book_added_elsewhere() {
+
+        BookEntity bookEntity = mock(BookEntity.class);
+        when(bookEntity.getBookId()).thenReturn(3);
+        when(bookEntity.getIsbn()).thenReturn("9780134685991");
+        when(bookRepository.findByIsbn("9780134685991")).thenReturn(bookEntity);
+
+        assertEquals(Integer.valueOf(3), bookIsbnIndex.find("9780134685991"));
+        assertEquals(Integer.valueOf(3), bookIsbnIndex.find("9780134685991"));
+        verify(bookRepository, times(1)).findByIsbn("9780134685991");
+    }
+
+    @Test
+    public void add_clears_miss() {
+
+        assertNull(bookIsbnIndex.find("9780134685991"));
+        bookIsbnIndex.add(3, "9780134685991");
+
+        assertEquals(Integer.valueOf(3), bookIsbnIndex.find("9780134685991"));
+    }
+
+    @Test
+    public void remove() {
+
+        bookIsbnIndex.remove(1);
+
+        assertNull(bookIsbnIndex.find("9781617292545"));
+        verify(bookRepository, times(1)).findByIsbn("9781617292545");
+    }
+}
@@ -0,0 +1,123 @@
+package com.skb.course.apis.libraryapis.book;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookIssuePipelineTest {
+
+    @Mock
+    BookAvailabilityLedger bookAvailabilityLedger;
+
+    @Mock
+    BookService bookService;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    BookIssuePipeline bookIssuePipeline;
+
+    @Before
+    public void setUp() {
+        when(bookAvailabilityLedger.getShardCount()).thenReturn(8);
+    }
+
+    @After
+    public void tearDown() {
+        bookIssuePipeline.stop();
+    }
+
+    @Test
+    public void each_book_is_always_issued_by_the_same_worker() throws Exception {
+
+        when(bookAvailabilityLedger.shardIndexOf(anyInt())).thenAnswer(i -> (int) i.getArgument(0) & 7);
+        Map<Integer, String> workerOfBook = new ConcurrentHashMap<>();
+        when(bookAvailabilityLedger.issue(anyInt())).thenAnswer(i -> {
+            String worker = Thread.currentThread().getName();
+            assertEquals(worker, workerOfBook.computeIfAbsent(i.getArgument(0), bookId -> worker));
+            return BookAvailabilityLedger.IssueResult.Issued;
+        });
+        bookIssuePipeline = new BookIssuePipeline(bookAvailabilityLedger, bookService, meterRegistry, true, 4, 100, 1);
+
+        for(int i = 0; i < 20; i++) {
+            Map<Integer, BookAvailabilityLedger.IssueResult> results =
+                    bookIssuePipeline.issue(Arrays.asList(1, 2, 3, 4, 5)).get(10, TimeUnit.SECONDS);
+            assertEquals(5, results.size());
+        }
+        // Books 1 and 5 share a worker (4 workers over 8 shards), the others have one each
+        assertEquals(workerOfBook.get(1), workerOfBook.get(5));
+        assertEquals(4, workerOfBook.values().stream().distinct().count());
+    }
+
+    @Test
+    public void full_queue_is_refused_and_queued_copies_are_put_back() throws Exception {
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch putBack = new CountDownLatch(1);
+        when(bookAvailabilityLedger.issue(anyInt())).thenAnswer(i -> {
+            if((int) i.getArgument(0) == 1) {
+                blocked.countDown();
+                release.await();
+            }
+            return BookAvailabilityLedger.IssueResult.Issued;
+        });
+        when(bookAvailabilityLedger.returnCopy(2)).thenAnswer(i -> {
+            putBack.countDown();
+            return true;
+        });
+        bookIssuePipeline = new BookIssuePipeline(bookAvailabilityLedger, bookService, meterRegistry, true, 1, 1, 1);
+
+        bookIssuePipeline.issue(Collections.singleton(1));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        try {
+            // Book 2 fills the queue, Book 3 doesn't fit
+            bookIssuePipeline.issue(Arrays.asList(2, 3));
+            fail("Expected the request to be refused");
+        } catch(RejectedExecutionException e) {
+            assertEquals(1, meterRegistry.get(BookIssuePipeline.REJECTED_METRIC).counter().count(), 0);
+        }
+        assertEquals(1, meterRegistry.get(BookIssuePipeline.QUEUE_DEPTH_METRIC).gauge().value(), 0);
+
+        release.countDown();
+        assertTrue(putBack.await(10, TimeUnit.SECONDS));
+        verify(bookService, timeout(10000)).bookStatusChanged(2);
+        verify(bookAvailabilityLedger, never()).issue(3);
+    }
+
+    @Test
+    public void failed_issue_puts_the_other_copies_back() throws Exception {
+
+        when(bookAvailabilityLedger.issue(1)).thenReturn(BookAvailabilityLedger.IssueResult.Issued);
+        when(bookAvailabilityLedger.issue(2)).thenThrow(new UncheckedIOException(new IOException("disk full")));
+        bookIssuePipeline = new BookIssuePipeline(bookAvailabilityLedger, bookService, meterRegistry, true, 1, 10, 1);
+
+        try {
+            bookIssuePipeline.issue(Arrays.asList(1, 2)).get(10, TimeUnit.SECONDS);
+            fail("Expected the issue to fail");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+        verify(bookAvailabilityLedger, times(1)).returnCopy(1);
+        verify(bookService, times(1)).bookStatusChanged(1);
+    }
+}
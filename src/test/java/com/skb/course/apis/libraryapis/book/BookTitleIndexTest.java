@@ -0,0 +1,98 @@
+package com.skb.course.apis.libraryapis.book;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookTitleIndexTest {
+
+    @Mock
+    BookRepository bookRepository;
+
+    BookTitleIndex bookTitleIndex;
+
+    @Before
+    public void setUp() throws Exception {
+
+        when(bookRepository.findAllBookIdsAndTitles()).thenReturn(Arrays.asList(
+                new Object[]{1, "Spring Boot In Action"},
+                new Object[]{2, "Learning Spring"},
+                new Object[]{3, "Java Concurrency In Practice"},
+                new Object[]{4, "Spring Boot In Action"},
+                new Object[]{5, "Effective Java"}
+        ));
+        bookTitleIndex = new BookTitleIndex(bookRepository);
+        bookTitleIndex.rebuild();
+    }
+
+    @Test
+    public void search_success() {
+
+        assertTrue(bookTitleIndex.isReady());
+        // Ordered by title, then Book Id
+        assertArrayEquals(new int[]{2, 1, 4}, bookTitleIndex.search("spring", null, 0, 10));
+        assertArrayEquals(new int[]{5, 3}, bookTitleIndex.search("JAVA", null, 0, 10));
+        assertArrayEquals(new int[]{3}, bookTitleIndex.search("cy In P", null, 0, 10));
+    }
+
+    @Test
+    public void search_short_query() {
+
+        assertArrayEquals(new int[]{5, 3}, bookTitleIndex.search("va", null, 0, 10));
+        assertEquals(4, bookTitleIndex.search("n", null, 0, 10).length);
+    }
+
+    @Test
+    public void search_no_match() {
+
+        assertEquals(0, bookTitleIndex.search("Kotlin", null, 0, 10).length);
+        // All trigrams are present, but not next to each other
+        assertEquals(0, bookTitleIndex.search("Spring Action", null, 0, 10).length);
+    }
+
+    @Test
+    public void search_pages() {
+
+        assertArrayEquals(new int[]{2, 1}, bookTitleIndex.search("spring", null, 0, 2));
+        assertArrayEquals(new int[]{4}, bookTitleIndex.search("spring", "Spring Boot In Action", 1, 2));
+        assertEquals(0, bookTitleIndex.search("spring", "Spring Boot In Action", 4, 2).length);
+    }
+
+    @Test
+    public void search_pages_ignoring_case() {
+
+        bookTitleIndex.add(6, "zebra spring");
+        bookTitleIndex.add(7, "Apple Spring");
+        bookTitleIndex.add(8, "SPRING basics");
+
+        // "Apple" and "zebra" are in alphabetical order whatever their case, as the DB would return them
+        assertArrayEquals(new int[]{7, 2, 8, 1, 4, 6}, bookTitleIndex.search("spring", null, 0, 10));
+        assertArrayEquals(new int[]{7, 2}, bookTitleIndex.search("spring", null, 0, 2));
+        assertArrayEquals(new int[]{8, 1}, bookTitleIndex.search("spring", "Learning Spring", 2, 2));
+        assertArrayEquals(new int[]{4, 6}, bookTitleIndex.search("spring", "Spring Boot In Action", 1, 2));
+        // A cursor of another case resumes at the same place
+        assertArrayEquals(new int[]{1, 4}, bookTitleIndex.search("spring", "spring basics", 8, 2));
+    }
+
+    @Test
+    public void add_update_remove() {
+
+        bookTitleIndex.add(6, "Spring Microservices");
+        assertArrayEquals(new int[]{2, 1, 4, 6}, bookTitleIndex.search("spring", null, 0, 10));
+
+        bookTitleIndex.add(6, "Kotlin Microservices");
+        assertArrayEquals(new int[]{2, 1, 4}, bookTitleIndex.search("spring", null, 0, 10));
+        assertArrayEquals(new int[]{6}, bookTitleIndex.search("kotlin", null, 0, 10));
+
+        bookTitleIndex.remove(1);
+        assertArrayEquals(new int[]{2, 4}, bookTitleIndex.search("spring", null, 0, 10));
+    }
+}
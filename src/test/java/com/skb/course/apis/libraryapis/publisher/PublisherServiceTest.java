@@ -79,6 +79,26 @@ public class PublisherServiceTest {
         verify(publisherRepository, times(1)).findById(123);
     }
 
+    @Test
+    public void getPublisherETag_success() throws LibraryResourceNotFoundException {
+
+        when(publisherRepository.findVersionByPublisherId(anyInt()))
+                .thenReturn(Optional.of(2));
+        String eTag = publisherService.getPublisherETag(123, TestConstants.API_TRACE_ID);
+
+        verify(publisherRepository, times(1)).findVersionByPublisherId(123);
+        verify(publisherRepository, never()).findById(anyInt());
+        assertEquals("2", eTag);
+    }
+
+    @Test(expected = LibraryResourceNotFoundException.class)
+    public void getPublisherETag_failure() throws LibraryResourceNotFoundException {
+
+        when(publisherRepository.findVersionByPublisherId(anyInt()))
+                .thenReturn(Optional.empty());
+        publisherService.getPublisherETag(123, TestConstants.API_TRACE_ID);
+    }
+
     @Test
     public void updatePublisher_success()
             throws LibraryResourceAlreadyExistException, LibraryResourceNotFoundException {
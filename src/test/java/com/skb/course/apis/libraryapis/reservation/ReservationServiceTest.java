@@ -0,0 +1,356 @@
+package com.skb.course.apis.libraryapis.reservation;
+
+import com.skb.course.apis.libraryapis.author.AuthorRepository;
+import com.skb.course.apis.libraryapis.book.BookAvailabilityLedger;
+import com.skb.course.apis.libraryapis.book.BookCache;
+import com.skb.course.apis.libraryapis.book.BookEntity;
+import com.skb.course.apis.libraryapis.book.BookIsbnIndex;
+import com.skb.course.apis.libraryapis.book.BookIssuePipeline;
+import com.skb.course.apis.libraryapis.book.BookRepository;
+import com.skb.course.apis.libraryapis.book.BookService;
+import com.skb.course.apis.libraryapis.book.BookStatusEntity;
+import com.skb.course.apis.libraryapis.book.BookStatusRepository;
+import com.skb.course.apis.libraryapis.book.BookStatusState;
+import com.skb.course.apis.libraryapis.book.BookTitleIndex;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import com.skb.course.apis.libraryapis.testutils.LibraryApiTestUtil;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.user.CirculationJournal;
+import com.skb.course.apis.libraryapis.user.IssueBookStatus;
+import com.skb.course.apis.libraryapis.user.UserBookEntityRepository;
+import com.skb.course.apis.libraryapis.user.UserRepository;
+import com.skb.course.apis.libraryapis.user.UserService;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Import({ReservationService.class, UserService.class, OptimisticLockRetry.class, BookAvailabilityLedger.class,
+        BookIssuePipeline.class, CirculationJournal.class, SimpleMeterRegistry.class})
+// Reservations change in the transactions of the issues and returns, which commit as they would from the controller
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ReservationServiceTest {
+
+    private static final int USERS = 8;
+
+    @MockBean
+    BookService bookService;
+
+    @MockBean
+    BookCache bookCache;
+
+    @MockBean
+    BCryptPasswordEncoder bCryptPasswordEncoder;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ReservationService reservationService;
+
+    @Autowired
+    ReservationRepository reservationRepository;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    UserBookEntityRepository userBookEntityRepository;
+
+    @Autowired
+    BookAvailabilityLedger bookAvailabilityLedger;
+
+    @Autowired
+    OptimisticLockRetry optimisticLockRetry;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookStatusRepository bookStatusRepository;
+
+    @Autowired
+    PublisherRepository publisherRepository;
+
+    @Autowired
+    AuthorRepository authorRepository;
+
+    List<Integer> userIds = new ArrayList<>();
+
+    PublisherEntity publisher;
+
+    @Before
+    public void setUp() {
+
+        publisher = new PublisherEntity(TestConstants.TEST_PUBLISHER_NAME, TestConstants.TEST_PUBLISHER_EMAIL,
+                TestConstants.TEST_PUBLISHER_PHONE);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.persist(publisher);
+            return null;
+        });
+        for(int i = 0; i < USERS; i++) {
+            userIds.add(userRepository.save(LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + i))
+                    .getUserId());
+        }
+    }
+
+    @After
+    public void tearDown() {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from ReservationEntity").executeUpdate();
+            entityManager.createQuery("delete from UserBookEntity").executeUpdate();
+            entityManager.createQuery("delete from BookStatusEntity").executeUpdate();
+            entityManager.createQuery("delete from BookEntity").executeUpdate();
+            entityManager.createQuery("delete from PublisherEntity").executeUpdate();
+            entityManager.createQuery("delete from UserEntity").executeUpdate();
+            return null;
+        });
+    }
+
+    @Test
+    public void available_copy_is_held_straight_away_and_issued_from_the_hold() throws Exception {
+
+        int bookId = createBook(1);
+
+        Reservation reservation = reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+
+        assertEquals(ReservationStatus.Held, reservation.getStatus());
+        assertNotNull(reservation.getHoldUntil());
+        assertEquals(1, issuedCopies(bookId));
+        assertEquals("No copies available", issue(user(1), bookId).getRemarks());
+
+        IssueBookStatus status = issue(user(0), bookId);
+
+        assertEquals("Issued", status.getStatus());
+        assertEquals("Reserved Book Issued", status.getRemarks());
+        assertEquals(1, issuedCopies(bookId));
+        assertEquals(0, reservationRepository.count());
+        assertFalse(reservationService.hasHeldCopy(user(0), bookId));
+    }
+
+    @Test(expected = LibraryResourceAlreadyExistException.class)
+    public void book_can_not_be_reserved_twice() throws Exception {
+
+        int bookId = createBook(1);
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+    }
+
+    @Test
+    public void returned_copy_is_held_for_the_first_user_waiting() throws Exception {
+
+        int bookId = createBook(1);
+        issue(user(0), bookId);
+        assertEquals(ReservationStatus.Waiting,
+                reservationService.reserve(bookId, user(1), TestConstants.API_TRACE_ID).getStatus());
+        reservationService.reserve(bookId, user(2), TestConstants.API_TRACE_ID);
+
+        userService.returnBooks(user(0), bookId, TestConstants.API_TRACE_ID);
+
+        assertEquals(1, issuedCopies(bookId));
+        assertTrue(reservationService.hasHeldCopy(user(1), bookId));
+        assertFalse(reservationService.hasHeldCopy(user(2), bookId));
+        assertEquals("No copies available", issue(user(2), bookId).getRemarks());
+        assertEquals("Reserved Book Issued", issue(user(1), bookId).getRemarks());
+    }
+
+    @Test
+    public void expired_hold_passes_to_the_next_user_then_back_on_the_shelf() throws Exception {
+
+        int bookId = createBook(1);
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+        reservationService.reserve(bookId, user(1), TestConstants.API_TRACE_ID);
+
+        reservationService.sweep(LocalDateTime.now().plusDays(3));
+
+        assertFalse(reservationService.hasHeldCopy(user(0), bookId));
+        assertTrue(reservationService.hasHeldCopy(user(1), bookId));
+        assertEquals(1, issuedCopies(bookId));
+        assertEquals(1, reservationRepository.count());
+
+        reservationService.sweep(LocalDateTime.now().plusDays(3));
+
+        assertFalse(reservationService.hasHeldCopy(user(1), bookId));
+        assertEquals(0, issuedCopies(bookId));
+        assertEquals(0, reservationRepository.count());
+    }
+
+    @Test
+    public void cancelled_hold_passes_to_the_next_user() throws Exception {
+
+        int bookId = createBook(1);
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+        reservationService.reserve(bookId, user(1), TestConstants.API_TRACE_ID);
+
+        reservationService.cancel(bookId, user(0), TestConstants.API_TRACE_ID);
+
+        assertTrue(reservationService.hasHeldCopy(user(1), bookId));
+        assertEquals(1, issuedCopies(bookId));
+    }
+
+    @Test
+    public void queues_are_rebuilt_on_start() throws Exception {
+
+        int bookId = createBook(1);
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+        reservationService.reserve(bookId, user(1), TestConstants.API_TRACE_ID);
+        reservationService.reserve(bookId, user(2), TestConstants.API_TRACE_ID);
+
+        ReservationService restarted = new ReservationService(reservationRepository, userRepository,
+                userBookEntityRepository, bookAvailabilityLedger, bookCache, transactionManager, 2880);
+        restarted.load();
+
+        assertTrue(restarted.hasHeldCopy(user(0), bookId));
+        assertTrue(new TransactionTemplate(transactionManager).execute(status ->
+                restarted.takeHeldCopy(user(0), bookId)));
+        // The Users waiting are still in the order they reserved
+        assertEquals(1, (int) new TransactionTemplate(transactionManager).execute(status ->
+                restarted.holdReturnedCopies(bookId, 1)));
+        assertTrue(restarted.hasHeldCopy(user(1), bookId));
+        assertFalse(restarted.hasHeldCopy(user(2), bookId));
+    }
+
+    @Test
+    public void deleted_book_takes_its_reservations_with_it() throws Exception {
+
+        int bookId = createBook(1);
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+        reservationService.reserve(bookId, user(1), TestConstants.API_TRACE_ID);
+        // The one in the context is a mock
+        BookService books = new BookService(bookRepository, publisherRepository, bookStatusRepository,
+                authorRepository, bookCache, new BookTitleIndex(bookRepository),
+                new BookIsbnIndex(bookRepository, 10, 30, new SimpleMeterRegistry()), optimisticLockRetry,
+                bookAvailabilityLedger, reservationService);
+
+        books.deleteBook(bookId, TestConstants.API_TRACE_ID);
+
+        assertFalse(bookRepository.existsById(bookId));
+        assertEquals(0, reservationRepository.count());
+        assertFalse(reservationService.hasHeldCopy(user(0), bookId));
+        try {
+            reservationService.cancel(bookId, user(1), TestConstants.API_TRACE_ID);
+            fail("Reservation of a deleted Book");
+        } catch(LibraryResourceNotFoundException e) {
+            // Gone from the queue too
+        }
+    }
+
+    @Test
+    public void deleted_user_passes_their_hold_to_the_next_user() throws Exception {
+
+        int bookId = createBook(1);
+        reservationService.reserve(bookId, user(0), TestConstants.API_TRACE_ID);
+        reservationService.reserve(bookId, user(1), TestConstants.API_TRACE_ID);
+
+        userService.deleteUser(user(0), TestConstants.API_TRACE_ID);
+
+        assertFalse(userRepository.existsById(user(0)));
+        assertTrue(reservationService.hasHeldCopy(user(1), bookId));
+        assertEquals(1, issuedCopies(bookId));
+        assertEquals(1, reservationRepository.count());
+    }
+
+    @Test
+    public void concurrent_returns_hold_one_copy_per_user_waiting() throws Exception {
+
+        int copies = 5;
+        int waiting = 3;
+        int bookId = createBook(copies);
+        for(int i = 0; i < copies; i++) {
+            issue(user(i), bookId);
+        }
+        for(int i = copies; i < copies + waiting; i++) {
+            reservationService.reserve(bookId, user(i), TestConstants.API_TRACE_ID);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(copies);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for(int i = 0; i < copies; i++) {
+                int userId = user(i);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    userService.returnBooks(userId, bookId, TestConstants.API_TRACE_ID);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for(Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(waiting, issuedCopies(bookId));
+        for(int i = copies; i < copies + waiting; i++) {
+            assertTrue(reservationService.hasHeldCopy(user(i), bookId));
+        }
+        assertEquals(0, userBookEntityRepository.count());
+    }
+
+    private int createBook(int copies) {
+
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            BookEntity book = new BookEntity(TestConstants.TEST_BOOK_ISBN, TestConstants.TEST_BOOK_TITLE,
+                    TestConstants.TEST_BOOK_YEAR_PUBLISHED, TestConstants.TEST_BOOK_EDITION);
+            book.setPublisher(entityManager.merge(publisher));
+            entityManager.persist(book);
+            entityManager.persist(new BookStatusEntity(book.getBookId(), BookStatusState.Active, copies, 0));
+            return book.getBookId();
+        });
+    }
+
+    private IssueBookStatus issue(int userId, int bookId) throws Exception {
+        return userService.issueBooks(userId, Collections.singleton(bookId), TestConstants.API_TRACE_ID)
+                .getIssueBookStatuses().iterator().next();
+    }
+
+    private int issuedCopies(int bookId) {
+        return bookAvailabilityLedger.getCounts(bookId)[1];
+    }
+
+    private int user(int i) {
+        return userIds.get(i);
+    }
+}
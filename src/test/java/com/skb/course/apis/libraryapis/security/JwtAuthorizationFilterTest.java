@@ -0,0 +1,74 @@
+package com.skb.course.apis.libraryapis.security;
+
+import com.auth0.jwt.JWT;
+import com.skb.course.apis.libraryapis.user.Role;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Date;
+import java.util.stream.Collectors;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class JwtAuthorizationFilterTest {
+
+    JwtAuthorizationFilter filter = new JwtAuthorizationFilter(mock(AuthenticationManager.class),
+            new VerifiedTokenCache(100, new SimpleMeterRegistry()));
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void claims_of_a_valid_token_are_the_principal() throws Exception {
+
+        Authentication authentication = filter(token("admin", 4210, "ADMIN", "MyApiSecret"));
+
+        JwtClaims claims = (JwtClaims) authentication.getPrincipal();
+        assertEquals("admin", claims.getSubject());
+        assertEquals(4210, claims.getUserId());
+        assertEquals(Role.ADMIN, claims.getRole());
+        assertTrue(claims.isAdmin());
+        assertEquals("ROLE_ADMIN", authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority).collect(Collectors.joining()));
+    }
+
+    @Test
+    public void token_signed_with_another_secret_is_not_authenticated() throws Exception {
+        assertNull(filter(token("admin", 4210, "ADMIN", "NotTheSecret")));
+    }
+
+    @Test
+    public void token_without_the_claims_is_not_authenticated() throws Exception {
+        assertNull(filter(SecurityConstants.BEARER_TOKEN_PREFIX + JWT.create().withSubject("user")
+                .sign(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes()))));
+    }
+
+    private Authentication filter(String authorizationHeader) throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(SecurityConstants.AUTHORIZATION_HEADER, authorizationHeader);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    private static String token(String subject, int userId, String role, String secret) {
+        return SecurityConstants.BEARER_TOKEN_PREFIX + JWT.create()
+                .withSubject(subject)
+                .withExpiresAt(new Date(System.currentTimeMillis() + SecurityConstants.EXPIRATION_TIME))
+                .withClaim("userId", userId)
+                .withClaim("role", role)
+                .sign(HMAC512(secret.getBytes()));
+    }
+}
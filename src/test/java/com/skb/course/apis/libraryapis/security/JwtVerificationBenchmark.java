@@ -0,0 +1,86 @@
+package com.skb.course.apis.libraryapis.security;
+
+import com.auth0.jwt.JWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+
+/**
+ * Token handling cost of a non-Admin request to an Admin only endpoint: verified by the filter, then for the role
+ * and again for the User Id to log, each time with a new verifier (as before), against verified once by the filter
+ * with the shared verifier, and against found in the {@link VerifiedTokenCache} (a token sent again).
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.skb.course.apis.libraryapis.security.JwtVerificationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtVerificationBenchmark {
+
+    private String authorizationHeader;
+    private VerifiedTokenCache verifiedTokenCache;
+
+    @Setup
+    public void setUp() {
+        authorizationHeader = SecurityConstants.BEARER_TOKEN_PREFIX + JWT.create()
+                .withSubject("user")
+                .withExpiresAt(new Date(System.currentTimeMillis() + SecurityConstants.EXPIRATION_TIME))
+                .withClaim("userId", 4211)
+                .withClaim("role", "USER")
+                .sign(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes()));
+        verifiedTokenCache = new VerifiedTokenCache(10000, new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public int verifiedThreeTimes() {
+
+        String token = authorizationHeader.replace(SecurityConstants.BEARER_TOKEN_PREFIX, "");
+        String subject = JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes())).build()
+                .verify(token).getSubject();
+        String role = JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes())).build()
+                .verify(token).getClaim("role").asString();
+        int userId = JWT.require(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes())).build()
+                .verify(token).getClaim("userId").asInt();
+        return subject.length() + role.length() + userId;
+    }
+
+    @Benchmark
+    public int verifiedOnce() {
+
+        JwtClaims claims = VerifiedTokenCache.verifyUncached(
+                authorizationHeader.substring(SecurityConstants.BEARER_TOKEN_PREFIX.length()));
+        return claims.getSubject().length() + (claims.isAdmin() ? 1 : 0) + claims.getUserId();
+    }
+
+    @Benchmark
+    public int verifiedBefore() {
+
+        JwtClaims claims = verifiedTokenCache.verify(
+                authorizationHeader.substring(SecurityConstants.BEARER_TOKEN_PREFIX.length()));
+        return claims.getSubject().length() + (claims.isAdmin() ? 1 : 0) + claims.getUserId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JwtVerificationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
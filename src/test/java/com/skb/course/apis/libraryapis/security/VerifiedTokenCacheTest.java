@@ -0,0 +1,86 @@
+package com.skb.course.apis.libraryapis.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Date;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import static org.junit.Assert.*;
+
+public class VerifiedTokenCacheTest {
+
+    SimpleMeterRegistry meterRegistry;
+
+    VerifiedTokenCache verifiedTokenCache;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        verifiedTokenCache = new VerifiedTokenCache(100, meterRegistry);
+    }
+
+    @Test
+    public void token_sent_again_is_not_verified_again() {
+
+        String token = token("user", 4211, SecurityConstants.EXPIRATION_TIME);
+
+        for(int i = 0; i < 3; i++) {
+            JwtClaims claims = verifiedTokenCache.verify(token);
+            assertEquals("user", claims.getSubject());
+            assertEquals(4211, claims.getUserId());
+        }
+
+        assertEquals(1, meterRegistry.get(VerifiedTokenCache.VERIFICATION_METRIC).timer().count());
+        assertEquals(2, meterRegistry.get("cache.gets").tag("cache", VerifiedTokenCache.CACHE_NAME)
+                .tag("result", "hit").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void token_with_the_signature_of_a_verified_one_is_verified() {
+
+        String token = token("user", 4211, SecurityConstants.EXPIRATION_TIME);
+        verifiedTokenCache.verify(token);
+        String[] parts = token.split("\\.");
+        String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                "{\"sub\":\"admin\",\"userId\":4210,\"role\":\"ADMIN\"}".getBytes());
+
+        try {
+            verifiedTokenCache.verify(parts[0] + "." + payload + "." + parts[2]);
+            fail("Expected the token to be rejected");
+        } catch(JWTVerificationException e) {
+            // expected
+        }
+        assertEquals(2, meterRegistry.get(VerifiedTokenCache.VERIFICATION_METRIC).timer().count());
+    }
+
+    @Test
+    public void token_is_verified_again_once_it_has_expired() throws Exception {
+
+        // exp is in seconds
+        long expiresAt = (System.currentTimeMillis() / 1000 + 1) * 1000;
+        String token = token("user", 4211, expiresAt - System.currentTimeMillis());
+        verifiedTokenCache.verify(token);
+
+        Thread.sleep(Math.max(0, expiresAt - System.currentTimeMillis()) + 100);
+        try {
+            verifiedTokenCache.verify(token);
+        } catch(JWTVerificationException e) {
+            // The verifier may or may not let a token through within the second it expired, either way it was asked
+        }
+        assertEquals(2, meterRegistry.get(VerifiedTokenCache.VERIFICATION_METRIC).timer().count());
+    }
+
+    private static String token(String subject, int userId, long expiresInMillis) {
+        return JWT.create()
+                .withSubject(subject)
+                .withExpiresAt(new Date(System.currentTimeMillis() + expiresInMillis))
+                .withClaim("userId", userId)
+                .withClaim("role", "USER")
+                .sign(HMAC512(SecurityConstants.SIGNING_SECRET.getBytes()));
+    }
+}
@@ -8,6 +8,7 @@ import com.skb.course.apis.libraryapis.publisher.Publisher;
 import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
 import com.skb.course.apis.libraryapis.user.User;
 import com.skb.course.apis.libraryapis.user.UserEntity;
+import com.skb.course.apis.libraryapis.user.UserSearchView;
 
 import java.time.LocalDate;
 import java.util.Optional;
@@ -67,6 +68,10 @@ public class LibraryApiTestUtil {
         return Optional.of(createUserEntity(username));
     }
 
+    public static UserSearchView createUserSearchView(String username) {
+        return new UserSearchView(username, TestConstants.TEST_USER_FIRST_NAME, TestConstants.TEST_USER_LAST_NAME);
+    }
+
     public static BookEntity createBookEntity() {
         BookEntity be = new BookEntity(TestConstants.TEST_BOOK_ISBN, TestConstants.TEST_BOOK_TITLE,
                 TestConstants.TEST_BOOK_YEAR_PUBLISHED, TestConstants.TEST_BOOK_EDITION);
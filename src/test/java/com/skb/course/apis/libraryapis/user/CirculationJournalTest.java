@@ -0,0 +1,80 @@
+package com.skb.course.apis.libraryapis.user;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CirculationJournalTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2019, 6, 1);
+
+    @Rule
+    public TemporaryFolder journalFolder = new TemporaryFolder();
+
+    @Test
+    public void events_are_read_back_in_the_order_they_were_appended() throws Exception {
+
+        CirculationJournal journal = open(1024);
+
+        journal.append(CirculationEventType.Issue, 1, Arrays.asList(10, 11), TODAY);
+        journal.append(CirculationEventType.Reissue, 1, 10, TODAY.plusDays(7));
+        journal.append(CirculationEventType.Return, 1, 11, TODAY.plusDays(8));
+
+        assertEquals(Arrays.asList("Issue,1,10,2019-06-01", "Issue,1,11,2019-06-01", "Reissue,1,10,2019-06-08",
+                "Return,1,11,2019-06-09"), scan(journal));
+    }
+
+    @Test
+    public void full_segments_roll_over_to_new_ones() throws Exception {
+
+        // 4 records per segment
+        CirculationJournal journal = open(4 * CirculationJournal.RECORD_SIZE);
+        List<String> expected = new ArrayList<>();
+        for(int bookId = 1; bookId <= 10; bookId++) {
+            journal.append(CirculationEventType.Issue, 7, bookId, TODAY);
+            expected.add("Issue,7," + bookId + ",2019-06-01");
+        }
+
+        assertEquals(3, journalFolder.getRoot().list().length);
+        assertEquals(expected, scan(journal));
+    }
+
+    @Test
+    public void reopened_journal_appends_after_the_last_event() throws Exception {
+
+        CirculationJournal journal = open(4 * CirculationJournal.RECORD_SIZE);
+        journal.append(CirculationEventType.Issue, 1, Arrays.asList(1, 2, 3, 4, 5), TODAY);
+        journal.close();
+
+        CirculationJournal reopened = open(4 * CirculationJournal.RECORD_SIZE);
+        reopened.append(CirculationEventType.Return, 1, Arrays.asList(1, 2, 3, 4), TODAY);
+
+        List<String> events = scan(reopened);
+        assertEquals(9, events.size());
+        assertEquals("Issue,1,5,2019-06-01", events.get(4));
+        assertEquals("Return,1,1,2019-06-01", events.get(5));
+        assertEquals(3, journalFolder.getRoot().list().length);
+    }
+
+    private CirculationJournal open(int segmentSize) throws Exception {
+
+        CirculationJournal journal = new CirculationJournal(journalFolder.getRoot().getPath(), segmentSize);
+        journal.open();
+        return journal;
+    }
+
+    private static List<String> scan(CirculationJournal journal) throws Exception {
+
+        List<String> events = new ArrayList<>();
+        journal.scan((userId, bookId, type, epochDay) ->
+                events.add(type + "," + userId + "," + bookId + "," + LocalDate.ofEpochDay(epochDay)));
+        return events;
+    }
+}
@@ -0,0 +1,158 @@
+package com.skb.course.apis.libraryapis.user;
+
+import com.skb.course.apis.libraryapis.testutils.LibraryApiTestUtil;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inserts the same Users and loans with ids taken one at a time (as before) and in blocks, logging the throughput of
+ * each and checking the number of round trips to the sequences.
+ */
+@RunWith(Enclosed.class)
+public class IdGenerationBenchmarkTest {
+
+    private static Logger logger = LoggerFactory.getLogger(IdGenerationBenchmarkTest.class);
+
+    private static final int ROWS = 2000;
+    private static final int ROWS_PER_TRANSACTION = 100;
+    // spring.jpa.properties.hibernate.jdbc.batch_size of the tests
+    private static final int JDBC_BATCH_SIZE = 50;
+
+    @DataJpaTest(properties = {"spring.jpa.properties.hibernate.generate_statistics=true",
+            "spring.jpa.properties.library.id.block.size=1"})
+    public static class OneIdAtATime extends Benchmark {
+
+        @Test
+        public void insert() {
+            run(1);
+        }
+    }
+
+    @DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+    public static class Pooled extends Benchmark {
+
+        @Test
+        public void insert() {
+            run(50);
+        }
+    }
+
+    @RunWith(SpringRunner.class)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public abstract static class Benchmark {
+
+        @PersistenceContext
+        EntityManager entityManager;
+
+        @Autowired
+        EntityManagerFactory entityManagerFactory;
+
+        @Autowired
+        PlatformTransactionManager transactionManager;
+
+        @Autowired
+        UserRepository userRepository;
+
+        @Autowired
+        UserBookEntityRepository userBookEntityRepository;
+
+        @After
+        public void tearDown() {
+
+            new TransactionTemplate(transactionManager).execute(status -> {
+                entityManager.createQuery("delete from UserBookEntity").executeUpdate();
+                entityManager.createQuery("delete from UserEntity").executeUpdate();
+                return null;
+            });
+        }
+
+        void run(int blockSize) {
+
+            Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+            // Warm up, so that the first of the two doesn't pay for the JIT
+            insertUsers(new HashSet<>());
+            insertLoans();
+            tearDown();
+
+            Set<Integer> ids = new HashSet<>();
+            statistics.clear();
+            long start = System.nanoTime();
+            insertUsers(ids);
+            long userMillis = (System.nanoTime() - start) / 1_000_000;
+            long userStatements = statistics.getPrepareStatementCount();
+
+            statistics.clear();
+            start = System.nanoTime();
+            insertLoans();
+            long loanMillis = (System.nanoTime() - start) / 1_000_000;
+            long loanStatements = statistics.getPrepareStatementCount();
+
+            logger.info("Id block size {}: {} Users in {} ms ({} statements), {} loans in {} ms ({} statements)",
+                    blockSize, ROWS, userMillis, userStatements, ROWS, loanMillis, loanStatements);
+
+            assertEquals(ROWS, ids.size());
+            assertEquals(ROWS, userBookEntityRepository.count());
+            // The batched inserts, plus one trip to the sequence per block of ids
+            long maxStatements = ROWS / JDBC_BATCH_SIZE + (ROWS + blockSize - 1) / blockSize + 1;
+            assertTrue(userStatements + " statements", userStatements <= maxStatements);
+            assertTrue(loanStatements + " statements", loanStatements <= maxStatements);
+        }
+
+        private void insertUsers(Set<Integer> ids) {
+
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            for(int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+                int first = from;
+                transactionTemplate.execute(status -> {
+                    List<UserEntity> users = new ArrayList<>(ROWS_PER_TRANSACTION);
+                    for(int i = first; i < first + ROWS_PER_TRANSACTION; i++) {
+                        users.add(LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + i));
+                    }
+                    userRepository.saveAll(users).forEach(user -> ids.add(user.getUserId()));
+                    return null;
+                });
+            }
+        }
+
+        private void insertLoans() {
+
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            for(int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+                int first = from;
+                transactionTemplate.execute(status -> {
+                    List<UserBookEntity> loans = new ArrayList<>(ROWS_PER_TRANSACTION);
+                    for(int i = first; i < first + ROWS_PER_TRANSACTION; i++) {
+                        loans.add(new UserBookEntity(i, i, LocalDate.now(), LocalDate.now().plusDays(14), 1));
+                    }
+                    userBookEntityRepository.saveAll(loans);
+                    return null;
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.skb.course.apis.libraryapis.user;
+
+import com.skb.course.apis.libraryapis.book.BookAvailabilityLedger;
+import com.skb.course.apis.libraryapis.book.BookCache;
+import com.skb.course.apis.libraryapis.book.BookEntity;
+import com.skb.course.apis.libraryapis.book.BookIssuePipeline;
+import com.skb.course.apis.libraryapis.book.BookRepository;
+import com.skb.course.apis.libraryapis.book.BookService;
+import com.skb.course.apis.libraryapis.book.BookStatusEntity;
+import com.skb.course.apis.libraryapis.book.BookStatusRepository;
+import com.skb.course.apis.libraryapis.book.BookStatusState;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.publisher.PublisherEntity;
+import com.skb.course.apis.libraryapis.reservation.ReservationService;
+import com.skb.course.apis.libraryapis.testutils.LibraryApiTestUtil;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({UserService.class, OptimisticLockRetry.class, BookAvailabilityLedger.class, BookIssuePipeline.class,
+        ReservationService.class, CirculationJournal.class, SimpleMeterRegistry.class})
+// Every issue and return commits in its own transaction, as it would when called from the controller
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class IssueBooksTest {
+
+    private static final int THREADS = 32;
+    private static final int COPIES = 5;
+    private static final int BOOKS = 10;
+
+    @MockBean
+    BookService bookService;
+
+    @MockBean
+    BookCache bookCache;
+
+    @MockBean
+    BCryptPasswordEncoder bCryptPasswordEncoder;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    UserBookEntityRepository userBookEntityRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookStatusRepository bookStatusRepository;
+
+    @Autowired
+    BookAvailabilityLedger bookAvailabilityLedger;
+
+    @Autowired
+    CirculationJournal circulationJournal;
+
+    int bookId;
+
+    List<Integer> bookIds = new ArrayList<>();
+
+    List<Integer> userIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            PublisherEntity publisher = new PublisherEntity(TestConstants.TEST_PUBLISHER_NAME,
+                    TestConstants.TEST_PUBLISHER_EMAIL, TestConstants.TEST_PUBLISHER_PHONE);
+            entityManager.persist(publisher);
+            for(int i = 0; i < BOOKS; i++) {
+                BookEntity book = new BookEntity(TestConstants.TEST_BOOK_ISBN + i, TestConstants.TEST_BOOK_TITLE,
+                        TestConstants.TEST_BOOK_YEAR_PUBLISHED, TestConstants.TEST_BOOK_EDITION);
+                book.setPublisher(publisher);
+                entityManager.persist(book);
+                entityManager.persist(new BookStatusEntity(book.getBookId(), BookStatusState.Active, COPIES, 0));
+                bookIds.add(book.getBookId());
+            }
+            return null;
+        });
+        bookId = bookIds.get(0);
+
+        for(int i = 0; i < THREADS; i++) {
+            userIds.add(userRepository.save(LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + i))
+                    .getUserId());
+        }
+    }
+
+    @After
+    public void tearDown() {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from UserBookEntity").executeUpdate();
+            entityManager.createQuery("delete from BookStatusEntity").executeUpdate();
+            entityManager.createQuery("delete from BookEntity").executeUpdate();
+            entityManager.createQuery("delete from PublisherEntity").executeUpdate();
+            entityManager.createQuery("delete from UserEntity").executeUpdate();
+            return null;
+        });
+    }
+
+    @Test
+    public void issueBooks_never_issues_more_copies_than_there_are() throws Exception {
+
+        List<IssueBookStatus> statuses = hammer(userId -> {
+            IssueBookResponse response = userService.issueBooks(userId, Collections.singleton(bookId),
+                    TestConstants.API_TRACE_ID);
+            return response.getIssueBookStatuses().iterator().next();
+        });
+
+        assertEquals(COPIES, statuses.stream().filter(s -> s.getStatus().equals("Issued")).count());
+        assertEquals(THREADS - COPIES, statuses.stream()
+                .filter(s -> s.getRemarks().equals("No copies available")).count());
+        bookAvailabilityLedger.flush();
+        assertEquals(COPIES, bookStatusRepository.findById(bookId).get().getNumberOfCopiesIssued());
+        assertEquals(COPIES, userBookEntityRepository.count());
+    }
+
+    @Test
+    public void issue_and_return_keep_the_count() throws Exception {
+
+        hammer(userId -> {
+            for(int i = 0; i < 10; i++) {
+                IssueBookStatus status = userService.issueBooks(userId, Collections.singleton(bookId),
+                        TestConstants.API_TRACE_ID).getIssueBookStatuses().iterator().next();
+                int issued = bookAvailabilityLedger.getCounts(bookId)[1];
+                assertTrue(issued >= 0 && issued <= COPIES);
+                if(status.getStatus().equals("Issued")) {
+                    userService.returnBooks(userId, bookId, TestConstants.API_TRACE_ID);
+                }
+            }
+            return null;
+        });
+
+        bookAvailabilityLedger.flush();
+        BookStatusEntity bookStatus = bookStatusRepository.findById(bookId).get();
+        assertEquals(0, bookStatus.getNumberOfCopiesIssued());
+        assertTrue(bookStatus.getVersion() > 0);
+        assertEquals(0, userBookEntityRepository.count());
+    }
+
+    @Test
+    public void issueBooks_round_trips_do_not_grow_with_the_number_of_books() throws Exception {
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        userService.issueBooks(userIds.get(0), Collections.singleton(bookId), TestConstants.API_TRACE_ID);
+        long oneBook = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        IssueBookResponse response = userService.issueBooks(userIds.get(1), new HashSet<>(bookIds),
+                TestConstants.API_TRACE_ID);
+        long tenBooks = statistics.getPrepareStatementCount();
+
+        assertEquals(BOOKS, response.getIssueBookStatuses().stream().filter(s -> s.getStatus().equals("Issued")).count());
+        assertEquals(BOOKS + 1, userBookEntityRepository.count());
+        // The user, the books' counts (read into the ledger), the user's loans and one batch of USER_BOOK inserts.
+        // Loan ids come from user_book_sequence in blocks, so at most one trip there.
+        assertTrue(oneBook + " statements", oneBook == 4 || oneBook == 4 + 1);
+        assertTrue(tenBooks + " statements", tenBooks == 4 || tenBooks == 4 + 1);
+    }
+
+    @Test
+    public void bulk_return_round_trips_do_not_grow_with_the_number_of_returns() throws Exception {
+
+        for(int i = 0; i < 2; i++) {
+            userService.issueBooks(userIds.get(i), new HashSet<>(bookIds), TestConstants.API_TRACE_ID);
+        }
+        List<BookReturn> bookReturns = new ArrayList<>();
+        for(int i = 0; i < 2; i++) {
+            for(Integer id : bookIds) {
+                bookReturns.add(new BookReturn(userIds.get(i), id));
+            }
+        }
+        // Sent twice, a User that doesn't exist and a Book that isn't issued to the User
+        bookReturns.add(new BookReturn(userIds.get(0), bookId));
+        bookReturns.add(new BookReturn(-1, bookId));
+        bookReturns.add(new BookReturn(userIds.get(2), bookId));
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        ReturnBookResponse response = userService.returnBooks(bookReturns, TestConstants.API_TRACE_ID);
+        long statements = statistics.getPrepareStatementCount();
+
+        assertEquals(2 * BOOKS, response.getReturned());
+        List<ReturnBookStatus> statuses = response.getReturnBookStatuses();
+        assertEquals(bookReturns.size(), statuses.size());
+        assertTrue(statuses.subList(0, 2 * BOOKS).stream().allMatch(s -> s.getStatus().equals("Returned")));
+        assertTrue(statuses.get(2 * BOOKS).getRemarks().contains("has not been issued"));
+        assertTrue(statuses.get(2 * BOOKS + 1).getRemarks().contains("Not Found"));
+        assertTrue(statuses.get(2 * BOOKS + 2).getRemarks().contains("has not been issued"));
+        // The users, their loans and one delete
+        assertEquals(3, statements);
+        assertEquals(0, userBookEntityRepository.count());
+        for(Integer id : bookIds) {
+            assertEquals(0, bookAvailabilityLedger.getCounts(id)[1]);
+        }
+        bookAvailabilityLedger.flush();
+        assertEquals(0, bookStatusRepository.findById(bookId).get().getNumberOfCopiesIssued());
+    }
+
+    @Test
+    public void issues_reissues_and_returns_are_journaled() throws Exception {
+
+        int userId = userIds.get(0);
+        List<String> before = journaledEvents();
+        userService.issueBooks(userId, new HashSet<>(bookIds.subList(0, 2)), TestConstants.API_TRACE_ID);
+        userService.issueBooks(userId, Collections.singleton(bookId), TestConstants.API_TRACE_ID);
+        userService.returnBooks(userId, bookId, TestConstants.API_TRACE_ID);
+        userService.returnBooks(Collections.singletonList(new BookReturn(userId, bookIds.get(1))),
+                TestConstants.API_TRACE_ID);
+        // Not issued to the User, nothing happened
+        userService.returnBooks(Collections.singletonList(new BookReturn(userId, bookIds.get(2))),
+                TestConstants.API_TRACE_ID);
+
+        List<String> events = journaledEvents();
+        List<String> journaled = events.subList(before.size(), events.size());
+        assertEquals(5, journaled.size());
+        assertEquals(new HashSet<>(Arrays.asList("Issue," + userId + "," + bookId,
+                "Issue," + userId + "," + bookIds.get(1))), new HashSet<>(journaled.subList(0, 2)));
+        assertEquals("Reissue," + userId + "," + bookId, journaled.get(2));
+        assertEquals("Return," + userId + "," + bookId, journaled.get(3));
+        assertEquals("Return," + userId + "," + bookIds.get(1), journaled.get(4));
+    }
+
+    @Test
+    public void loans_are_listed_soonest_due_first_one_query_per_page() throws Exception {
+
+        int userId = userIds.get(0);
+        userService.issueBooks(userId, new HashSet<>(bookIds), TestConstants.API_TRACE_ID);
+        // Loans of the first 4 Books are due on different days, the others all on the same day
+        new TransactionTemplate(transactionManager).execute(status -> {
+            for(int i = 0; i < 4; i++) {
+                entityManager.createQuery("update UserBookEntity ub set ub.returnDate = :returnDate where ub.bookId = :bookId")
+                        .setParameter("returnDate", LocalDate.now().plusDays(i + 1))
+                        .setParameter("bookId", bookIds.get(i))
+                        .executeUpdate();
+            }
+            return null;
+        });
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        List<Integer> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            statistics.clear();
+            UserLoanResponse page = userService.getLoans(userId, null, 3, cursor, TestConstants.API_TRACE_ID);
+            assertEquals(1, statistics.getPrepareStatementCount());
+            page.getLoans().forEach(loan -> {
+                assertEquals(TestConstants.TEST_BOOK_TITLE, loan.getTitle());
+                assertNotNull(loan.getIsbn());
+                listed.add(loan.getBookId());
+            });
+            cursor = page.getNextCursor();
+        } while(cursor != null);
+
+        assertEquals(BOOKS, listed.size());
+        assertEquals(bookIds.subList(0, 4), listed.subList(0, 4));
+        assertEquals(new HashSet<>(bookIds), new HashSet<>(listed));
+
+        UserLoanResponse dueSoon = userService.getLoans(userId, LocalDate.now().plusDays(3), 20, null,
+                TestConstants.API_TRACE_ID);
+        assertEquals(bookIds.subList(0, 2), dueSoon.getLoans().stream().map(UserLoan::getBookId).collect(Collectors.toList()));
+        assertNull(dueSoon.getNextCursor());
+
+        assertTrue(userService.getLoans(userIds.get(1), null, 20, null, TestConstants.API_TRACE_ID).getLoans().isEmpty());
+        try {
+            userService.getLoans(-1, null, 20, null, TestConstants.API_TRACE_ID);
+            fail("Expected the User not to be found");
+        } catch(LibraryResourceNotFoundException e) {
+            // expected
+        }
+    }
+
+    private List<String> journaledEvents() throws Exception {
+
+        List<String> events = new ArrayList<>();
+        circulationJournal.scan((userId, bookId, type, epochDay) -> {
+            assertEquals(LocalDate.now().toEpochDay(), epochDay);
+            events.add(type + "," + userId + "," + bookId);
+        });
+        return events;
+    }
+
+    // Runs the task once per user, all users at the same time
+    private <T> List<T> hammer(UserTask<T> task) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>(THREADS);
+        try {
+            for(Integer userId : userIds) {
+                futures.add(executor.submit((Callable<T>) () -> {
+                    start.await();
+                    return task.run(userId);
+                }));
+            }
+            start.countDown();
+
+            List<T> results = new ArrayList<>(THREADS);
+            for(Future<T> future : futures) {
+                results.add(future.get(60, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface UserTask<T> {
+        T run(int userId) throws Exception;
+    }
+}
@@ -0,0 +1,119 @@
+package com.skb.course.apis.libraryapis.user;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+// Every chunk is read in a transaction of its own, as in the scheduled scan
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class OverdueLoanScannerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2019, 6, 1);
+
+    @Rule
+    public TemporaryFolder reportFolder = new TemporaryFolder();
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    UserBookEntityRepository userBookEntityRepository;
+
+    @Before
+    public void setUp() {
+
+        List<UserBookEntity> loans = new ArrayList<>();
+        // User 1: 3 overdue loans, all due on the same day so that chunks break within a day
+        for(int bookId = 1; bookId <= 3; bookId++) {
+            loans.add(loan(1, bookId, TODAY.minusDays(10)));
+        }
+        // User 2: 2 overdue loans of Books 1 and 4, one due today (not overdue)
+        loans.add(loan(2, 1, TODAY.minusDays(1)));
+        loans.add(loan(2, 4, TODAY.minusDays(30)));
+        loans.add(loan(2, 5, TODAY));
+        // User 3: nothing overdue
+        loans.add(loan(3, 1, TODAY.plusDays(7)));
+        new TransactionTemplate(transactionManager).execute(status -> userBookEntityRepository.saveAll(loans));
+    }
+
+    @After
+    public void tearDown() {
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from UserBookEntity").executeUpdate();
+            return null;
+        });
+    }
+
+    @Test
+    public void overdue_loans_are_counted_per_user_and_per_book() throws Exception {
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        OverdueLoanScanner scanner = new OverdueLoanScanner(userBookEntityRepository, 2, 0,
+                reportFolder.getRoot().getPath());
+
+        Path report = scanner.scan(TODAY);
+
+        assertEquals(reportFolder.getRoot().toPath().resolve("overdue-2019-06-01.csv"), report);
+        List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+        assertEquals("# Loans due before 2019-06-01: 5 overdue, 2 Users, 4 Books", lines.get(0));
+        assertEquals("kind,id,overdueLoans", lines.get(1));
+        assertEquals(new HashSet<>(Arrays.asList("user,1,3", "user,2,2",
+                "book,1,2", "book,2,1", "book,3,1", "book,4,1")), new HashSet<>(lines.subList(2, lines.size())));
+        // 5 loans, 2 at a time
+        assertEquals(3, statistics.getPrepareStatementCount());
+        // Only the finished report is left
+        assertEquals(1, reportFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void report_of_a_day_with_nothing_overdue_is_empty() throws Exception {
+
+        OverdueLoanScanner scanner = new OverdueLoanScanner(userBookEntityRepository, 1000, 0,
+                reportFolder.getRoot().getPath());
+
+        List<String> lines = Files.readAllLines(scanner.scan(TODAY.minusDays(30)), StandardCharsets.UTF_8);
+
+        assertEquals(Arrays.asList("# Loans due before 2019-05-02: 0 overdue, 0 Users, 0 Books",
+                "kind,id,overdueLoans"), lines);
+    }
+
+    private static UserBookEntity loan(int userId, int bookId, LocalDate returnDate) {
+        return new UserBookEntity(userId, bookId, returnDate.minusDays(14), returnDate, 1);
+    }
+}
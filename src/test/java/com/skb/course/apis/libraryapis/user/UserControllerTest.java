@@ -3,6 +3,7 @@ package com.skb.course.apis.libraryapis.user;
 import com.skb.course.apis.libraryapis.testutils.LibraryApiIntegrationTestUtil;
 import com.skb.course.apis.libraryapis.testutils.LibraryApiTestUtil;
 import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.util.NdJsonWriter;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -19,6 +20,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.DefaultResponseErrorHandler;
 import org.springframework.web.client.RestTemplate;
@@ -384,4 +386,35 @@ public class UserControllerTest {
             Assert.assertTrue(libraryUser.getLastName().contains(TestConstants.TEST_USER_LAST_NAME));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void searchUsers_ndjson_success() {
+
+        // Register 10 users
+        for(int i=0; i<10; i++) {
+            libraryApiIntegrationTestUtil.registerNewUser("searchUsers.ndjson.success" + i);
+        }
+
+        URI searchUri = null;
+        try {
+            searchUri = new URI(TestConstants.USER_API_SEARCH_URI + "?firstName=" + TestConstants.TEST_USER_FIRST_NAME
+                    + "&lastName=" + TestConstants.TEST_USER_LAST_NAME);
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+        }
+
+        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+        headers.add("Accept", NdJsonWriter.APPLICATION_NDJSON_VALUE);
+        ResponseEntity<String> response = testRestTemplate.exchange(searchUri, HttpMethod.GET,
+                new HttpEntity<Object>(headers), String.class);
+
+        Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assert.assertTrue(response.getHeaders().getContentType().isCompatibleWith(NdJsonWriter.APPLICATION_NDJSON));
+        // One User per line
+        String[] lines = response.getBody().split("\n");
+        Assert.assertTrue(lines.length >= 10);
+        for(String line : lines) {
+            Assert.assertTrue(line.startsWith("{") && line.contains(TestConstants.TEST_USER_FIRST_NAME));
+        }
+    }
+}
@@ -2,15 +2,20 @@ package com.skb.course.apis.libraryapis.user;
 
 import com.skb.course.apis.libraryapis.book.*;
 import com.skb.course.apis.libraryapis.publisher.PublisherRepository;
+import com.skb.course.apis.libraryapis.reservation.ReservationService;
 import com.skb.course.apis.libraryapis.user.User;
 import com.skb.course.apis.libraryapis.user.UserEntity;
 import com.skb.course.apis.libraryapis.user.UserRepository;
+import com.skb.course.apis.libraryapis.user.UserSearchView;
 import com.skb.course.apis.libraryapis.user.UserService;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceAlreadyExistException;
 import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceTooManyRequestsException;
 import com.skb.course.apis.libraryapis.model.common.Gender;
 import com.skb.course.apis.libraryapis.testutils.LibraryApiTestUtil;
 import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import com.skb.course.apis.libraryapis.util.OptimisticLockRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -19,9 +24,14 @@ import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -37,10 +47,10 @@ public class UserServiceTest {
     private BCryptPasswordEncoder bCryptPasswordEncoder;
 
     @Mock
-    private BookRepository bookRepository;
+    private BookAvailabilityLedger bookAvailabilityLedger;
 
     @Mock
-    private BookStatusRepository bookStatusRepository;
+    private BookIssuePipeline bookIssuePipeline;
 
     @Mock
     private BookService bookService;
@@ -51,14 +61,21 @@ public class UserServiceTest {
     @Mock
     private UserBookEntityRepository userBookEntityRepository;
 
+    @Mock
+    private ReservationService reservationService;
+
+    @Mock
+    private CirculationJournal circulationJournal;
+
     UserService userService;
 
     @Before
     public void setUp() {
 
         userService = new UserService(bCryptPasswordEncoder, userRepository,
-                bookRepository, bookStatusRepository,
-                bookService, userBookEntityRepository);
+                bookService, userBookEntityRepository,
+                new OptimisticLockRetry(mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), 3, 0),
+                bookAvailabilityLedger, bookIssuePipeline, reservationService, circulationJournal);
     }
 
     @Test
@@ -152,22 +169,22 @@ public class UserServiceTest {
     @Test
     public void searchUser_success_firstname_lastname() {
 
-        List<UserEntity> userEntityList = Arrays.asList(
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".1"),
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".2")
+        List<UserSearchView> userViewList = Arrays.asList(
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".1"),
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".2")
         );
 
         when(userRepository.findByFirstNameAndLastNameContaining(TestConstants.TEST_USER_FIRST_NAME, TestConstants.TEST_USER_LAST_NAME))
-                .thenReturn(userEntityList);
+                .thenReturn(userViewList);
 
         List<User> users = userService.searchUser(TestConstants.TEST_USER_FIRST_NAME, TestConstants.TEST_USER_LAST_NAME, TestConstants.API_TRACE_ID);
 
 
         verify(userRepository, times(1))
                 .findByFirstNameAndLastNameContaining(TestConstants.TEST_USER_FIRST_NAME, TestConstants.TEST_USER_LAST_NAME);
-        assertEquals(userEntityList.size(), users.size());
+        assertEquals(userViewList.size(), users.size());
 
-        assertEquals(userEntityList.size(), users.stream()
+        assertEquals(userViewList.size(), users.stream()
                 .filter(user -> user.getFirstName().contains(TestConstants.TEST_USER_FIRST_NAME))
                 .count()
         );
@@ -176,23 +193,23 @@ public class UserServiceTest {
     @Test
     public void searchUser_success_firstname() {
 
-        List<UserEntity> userEntityList = Arrays.asList(
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".1"),
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".2"),
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".3")
+        List<UserSearchView> userViewList = Arrays.asList(
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".1"),
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".2"),
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".3")
         );
 
         when(userRepository.findByFirstNameContaining(TestConstants.TEST_USER_FIRST_NAME))
-                .thenReturn(userEntityList);
+                .thenReturn(userViewList);
 
         List<User> users = userService.searchUser(TestConstants.TEST_USER_FIRST_NAME, "", TestConstants.API_TRACE_ID);
 
 
         verify(userRepository, times(1))
                 .findByFirstNameContaining(TestConstants.TEST_USER_FIRST_NAME);
-        assertEquals(userEntityList.size(), users.size());
+        assertEquals(userViewList.size(), users.size());
 
-        assertEquals(userEntityList.size(), users.stream()
+        assertEquals(userViewList.size(), users.stream()
                 .filter(user -> user.getFirstName().contains(TestConstants.TEST_USER_FIRST_NAME))
                 .count()
         );
@@ -201,23 +218,23 @@ public class UserServiceTest {
     @Test
     public void searchUser_success_lastname() {
 
-        List<UserEntity> userEntityList = Arrays.asList(
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".1"),
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".2"),
-                LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME + ".3")
+        List<UserSearchView> userViewList = Arrays.asList(
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".1"),
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".2"),
+                LibraryApiTestUtil.createUserSearchView(TestConstants.TEST_USER_USERNAME + ".3")
         );
 
         when(userRepository.findByLastNameContaining(TestConstants.TEST_USER_LAST_NAME))
-                .thenReturn(userEntityList);
+                .thenReturn(userViewList);
 
         List<User> users = userService.searchUser("", TestConstants.TEST_USER_LAST_NAME, TestConstants.API_TRACE_ID);
 
 
         verify(userRepository, times(1))
                 .findByLastNameContaining(TestConstants.TEST_USER_LAST_NAME);
-        assertEquals(userEntityList.size(), users.size());
+        assertEquals(userViewList.size(), users.size());
 
-        assertEquals(userEntityList.size(), users.stream()
+        assertEquals(userViewList.size(), users.stream()
                 .filter(user -> user.getLastName().contains(TestConstants.TEST_USER_LAST_NAME))
                 .count()
         );
@@ -252,7 +269,8 @@ public class UserServiceTest {
         // Add a book
         bookService.addBook(LibraryApiTestUtil.createBook(1), TestConstants.API_TRACE_ID);
 
-        when(bookRepository.findById(anyInt())).thenReturn(LibraryApiTestUtil.createBookEntityOptional());
+        when(bookAvailabilityLedger.getCounts(1)).thenReturn(new int[] {2, 0});
+        when(bookAvailabilityLedger.issue(1)).thenReturn(BookAvailabilityLedger.IssueResult.Issued);
 
         when(userRepository.findById(anyInt())).thenReturn(Optional.of(userEntity));
 
@@ -267,6 +285,108 @@ public class UserServiceTest {
                 .filter(issueBookStatus -> issueBookStatus.getStatus().equals("Issued"))
                 .count()
         );
+        verify(bookAvailabilityLedger, times(1)).load(books);
+        verify(bookAvailabilityLedger, times(1)).issue(1);
+        verify(userBookEntityRepository, times(1)).saveAll(argThat(userBooks -> userBooks.iterator().hasNext()));
+    }
+
+    @Test
+    public void issueBooks_no_copies_available() throws LibraryResourceNotFoundException {
+
+        UserEntity userEntity = LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME);
+        when(userRepository.findById(anyInt())).thenReturn(Optional.of(userEntity));
+        // Book 1 has no copies left, the last copy of Book 2 is taken by someone else before we get to it
+        when(bookAvailabilityLedger.getCounts(1)).thenReturn(new int[] {2, 2});
+        when(bookAvailabilityLedger.getCounts(2)).thenReturn(new int[] {2, 1});
+        when(bookAvailabilityLedger.issue(anyInt())).thenReturn(BookAvailabilityLedger.IssueResult.NoCopiesAvailable);
+
+        Set<Integer> books = new HashSet<>(Arrays.asList(1, 2, 3));
+        IssueBookResponse issueBookResponse = userService.issueBooks(123, books, TestConstants.API_TRACE_ID);
+
+        assertEquals(3, issueBookResponse.getIssueBookStatuses().size());
+        issueBookResponse.getIssueBookStatuses().forEach(issueBookStatus -> {
+            assertEquals("Not Issued", issueBookStatus.getStatus());
+            assertEquals(issueBookStatus.getBookId() == 3 ? "Book Not Found" : "No copies available",
+                    issueBookStatus.getRemarks());
+        });
+        verify(bookAvailabilityLedger, never()).issue(3);
+        verify(userBookEntityRepository, never()).save(any(UserBookEntity.class));
+    }
+
+    @Test
+    public void issueBooks_reissue() throws LibraryResourceNotFoundException {
+
+        ReflectionTestUtils.setField(userService, "maxNumberOfTimesIssue", 3);
+        UserEntity userEntity = LibraryApiTestUtil.createUserEntity(TestConstants.TEST_USER_USERNAME);
+        when(userRepository.findById(anyInt())).thenReturn(Optional.of(userEntity));
+        when(bookAvailabilityLedger.getCounts(1)).thenReturn(new int[] {1, 1});
+        UserBookEntity userBookEntity = new UserBookEntity(123, 1, LocalDate.now().minusDays(10),
+                LocalDate.now().plusDays(4), 1);
+        when(userBookEntityRepository.findByUserIdAndBookIdIn(anyInt(), anyCollection()))
+                .thenReturn(Collections.singletonList(userBookEntity));
+
+        IssueBookResponse issueBookResponse = userService.issueBooks(123, Collections.singleton(1),
+                TestConstants.API_TRACE_ID);
+
+        assertEquals("Book Re-Issued", issueBookResponse.getIssueBookStatuses().iterator().next().getRemarks());
+        assertEquals(2, userBookEntity.getNumberOfTimesIssued());
+        assertEquals(LocalDate.now().plusDays(14), userBookEntity.getReturnDate());
+        verify(bookAvailabilityLedger, never()).issue(anyInt());
+    }
+
+    @Test
+    public void issueBooksQueued_writes_loans_once_copies_are_taken() throws Exception {
+
+        ReflectionTestUtils.setField(userService, "maxNumberOfTimesIssue", 3);
+        when(bookIssuePipeline.isEnabled()).thenReturn(true);
+        when(bookIssuePipeline.getCompletionExecutor()).thenReturn(Runnable::run);
+        when(userRepository.existsById(123)).thenReturn(true);
+        // Book 1 is already issued to the user, so only Book 2 goes through the pipeline
+        when(userBookEntityRepository.findByUserIdAndBookIdIn(anyInt(), anyCollection()))
+                .thenReturn(Collections.singletonList(new UserBookEntity(123, 1, LocalDate.now().minusDays(10),
+                        LocalDate.now().plusDays(4), 1)));
+        when(bookIssuePipeline.issue(Collections.singletonList(2))).thenReturn(CompletableFuture.completedFuture(
+                Collections.singletonMap(2, BookAvailabilityLedger.IssueResult.Issued)));
+
+        IssueBookResponse issueBookResponse = userService.issueBooksQueued(123, new HashSet<>(Arrays.asList(1, 2)),
+                TestConstants.API_TRACE_ID).get();
+
+        assertEquals(2, issueBookResponse.getIssueBookStatuses().size());
+        issueBookResponse.getIssueBookStatuses().forEach(issueBookStatus -> assertEquals(
+                issueBookStatus.getBookId() == 1 ? "Book Re-Issued" : "Book Issued", issueBookStatus.getRemarks()));
+        verify(userBookEntityRepository, times(1)).saveAll(argThat(userBooks -> userBooks.iterator().next().getBookId() == 2));
+        verify(bookAvailabilityLedger, never()).issue(anyInt());
+    }
+
+    @Test
+    public void issueBooksQueued_puts_copies_back_if_loans_are_not_written() throws Exception {
+
+        when(bookIssuePipeline.isEnabled()).thenReturn(true);
+        when(bookIssuePipeline.getCompletionExecutor()).thenReturn(Runnable::run);
+        when(userRepository.existsById(123)).thenReturn(true);
+        when(bookIssuePipeline.issue(Collections.singletonList(2))).thenReturn(CompletableFuture.completedFuture(
+                Collections.singletonMap(2, BookAvailabilityLedger.IssueResult.Issued)));
+        when(userBookEntityRepository.saveAll(anyList())).thenThrow(new IllegalStateException("DB down"));
+
+        try {
+            userService.issueBooksQueued(123, Collections.singleton(2), TestConstants.API_TRACE_ID).get();
+            fail("Expected the issue to fail");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        verify(bookAvailabilityLedger, times(1)).returnCopy(2);
+        // Once for the issue, once for the copy put back
+        verify(bookService, times(2)).bookStatusChanged(2);
+    }
+
+    @Test(expected = LibraryResourceTooManyRequestsException.class)
+    public void issueBooksQueued_pipeline_full() throws Exception {
+
+        when(bookIssuePipeline.isEnabled()).thenReturn(true);
+        when(userRepository.existsById(123)).thenReturn(true);
+        when(bookIssuePipeline.issue(anyList())).thenThrow(new RejectedExecutionException());
+
+        userService.issueBooksQueued(123, Collections.singleton(1), TestConstants.API_TRACE_ID);
     }
 
     @Test(expected = LibraryResourceNotFoundException.class)
@@ -0,0 +1,108 @@
+package com.skb.course.apis.libraryapis.util;
+
+import com.skb.course.apis.libraryapis.exception.LibraryResourceBadRequestException;
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IdempotentRequestsTest {
+
+    IdempotentRequests idempotentRequests;
+
+    AtomicInteger runs = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        idempotentRequests = new IdempotentRequests(100, 60, new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void replay_is_answered_with_the_first_response() throws Exception {
+
+        CompletableFuture<Integer> first = issue("key-1", new HashSet<>(Arrays.asList(1, 2)));
+        CompletableFuture<Integer> replay = issue("key-1", new HashSet<>(Arrays.asList(2, 1)));
+
+        assertEquals(1, runs.get());
+        assertEquals(1, (int) first.get());
+        assertEquals(1, (int) replay.get());
+    }
+
+    @Test
+    public void retry_of_a_request_still_running_waits_for_its_response() throws Exception {
+
+        CompletableFuture<Integer> running = new CompletableFuture<>();
+        CompletableFuture<Integer> first = idempotentRequests.execute("issue:1", "key-1", 1,
+                TestConstants.API_TRACE_ID, () -> running);
+        CompletableFuture<Integer> retry = issue("key-1", 1);
+
+        assertFalse(retry.isDone());
+        running.complete(42);
+        assertEquals(42, (int) first.get());
+        assertEquals(42, (int) retry.get());
+        assertEquals(0, runs.get());
+    }
+
+    @Test(expected = LibraryResourceBadRequestException.class)
+    public void key_can_not_be_sent_again_with_a_different_request() throws Exception {
+
+        issue("key-1", new HashSet<>(Arrays.asList(1, 2)));
+        issue("key-1", new HashSet<>(Arrays.asList(1, 3)));
+    }
+
+    @Test(expected = LibraryResourceBadRequestException.class)
+    public void key_must_not_be_too_long() throws Exception {
+
+        char[] key = new char[IdempotentRequests.MAX_KEY_LENGTH + 1];
+        Arrays.fill(key, 'k');
+        issue(new String(key), 1);
+    }
+
+    @Test
+    public void failed_requests_are_not_kept() throws Exception {
+
+        try {
+            idempotentRequests.execute("issue:1", "key-1", 1, TestConstants.API_TRACE_ID, () -> {
+                throw new LibraryResourceNotFoundException(TestConstants.API_TRACE_ID, "Not Found");
+            });
+            fail("Expected the work's exception");
+        } catch(LibraryResourceNotFoundException e) {
+            // expected
+        }
+        CompletableFuture<Integer> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException());
+        CompletableFuture<Integer> response = idempotentRequests.execute("issue:1", "key-2", 1,
+                TestConstants.API_TRACE_ID, () -> failed);
+        assertTrue(response.isCompletedExceptionally());
+
+        issue("key-1", 1);
+        issue("key-2", 1);
+
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void keys_are_kept_per_scope_and_requests_without_a_key_always_run() throws Exception {
+
+        issue("key-1", 1);
+        idempotentRequests.execute("issue:2", "key-1", 1, TestConstants.API_TRACE_ID,
+                () -> CompletableFuture.completedFuture(runs.incrementAndGet()));
+        issue(null, 1);
+        issue("", 1);
+
+        assertEquals(4, runs.get());
+    }
+
+    private CompletableFuture<Integer> issue(String key, Object request) throws Exception {
+        return idempotentRequests.execute("issue:1", key, request, TestConstants.API_TRACE_ID,
+                () -> CompletableFuture.completedFuture(runs.incrementAndGet()));
+    }
+}
@@ -0,0 +1,40 @@
+package com.skb.course.apis.libraryapis.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntLongHashMapTest {
+
+    @Test
+    public void behaves_like_a_map() {
+
+        IntLongHashMap map = new IntLongHashMap(4);
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        // Small key range so that puts, overwrites and removes (including of key 0) collide a lot
+        for(int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(512) - 16;
+            if(random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for(int key = -16; key < 496; key++) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals(expected.getOrDefault(key, -1L).longValue(), map.get(key, -1L));
+        }
+        Map<Integer, Long> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertEquals(expected, iterated);
+    }
+}
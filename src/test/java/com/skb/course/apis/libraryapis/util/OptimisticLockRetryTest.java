@@ -0,0 +1,96 @@
+package com.skb.course.apis.libraryapis.util;
+
+import com.skb.course.apis.libraryapis.exception.LibraryResourceNotFoundException;
+import com.skb.course.apis.libraryapis.testutils.TestConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OptimisticLockRetryTest {
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    SimpleMeterRegistry meterRegistry;
+
+    OptimisticLockRetry optimisticLockRetry;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        optimisticLockRetry = new OptimisticLockRetry(transactionManager, meterRegistry, 3, 1);
+    }
+
+    @Test
+    public void execute_retries_until_no_conflict() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        String result = optimisticLockRetry.execute(Arrays.asList(1, 2), "issue", () -> {
+            if(attempts.incrementAndGet() < 3) {
+                throw new ObjectOptimisticLockingFailureException("BookStatusEntity", 1);
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+        // Each attempt has a transaction of its own
+        verify(transactionManager, times(3)).getTransaction(any());
+        assertEquals(2, count(OptimisticLockRetry.CONFLICTS_METRIC, "1", "issue"), 0);
+        assertEquals(2, count(OptimisticLockRetry.CONFLICTS_METRIC, "2", "issue"), 0);
+        assertEquals(2, count(OptimisticLockRetry.RETRIES_METRIC, "1", "issue"), 0);
+    }
+
+    @Test
+    public void execute_gives_up_after_max_attempts() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            optimisticLockRetry.execute(Collections.singleton(7), "restock", () -> {
+                attempts.incrementAndGet();
+                throw new ObjectOptimisticLockingFailureException("BookStatusEntity", 7);
+            });
+            fail("Expected the last conflict to be thrown");
+        } catch(ObjectOptimisticLockingFailureException e) {
+            assertEquals(3, attempts.get());
+        }
+        assertEquals(3, count(OptimisticLockRetry.CONFLICTS_METRIC, "7", "restock"), 0);
+        assertEquals(2, count(OptimisticLockRetry.RETRIES_METRIC, "7", "restock"), 0);
+    }
+
+    @Test
+    public void execute_does_not_retry_checked_exceptions() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            optimisticLockRetry.execute(Collections.singleton(7), "return", () -> {
+                attempts.incrementAndGet();
+                throw new LibraryResourceNotFoundException(TestConstants.API_TRACE_ID, "Not Found");
+            });
+            fail("Expected LibraryResourceNotFoundException");
+        } catch(LibraryResourceNotFoundException e) {
+            assertEquals(1, attempts.get());
+        }
+        // Like @Transactional, a checked exception doesn't roll the transaction back
+        verify(transactionManager, times(1)).commit(any());
+        assertNull(meterRegistry.find(OptimisticLockRetry.CONFLICTS_METRIC).counter());
+    }
+
+    private double count(String metric, String bookId, String operation) {
+        return meterRegistry.get(metric).tag("bookId", bookId).tag("operation", operation).counter().count();
+    }
+}